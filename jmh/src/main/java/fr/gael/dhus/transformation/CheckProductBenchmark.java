@@ -0,0 +1,90 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dhus.api.transformation.TransformationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Metadata and sensing date checks of isTransformable, for an accepted and a rejected product.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CheckProductBenchmark
+{
+   private Configuration conf;
+   private Map<String, String> accepted;
+   private Map<String, String> tooOld;
+
+   private static Map<String, String> metadata(String sensingStop)
+   {
+      Map<String, String> metadata = new HashMap<>();
+      metadata.put("Satellite name", "Sentinel-2");
+      metadata.put("Product type", "S2MSI1C");
+      metadata.put("Level-1C PDI Identifier", "S2B_OPER_MSI_L1C_TL_MPS__20200222T110232_A005038_T35TNK_N02.06");
+      metadata.put("Sensing stop", sensingStop);
+      return metadata;
+   }
+
+   @Setup
+   public void setUp()
+   {
+      conf = Configuration.getInstance();
+      accepted = metadata("2020-02-22T10:12:34.567Z");
+      tooOld = metadata("2019-02-22T10:12:34.567Z");
+   }
+
+   @Benchmark
+   public void accepted() throws TransformationException
+   {
+      Sentinel2L2ATransformer.checkProduct(conf, accepted);
+   }
+
+   @Benchmark
+   public TransformationException rejected()
+   {
+      try
+      {
+         Sentinel2L2ATransformer.checkProduct(conf, tooOld);
+         throw new IllegalStateException("Product should have been rejected");
+      }
+      catch (TransformationException e)
+      {
+         return e;
+      }
+   }
+}
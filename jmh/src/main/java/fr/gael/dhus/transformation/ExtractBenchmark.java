@@ -0,0 +1,135 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extraction of the product from result TARs laid out as the WPS outputs them: a directory
+ * entry followed by the zipped SAFE product. Reads and writes are overlapped or not, to compare
+ * the pipelined transfer with the sequential one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExtractBenchmark
+{
+   private static final String PRODUCT = "S2_EPA__l2a_20180305_3";
+
+   // product size in bytes
+   @Param({ "1048576", "67108864", "536870912" })
+   public long size;
+
+   // wps.download.pipelined
+   @Param({ "true", "false" })
+   public boolean pipelined;
+
+   private Path directory;
+   private Path archive;
+   private Configuration conf;
+   private DownloadManager downloadManager;
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException
+   {
+      directory = Files.createTempDirectory("extract-benchmark");
+      archive = directory.resolve("result.tar");
+
+      byte[] block = new byte[1024 * 1024];
+      new Random(42).nextBytes(block);
+      try (TarArchiveOutputStream output = new TarArchiveOutputStream(Files.newOutputStream(archive)))
+      {
+         output.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+         output.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+         output.putArchiveEntry(new TarArchiveEntry(PRODUCT + "/"));
+         output.closeArchiveEntry();
+
+         TarArchiveEntry entry = new TarArchiveEntry(PRODUCT + "/" + PRODUCT + ".SAFE.zip");
+         entry.setSize(size);
+         output.putArchiveEntry(entry);
+         writeContent(output, block, size);
+         output.closeArchiveEntry();
+      }
+
+      Properties properties = new Properties();
+      try (InputStream input = ExtractBenchmark.class.getResourceAsStream("/l2aOnDemand.properties"))
+      {
+         properties.load(input);
+      }
+      properties.setProperty("wps.download.pipelined", Boolean.toString(pipelined));
+      conf = new Configuration(properties);
+      Files.createDirectories(conf.getTmpDirectory());
+      downloadManager = new DownloadManager(conf,
+            new StateJournal(directory.resolve("state.journal"), conf.getJournalCompactionThreshold()));
+   }
+
+   private static void writeContent(OutputStream output, byte[] block, long size) throws IOException
+   {
+      long remaining = size;
+      while (remaining > 0)
+      {
+         int length = (int) Math.min(block.length, remaining);
+         output.write(block, 0, length);
+         remaining -= length;
+      }
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws IOException
+   {
+      Files.deleteIfExists(conf.getTmpDirectory().resolve(PRODUCT + ".zip"));
+      Files.deleteIfExists(directory.resolve("state.journal"));
+      Files.deleteIfExists(archive);
+      Files.deleteIfExists(directory);
+   }
+
+   @Benchmark
+   public URL extract() throws IOException
+   {
+      return downloadManager.extract(archive);
+   }
+}
@@ -0,0 +1,105 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess.sentinel2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.WPSException;
+
+/**
+ * Parsing of the status responses (queryExecutionStatus) and execute responses (toProcessExec),
+ * for both parser implementations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ResponseParserBenchmark
+{
+   @Param({ "drb", "stax" })
+   public String parser;
+
+   private ResponseParser responseParser;
+   private byte[] statusProcessing;
+   private byte[] statusCompleted;
+   private byte[] executeOk;
+
+   private static byte[] load(String resource) throws IOException
+   {
+      try (InputStream input = ResponseParserBenchmark.class.getClassLoader().getResourceAsStream(resource))
+      {
+         ByteArrayOutputStream output = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         int read;
+         while ((read = input.read(buffer)) != -1)
+         {
+            output.write(buffer, 0, read);
+         }
+         return output.toByteArray();
+      }
+   }
+
+   @Setup
+   public void setUp() throws IOException
+   {
+      responseParser = ResponseParser.forName(parser);
+      statusProcessing = load("l2a_status_processing.xml");
+      statusCompleted = load("l2a_status_completed.xml");
+      executeOk = load("l2a_execute_ok.xml");
+   }
+
+   @Benchmark
+   public ProcessExecStatus statusProcessing() throws WPSException
+   {
+      return responseParser.parseExecutionStatus(new ByteArrayInputStream(statusProcessing));
+   }
+
+   @Benchmark
+   public ProcessExecStatus statusCompleted() throws WPSException
+   {
+      return responseParser.parseExecutionStatus(new ByteArrayInputStream(statusCompleted));
+   }
+
+   @Benchmark
+   public ProcessExec execute() throws WPSException
+   {
+      return responseParser.parseExecuteResponse(new ByteArrayInputStream(executeOk));
+   }
+}
@@ -0,0 +1,283 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the aggregated bandwidth of the download streams with a token bucket of bytes.
+ * <p>
+ * Two limits apply, one during the day and one during the night, both may be changed at runtime.
+ * In fair mode, each download is bounded as well by an equal share of the limit, so that a few
+ * downloads cannot take all of it. The streams of a download, eg. its segments, read from its
+ * share. A non positive limit disables the limitation.
+ */
+class BandwidthLimiter
+{
+   // burst allowed by the buckets, in seconds of the limit
+   private static final double BURST = 0.1;
+
+   private final LocalTime dayStart;
+   private final LocalTime dayEnd;
+   private final Clock clock;
+
+   private volatile long dayLimit;
+   private volatile long nightLimit;
+   private volatile boolean fair;
+
+   private final TokenBucket bucket = new TokenBucket(0, 1);
+   private final Set<Share> shares = ConcurrentHashMap.newKeySet();
+
+   // guarded by this, limit and number of shares the buckets are set for
+   private long appliedLimit = 0;
+   private int appliedShares = 0;
+
+   BandwidthLimiter(Configuration conf)
+   {
+      this(conf.getDownloadBandwidthDay(), conf.getDownloadBandwidthNight(), conf.getDownloadBandwidthDayStart(),
+            conf.getDownloadBandwidthDayEnd(), conf.isDownloadBandwidthFair(), Clock.systemDefaultZone());
+   }
+
+   /**
+    * @param dayLimit   bytes per second from the start to the end of the day
+    * @param nightLimit bytes per second the rest of the time
+    * @param dayStart   start of the day, local time
+    * @param dayEnd     end of the day, local time, may be before its start
+    */
+   BandwidthLimiter(long dayLimit, long nightLimit, LocalTime dayStart, LocalTime dayEnd, boolean fair, Clock clock)
+   {
+      this.dayLimit = dayLimit;
+      this.nightLimit = nightLimit;
+      this.dayStart = dayStart;
+      this.dayEnd = dayEnd;
+      this.fair = fair;
+      this.clock = clock;
+   }
+
+   /**
+    * Opens the share of a download, to be closed once the download ends.
+    */
+   Share open()
+   {
+      Share share = new Share();
+      shares.add(share);
+      invalidate();
+      return share;
+   }
+
+   /**
+    * Wraps a download stream so that its reads are bounded by the limiter, reading from the given
+    * share of its download.
+    */
+   InputStream limit(InputStream input, Share share)
+   {
+      return new Stream(input, share, false);
+   }
+
+   /**
+    * Wraps the stream of a download made of this stream only, its share is closed with it.
+    */
+   InputStream limit(InputStream input)
+   {
+      return new Stream(input, open(), true);
+   }
+
+   private synchronized void invalidate()
+   {
+      // shares are set again on the next read
+      appliedShares = -1;
+   }
+
+   /**
+    * Returns the limit in effect, in bytes per second, 0 if unlimited.
+    */
+   long getLimit()
+   {
+      return Math.max(0, isDay() ? dayLimit : nightLimit);
+   }
+
+   long getDayLimit()
+   {
+      return dayLimit;
+   }
+
+   void setDayLimit(long limit)
+   {
+      this.dayLimit = limit;
+   }
+
+   long getNightLimit()
+   {
+      return nightLimit;
+   }
+
+   void setNightLimit(long limit)
+   {
+      this.nightLimit = limit;
+   }
+
+   boolean isFair()
+   {
+      return fair;
+   }
+
+   void setFair(boolean fair)
+   {
+      this.fair = fair;
+   }
+
+   /**
+    * Returns the number of downloads sharing the limit.
+    */
+   int getShareCount()
+   {
+      return shares.size();
+   }
+
+   private boolean isDay()
+   {
+      LocalTime now = LocalTime.now(clock);
+      return dayStart.isBefore(dayEnd)
+            ? !now.isBefore(dayStart) && now.isBefore(dayEnd)
+            : !now.isBefore(dayStart) || now.isBefore(dayEnd);
+   }
+
+   /**
+    * Accounts for bytes read from the share of a download.
+    *
+    * @return nanoseconds the stream must wait before reading again
+    */
+   private long acquire(Share share, int bytes)
+   {
+      long limit = getLimit();
+      int count = fair ? shares.size() : 0;
+      synchronized (this)
+      {
+         if (limit != appliedLimit || count != appliedShares)
+         {
+            // applied on the next read of the streams
+            bucket.setRate(limit, capacity(limit));
+            long rate = count > 0 ? limit / count : 0;
+            shares.forEach(s -> s.bucket.setRate(rate, capacity(rate)));
+            appliedLimit = limit;
+            appliedShares = count;
+         }
+      }
+      return Math.max(bucket.reserve(bytes), share.bucket.reserve(bytes));
+   }
+
+   private static int capacity(long limit)
+   {
+      return (int) Math.min(Integer.MAX_VALUE, (long) (limit * BURST));
+   }
+
+   /**
+    * Share of the limit of a download, read from by all of its streams.
+    */
+   final class Share implements AutoCloseable
+   {
+      private final TokenBucket bucket = new TokenBucket(0, 1);
+
+      private Share()
+      {
+      }
+
+      @Override
+      public void close()
+      {
+         if (shares.remove(this))
+         {
+            invalidate();
+         }
+      }
+   }
+
+   private final class Stream extends FilterInputStream
+   {
+      private final Share share;
+      private final boolean ownShare;
+      private boolean closed = false;
+
+      private Stream(InputStream input, Share share, boolean ownShare)
+      {
+         super(input);
+         this.share = share;
+         this.ownShare = ownShare;
+      }
+
+      @Override
+      public int read() throws IOException
+      {
+         int read = super.read();
+         if (read != -1)
+         {
+            pace(1);
+         }
+         return read;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException
+      {
+         int read = super.read(buffer, offset, length);
+         if (read > 0)
+         {
+            pace(read);
+         }
+         return read;
+      }
+
+      private void pace(int bytes) throws InterruptedIOException
+      {
+         long wait = acquire(share, bytes);
+         if (wait > 0)
+         {
+            try
+            {
+               TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               throw new InterruptedIOException("Interrupted while limiting bandwidth");
+            }
+         }
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+         if (!closed && ownShare)
+         {
+            share.close();
+         }
+         closed = true;
+         super.close();
+      }
+   }
+}
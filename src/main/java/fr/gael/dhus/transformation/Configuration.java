@@ -21,11 +21,19 @@ package fr.gael.dhus.transformation;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 
 import org.apache.logging.log4j.LogManager;
@@ -36,7 +44,8 @@ public class Configuration
 {
    private static final Logger LOGGER = LogManager.getLogger();
 
-   public static final SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+   // immutable, WPS responses are parsed concurrently
+   public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
 
    private static final String CONFIGURATION_FILE = "/l2aOnDemand.properties";
 
@@ -45,9 +54,86 @@ public class Configuration
    private static final String PROPERTY_L2A_USER_ID = "wps.l2a.userId";
    private static final String PROPERTY_L2A_PROCESSOR_VERSION = "wps.l2a.processor.version";
    private static final String PROPERTY_L2A_RESOLUTION = "wps.l2a.resolution";
+   private static final String PROPERTY_PARSER = "wps.parser";
+   private static final String PROPERTY_WARMUP_WAIT = "wps.warmup.wait";
+   private static final String PROPERTY_CAPABILITIES_TTL = "wps.capabilities.ttl";
+
+   // http client
+   private static final String PROPERTY_HTTP_POOL_MAX_TOTAL = "wps.http.pool.max.total";
+   private static final String PROPERTY_HTTP_POOL_MAX_PER_ROUTE = "wps.http.pool.max.per.route";
+   private static final String PROPERTY_HTTP_CONNECT_TIMEOUT = "wps.http.timeout.connect";
+   private static final String PROPERTY_HTTP_SOCKET_TIMEOUT = "wps.http.timeout.socket";
+   private static final String PROPERTY_HTTP_KEEPALIVE = "wps.http.keepalive";
+   private static final String PROPERTY_HTTP_IDLE_EVICTION = "wps.http.idle.eviction";
+
+   // retries and circuit breaker
+   private static final String PROPERTY_RETRY_ATTEMPTS = "wps.retry.attempts";
+   private static final String PROPERTY_RETRY_DELAY_BASE = "wps.retry.delay.base";
+   private static final String PROPERTY_RETRY_DELAY_MAX = "wps.retry.delay.max";
+   private static final String PROPERTY_BREAKER_FAILURE_THRESHOLD = "wps.breaker.failure.threshold";
+   private static final String PROPERTY_BREAKER_OPEN_DURATION = "wps.breaker.open.duration";
+
+   // status poller
+   private static final String PROPERTY_POLLER_MAX_IN_FLIGHT = "wps.poller.max.inflight";
+   private static final String PROPERTY_POLLER_RATE = "wps.poller.rate";
+   private static final String PROPERTY_POLLER_INTERVAL = "wps.poller.interval";
+   private static final String PROPERTY_POLLER_INTERVAL_MIN = "wps.poller.interval.min";
+   private static final String PROPERTY_POLLER_INTERVAL_MAX = "wps.poller.interval.max";
+   private static final String PROPERTY_POLLER_ADAPTIVE = "wps.poller.adaptive";
+
+   // submission queue
+   private static final String PROPERTY_SUBMIT_RATE = "wps.submit.rate";
+   private static final String PROPERTY_SUBMIT_BURST = "wps.submit.burst";
+   private static final String PROPERTY_SUBMIT_MAX_OUTSTANDING = "wps.submit.max.outstanding";
+   private static final String PROPERTY_SUBMIT_QUEUE_SIZE = "wps.submit.queue.size";
+
+   // priorities
+   private static final String PROPERTY_PRIORITY_DEFAULT = "wps.priority.default";
+   private static final String PROPERTY_PRIORITY_AGING = "wps.priority.aging";
+   private static final String PROPERTY_PRIORITY_RULE_PREFIX = "wps.priority.rule.";
+
+   // threads
+   private static final String PROPERTY_THREADS_VIRTUAL = "wps.threads.virtual";
+   private static final String PROPERTY_THREADS_MAX_CONCURRENT = "wps.threads.max.concurrent";
+
+   // downloads
+   private static final String PROPERTY_DOWNLOAD_THREADS = "wps.download.threads";
+   private static final String PROPERTY_DOWNLOAD_MIN_THREADS = "wps.download.threads.min";
+   private static final String PROPERTY_DOWNLOAD_MAX_THREADS = "wps.download.threads.max";
+   private static final String PROPERTY_DOWNLOAD_QUEUE_SIZE = "wps.download.queue.size";
+   private static final String PROPERTY_DOWNLOAD_ADJUST_PERIOD = "wps.download.adjust.period";
+   private static final String PROPERTY_DOWNLOAD_RETRIES = "wps.download.retries";
+   private static final String PROPERTY_DOWNLOAD_TIMEOUT = "wps.download.timeout";
+   private static final String PROPERTY_DOWNLOAD_CHECKPOINT_INTERVAL = "wps.download.checkpoint.interval";
+   private static final String PROPERTY_DOWNLOAD_SEGMENTS = "wps.download.segments";
+   private static final String PROPERTY_DOWNLOAD_SEGMENT_MIN_SIZE = "wps.download.segment.min.size";
+   private static final String PROPERTY_DOWNLOAD_PIPELINED = "wps.download.pipelined";
+   private static final String PROPERTY_DOWNLOAD_BUFFER_SIZE = "wps.download.buffer.size";
+   private static final String PROPERTY_DOWNLOAD_BUFFER_COUNT = "wps.download.buffer.count";
+   private static final String PROPERTY_DOWNLOAD_PIPELINE_DEPTH = "wps.download.pipeline.depth";
+   private static final String PROPERTY_DOWNLOAD_VERIFY = "wps.download.verify";
+   private static final String PROPERTY_DOWNLOAD_BANDWIDTH_DAY = "wps.download.bandwidth.day";
+   private static final String PROPERTY_DOWNLOAD_BANDWIDTH_NIGHT = "wps.download.bandwidth.night";
+   private static final String PROPERTY_DOWNLOAD_BANDWIDTH_DAY_START = "wps.download.bandwidth.day.start";
+   private static final String PROPERTY_DOWNLOAD_BANDWIDTH_DAY_END = "wps.download.bandwidth.day.end";
+   private static final String PROPERTY_DOWNLOAD_BANDWIDTH_FAIR = "wps.download.bandwidth.fair";
 
    // data
    private static final String PROPERTY_TMP_DIR = "wps.tmp.dir";
+   private static final String PROPERTY_TMP_MAX_SIZE = "wps.tmp.max.size";
+   private static final String PROPERTY_DATA_DIR = "wps.data.dir";
+   private static final String PROPERTY_DATA_MAX_SIZE = "wps.data.max.size";
+   private static final String PROPERTY_DATA_MIN_FREE = "wps.data.min.free";
+   private static final String PROPERTY_DATA_EVICTION_GRACE = "wps.data.eviction.grace";
+
+   // result cache
+   private static final String PROPERTY_CACHE_DIR = "wps.cache.dir";
+   private static final String PROPERTY_CACHE_MAX_SIZE = "wps.cache.max.size";
+   private static final String PROPERTY_CACHE_MAX_AGE = "wps.cache.max.age";
+
+   // state journal
+   private static final String PROPERTY_JOURNAL_FILE = "wps.journal.file";
+   private static final String PROPERTY_JOURNAL_COMPACTION_THRESHOLD = "wps.journal.compaction.threshold";
 
    // accepted product
    private static final String PROPERTY_L2A_DATE_START = "wps.l2a.product.date.start";
@@ -73,29 +159,217 @@ public class Configuration
       return INSTANCE;
    }
 
+   /**
+    * Parses a date formatted with {@link #DATE_FORMATTER}, in the default time zone.
+    *
+    * @throws ParseException if the date is malformed
+    */
+   public static Date parseDate(String value) throws ParseException
+   {
+      try
+      {
+         return Date.from(LocalDateTime.parse(value, DATE_FORMATTER).atZone(ZoneId.systemDefault()).toInstant());
+      }
+      catch (DateTimeParseException e)
+      {
+         ParseException exception = new ParseException(e.getMessage(), e.getErrorIndex());
+         exception.initCause(e);
+         throw exception;
+      }
+   }
+
    // service
-   private final String serviceUrl;
+   private final Map<String, Integer> serviceEndpoints;
    private final String l2aUserId;
    private final String l2aProcessorVersion;
    private final String l2aResolution;
+   private final String wpsParser;
+   private final long warmupWait;
+   private final long capabilitiesTtl;
+
+   // http client
+   private final int httpPoolMaxTotal;
+   private final int httpPoolMaxPerRoute;
+   private final int httpConnectTimeout;
+   private final int httpSocketTimeout;
+   private final long httpKeepAlive;
+   private final long httpIdleEviction;
+
+   // retries and circuit breaker
+   private final int retryAttempts;
+   private final long retryDelayBase;
+   private final long retryDelayMax;
+   private final int breakerFailureThreshold;
+   private final long breakerOpenDuration;
+
+   // status poller
+   private final int pollerMaxInFlight;
+   private final double pollerRate;
+   private final long pollerInterval;
+   private final long pollerIntervalMin;
+   private final long pollerIntervalMax;
+   private final boolean pollerAdaptive;
+
+   // submission queue
+   private final double submitRate;
+   private final int submitBurst;
+   private final int submitMaxOutstanding;
+   private final int submitQueueSize;
+
+   // priorities
+   private final PriorityRules priorityRules;
+
+   // threads
+   private final boolean virtualThreads;
+   private final int maxConcurrentTasks;
+
+   // downloads
+   private final int downloadThreads;
+   private final int downloadMinThreads;
+   private final int downloadMaxThreads;
+   private final int downloadQueueSize;
+   private final long downloadAdjustPeriod;
+   private final int downloadRetries;
+   private final int downloadTimeout;
+   private final long downloadCheckpointInterval;
+   private final int downloadSegments;
+   private final long downloadSegmentMinSize;
+   private final boolean downloadPipelined;
+   private final int downloadBufferSize;
+   private final int downloadBufferCount;
+   private final int downloadPipelineDepth;
+   private final boolean downloadVerify;
+   private final long downloadBandwidthDay;
+   private final long downloadBandwidthNight;
+   private final LocalTime downloadBandwidthDayStart;
+   private final LocalTime downloadBandwidthDayEnd;
+   private final boolean downloadBandwidthFair;
 
    // data storage
    private final String tmpDir;
+   private final long tmpMaxSize;
+   private final String dataDir;
+   private final long dataMaxSize;
+   private final long dataMinFree;
+   private final long dataEvictionGrace;
+
+   // result cache
+   private final String cacheDir;
+   private final long cacheMaxSize;
+   private final Duration cacheMaxAge;
+
+   // state journal
+   private final String journalFile;
+   private final int journalCompactionThreshold;
 
    // accepted products
    private final Date l2aDateStart;
    private final Date l2aDateStop;
 
-   private Configuration(Properties properties)
+   Configuration(Properties properties)
    {
       // service
-      this.serviceUrl = Objects.requireNonNull(properties.getProperty(PROPERTY_WPS_URL));
+      this.serviceEndpoints = getEndpoints(Objects.requireNonNull(properties.getProperty(PROPERTY_WPS_URL)));
       this.l2aUserId = Objects.requireNonNull(properties.getProperty(PROPERTY_L2A_USER_ID));
       this.l2aProcessorVersion = Objects.requireNonNull(properties.getProperty(PROPERTY_L2A_PROCESSOR_VERSION));
       this.l2aResolution = Objects.requireNonNull(properties.getProperty(PROPERTY_L2A_RESOLUTION));
+      this.wpsParser = properties.getProperty(PROPERTY_PARSER, "stax");
+      this.warmupWait = getLong(properties, PROPERTY_WARMUP_WAIT, 10000);
+      this.capabilitiesTtl = getLong(properties, PROPERTY_CAPABILITIES_TTL, 3600000);
+
+      // http client
+      this.httpPoolMaxTotal = getInt(properties, PROPERTY_HTTP_POOL_MAX_TOTAL, 50);
+      this.httpPoolMaxPerRoute = getInt(properties, PROPERTY_HTTP_POOL_MAX_PER_ROUTE, 20);
+      this.httpConnectTimeout = getInt(properties, PROPERTY_HTTP_CONNECT_TIMEOUT, 30000);
+      this.httpSocketTimeout = getInt(properties, PROPERTY_HTTP_SOCKET_TIMEOUT, 3000);
+      this.httpKeepAlive = getLong(properties, PROPERTY_HTTP_KEEPALIVE, 60000);
+      this.httpIdleEviction = getLong(properties, PROPERTY_HTTP_IDLE_EVICTION, 30000);
+
+      // retries and circuit breaker
+      this.retryAttempts = getInt(properties, PROPERTY_RETRY_ATTEMPTS, 5);
+      this.retryDelayBase = getLong(properties, PROPERTY_RETRY_DELAY_BASE, 500);
+      this.retryDelayMax = getLong(properties, PROPERTY_RETRY_DELAY_MAX, 30000);
+      this.breakerFailureThreshold = getInt(properties, PROPERTY_BREAKER_FAILURE_THRESHOLD, 5);
+      this.breakerOpenDuration = getLong(properties, PROPERTY_BREAKER_OPEN_DURATION, 30000);
+
+      // status poller
+      this.pollerMaxInFlight = getInt(properties, PROPERTY_POLLER_MAX_IN_FLIGHT, httpPoolMaxPerRoute);
+      this.pollerRate = Double.parseDouble(properties.getProperty(PROPERTY_POLLER_RATE, "10"));
+      this.pollerInterval = getLong(properties, PROPERTY_POLLER_INTERVAL, 30000);
+
+      // bounds of the poll intervals adapted to the progress of the executions
+      this.pollerIntervalMin = getLong(properties, PROPERTY_POLLER_INTERVAL_MIN, 5000);
+      this.pollerIntervalMax = getLong(properties, PROPERTY_POLLER_INTERVAL_MAX, 600000);
+      this.pollerAdaptive = Boolean.parseBoolean(properties.getProperty(PROPERTY_POLLER_ADAPTIVE, "true"));
+
+      // submission queue, in front of the quota of the WPS user
+      this.submitRate = Double.parseDouble(properties.getProperty(PROPERTY_SUBMIT_RATE, "1"));
+      this.submitBurst = getInt(properties, PROPERTY_SUBMIT_BURST, 10);
+      this.submitMaxOutstanding = getInt(properties, PROPERTY_SUBMIT_MAX_OUTSTANDING, 100);
+      this.submitQueueSize = getInt(properties, PROPERTY_SUBMIT_QUEUE_SIZE, 10000);
+
+      // priorities, one level gained per aging period spent waiting
+      Map<String, String> rules = new TreeMap<>();
+      for (String name: properties.stringPropertyNames())
+      {
+         if (name.startsWith(PROPERTY_PRIORITY_RULE_PREFIX))
+         {
+            rules.put(name.substring(PROPERTY_PRIORITY_RULE_PREFIX.length()), properties.getProperty(name));
+         }
+      }
+      this.priorityRules = new PriorityRules(getInt(properties, PROPERTY_PRIORITY_DEFAULT, 1),
+            getLong(properties, PROPERTY_PRIORITY_AGING, 600000), rules);
+
+      // virtual threads for blocking tasks, on Java 21 and later
+      this.virtualThreads = Boolean.parseBoolean(properties.getProperty(PROPERTY_THREADS_VIRTUAL, "false"));
+      this.maxConcurrentTasks = getInt(properties, PROPERTY_THREADS_MAX_CONCURRENT, 256);
+
+      // downloads
+      this.downloadThreads = getInt(properties, PROPERTY_DOWNLOAD_THREADS, 4);
+      this.downloadMinThreads = getInt(properties, PROPERTY_DOWNLOAD_MIN_THREADS, 2);
+      this.downloadMaxThreads = getInt(properties, PROPERTY_DOWNLOAD_MAX_THREADS, 16);
+      this.downloadQueueSize = getInt(properties, PROPERTY_DOWNLOAD_QUEUE_SIZE, 500);
+      this.downloadAdjustPeriod = getLong(properties, PROPERTY_DOWNLOAD_ADJUST_PERIOD, 30000);
+      this.downloadRetries = getInt(properties, PROPERTY_DOWNLOAD_RETRIES, 3);
+      this.downloadTimeout = getInt(properties, PROPERTY_DOWNLOAD_TIMEOUT, 60000);
+      this.downloadCheckpointInterval = getLong(properties, PROPERTY_DOWNLOAD_CHECKPOINT_INTERVAL, 16L * 1024 * 1024);
+      this.downloadSegments = getInt(properties, PROPERTY_DOWNLOAD_SEGMENTS, 4);
+      this.downloadSegmentMinSize = getLong(properties, PROPERTY_DOWNLOAD_SEGMENT_MIN_SIZE, 32L * 1024 * 1024);
+      this.downloadPipelined = Boolean.parseBoolean(properties.getProperty(PROPERTY_DOWNLOAD_PIPELINED, "true"));
+      this.downloadBufferSize = getInt(properties, PROPERTY_DOWNLOAD_BUFFER_SIZE, 1024 * 1024);
+      this.downloadBufferCount = getInt(properties, PROPERTY_DOWNLOAD_BUFFER_COUNT, 64);
+      this.downloadPipelineDepth = getInt(properties, PROPERTY_DOWNLOAD_PIPELINE_DEPTH, 4);
+      this.downloadVerify = Boolean.parseBoolean(properties.getProperty(PROPERTY_DOWNLOAD_VERIFY, "true"));
+
+      // bandwidth of all downloads in bytes per second during the day and the night, unlimited by default
+      this.downloadBandwidthDay = getLong(properties, PROPERTY_DOWNLOAD_BANDWIDTH_DAY, 0);
+      this.downloadBandwidthNight = getLong(properties, PROPERTY_DOWNLOAD_BANDWIDTH_NIGHT, 0);
+      this.downloadBandwidthDayStart = LocalTime.parse(properties.getProperty(PROPERTY_DOWNLOAD_BANDWIDTH_DAY_START, "08:00"));
+      this.downloadBandwidthDayEnd = LocalTime.parse(properties.getProperty(PROPERTY_DOWNLOAD_BANDWIDTH_DAY_END, "20:00"));
+      this.downloadBandwidthFair = Boolean.parseBoolean(properties.getProperty(PROPERTY_DOWNLOAD_BANDWIDTH_FAIR, "false"));
 
       // data storage
       this.tmpDir = properties.getProperty(PROPERTY_TMP_DIR, System.getProperty("java.io.tmpdir"));
+      this.tmpMaxSize = getLong(properties, PROPERTY_TMP_MAX_SIZE, 50L * 1024 * 1024 * 1024);
+
+      // products promoted from the tmp directory, kept in place if not set
+      this.dataDir = properties.getProperty(PROPERTY_DATA_DIR);
+
+      // quota of the products served to the DHuS, and free space required to start a download
+      this.dataMaxSize = getLong(properties, PROPERTY_DATA_MAX_SIZE, 200L * 1024 * 1024 * 1024);
+      this.dataMinFree = getLong(properties, PROPERTY_DATA_MIN_FREE, 5L * 1024 * 1024 * 1024);
+
+      // products handed out to the DHuS are not evicted while it may still be ingesting them
+      this.dataEvictionGrace = getLong(properties, PROPERTY_DATA_EVICTION_GRACE, 3600000);
+
+      // result cache, disabled if no directory is set
+      this.cacheDir = properties.getProperty(PROPERTY_CACHE_DIR);
+      this.cacheMaxSize = getLong(properties, PROPERTY_CACHE_MAX_SIZE, 10L * 1024 * 1024 * 1024);
+      this.cacheMaxAge = Duration.parse(properties.getProperty(PROPERTY_CACHE_MAX_AGE, "P7D"));
+
+      // state journal, kept in the tmp directory by default
+      this.journalFile = properties.getProperty(PROPERTY_JOURNAL_FILE);
+      this.journalCompactionThreshold = getInt(properties, PROPERTY_JOURNAL_COMPACTION_THRESHOLD, 1000);
 
       // accepted products
       String l2aDeltaStartProperty = (String) properties.get(PROPERTY_L2A_DATE_START);
@@ -104,6 +378,18 @@ public class Configuration
       this.l2aDateStop = getL2aDate(l2aDeltaStopProperty);
    }
 
+   private static int getInt(Properties properties, String key, int defaultValue)
+   {
+      String value = properties.getProperty(key);
+      return value == null ? defaultValue : Integer.parseInt(value.trim());
+   }
+
+   private static long getLong(Properties properties, String key, long defaultValue)
+   {
+      String value = properties.getProperty(key);
+      return value == null ? defaultValue : Long.parseLong(value.trim());
+   }
+
    private Date getL2aDate(String propertyValue)
    {
       if (propertyValue != null)
@@ -122,7 +408,7 @@ public class Configuration
          {
             try
             {
-               return DATE_FORMATTER.parse(propertyValue);
+               return parseDate(propertyValue);
             }
             catch (ParseException e)
             {
@@ -134,9 +420,42 @@ public class Configuration
       return null;
    }
 
+   /**
+    * Parses a comma separated list of WPS URLs, each optionally followed by a weight:
+    * {@code https://a/pywps.cgi|2, https://b/pywps.cgi}. The default weight is 1.
+    */
+   private static Map<String, Integer> getEndpoints(String value)
+   {
+      Map<String, Integer> endpoints = new LinkedHashMap<>();
+      for (String endpoint: value.split(","))
+      {
+         String[] fields = endpoint.trim().split("\\|");
+         if (!fields[0].trim().isEmpty())
+         {
+            endpoints.put(fields[0].trim(), fields.length > 1 ? Integer.parseInt(fields[1].trim()) : 1);
+         }
+      }
+      if (endpoints.isEmpty())
+      {
+         throw new IllegalArgumentException("No WPS endpoint in " + PROPERTY_WPS_URL);
+      }
+      return Collections.unmodifiableMap(endpoints);
+   }
+
+   /**
+    * Returns the URL of the first configured WPS endpoint.
+    */
    String getServiceUrl()
    {
-      return serviceUrl;
+      return serviceEndpoints.keySet().iterator().next();
+   }
+
+   /**
+    * Returns the configured WPS endpoints and their weights, in configuration order.
+    */
+   Map<String, Integer> getServiceEndpoints()
+   {
+      return serviceEndpoints;
    }
 
    public String getL2aUserId()
@@ -154,6 +473,241 @@ public class Configuration
       return l2aResolution;
    }
 
+   public String getWpsParser()
+   {
+      return wpsParser;
+   }
+
+   long getWarmupWait()
+   {
+      return warmupWait;
+   }
+
+   long getCapabilitiesTtl()
+   {
+      return capabilitiesTtl;
+   }
+
+   public int getHttpPoolMaxTotal()
+   {
+      return httpPoolMaxTotal;
+   }
+
+   public int getHttpPoolMaxPerRoute()
+   {
+      return httpPoolMaxPerRoute;
+   }
+
+   public int getHttpConnectTimeout()
+   {
+      return httpConnectTimeout;
+   }
+
+   public int getHttpSocketTimeout()
+   {
+      return httpSocketTimeout;
+   }
+
+   public long getHttpKeepAlive()
+   {
+      return httpKeepAlive;
+   }
+
+   public long getHttpIdleEviction()
+   {
+      return httpIdleEviction;
+   }
+
+   public int getRetryAttempts()
+   {
+      return retryAttempts;
+   }
+
+   public long getRetryDelayBase()
+   {
+      return retryDelayBase;
+   }
+
+   public long getRetryDelayMax()
+   {
+      return retryDelayMax;
+   }
+
+   public int getBreakerFailureThreshold()
+   {
+      return breakerFailureThreshold;
+   }
+
+   public long getBreakerOpenDuration()
+   {
+      return breakerOpenDuration;
+   }
+
+   int getPollerMaxInFlight()
+   {
+      return pollerMaxInFlight;
+   }
+
+   double getPollerRate()
+   {
+      return pollerRate;
+   }
+
+   long getPollerInterval()
+   {
+      return pollerInterval;
+   }
+
+   long getPollerIntervalMin()
+   {
+      return pollerIntervalMin;
+   }
+
+   long getPollerIntervalMax()
+   {
+      return pollerIntervalMax;
+   }
+
+   boolean isPollerAdaptive()
+   {
+      return pollerAdaptive;
+   }
+
+   double getSubmitRate()
+   {
+      return submitRate;
+   }
+
+   int getSubmitBurst()
+   {
+      return submitBurst;
+   }
+
+   int getSubmitMaxOutstanding()
+   {
+      return submitMaxOutstanding;
+   }
+
+   int getSubmitQueueSize()
+   {
+      return submitQueueSize;
+   }
+
+   PriorityRules getPriorityRules()
+   {
+      return priorityRules;
+   }
+
+   boolean isVirtualThreads()
+   {
+      return virtualThreads;
+   }
+
+   int getMaxConcurrentTasks()
+   {
+      return maxConcurrentTasks;
+   }
+
+   int getDownloadThreads()
+   {
+      return downloadThreads;
+   }
+
+   int getDownloadMinThreads()
+   {
+      return downloadMinThreads;
+   }
+
+   int getDownloadMaxThreads()
+   {
+      return downloadMaxThreads;
+   }
+
+   int getDownloadQueueSize()
+   {
+      return downloadQueueSize;
+   }
+
+   long getDownloadAdjustPeriod()
+   {
+      return downloadAdjustPeriod;
+   }
+
+   int getDownloadRetries()
+   {
+      return downloadRetries;
+   }
+
+   int getDownloadTimeout()
+   {
+      return downloadTimeout;
+   }
+
+   long getDownloadCheckpointInterval()
+   {
+      return downloadCheckpointInterval;
+   }
+
+   int getDownloadSegments()
+   {
+      return downloadSegments;
+   }
+
+   long getDownloadSegmentMinSize()
+   {
+      return downloadSegmentMinSize;
+   }
+
+   boolean isDownloadPipelined()
+   {
+      return downloadPipelined;
+   }
+
+   int getDownloadBufferSize()
+   {
+      return downloadBufferSize;
+   }
+
+   int getDownloadBufferCount()
+   {
+      return downloadBufferCount;
+   }
+
+   int getDownloadPipelineDepth()
+   {
+      return downloadPipelineDepth;
+   }
+
+   boolean isDownloadVerified()
+   {
+      return downloadVerify;
+   }
+
+   long getDownloadBandwidthDay()
+   {
+      return downloadBandwidthDay;
+   }
+
+   long getDownloadBandwidthNight()
+   {
+      return downloadBandwidthNight;
+   }
+
+   LocalTime getDownloadBandwidthDayStart()
+   {
+      return downloadBandwidthDayStart;
+   }
+
+   LocalTime getDownloadBandwidthDayEnd()
+   {
+      return downloadBandwidthDayEnd;
+   }
+
+   boolean isDownloadBandwidthFair()
+   {
+      return downloadBandwidthFair;
+   }
+
    Date getL2aDateStart()
    {
       return l2aDateStart;
@@ -168,4 +722,54 @@ public class Configuration
    {
       return Paths.get(tmpDir);
    }
+
+   long getTmpMaxSize()
+   {
+      return tmpMaxSize;
+   }
+
+   Path getDataDirectory()
+   {
+      return dataDir == null ? getTmpDirectory() : Paths.get(dataDir);
+   }
+
+   long getDataMaxSize()
+   {
+      return dataMaxSize;
+   }
+
+   long getDataMinFree()
+   {
+      return dataMinFree;
+   }
+
+   long getDataEvictionGrace()
+   {
+      return dataEvictionGrace;
+   }
+
+   Path getCacheDirectory()
+   {
+      return cacheDir == null ? null : Paths.get(cacheDir);
+   }
+
+   long getCacheMaxSize()
+   {
+      return cacheMaxSize;
+   }
+
+   Duration getCacheMaxAge()
+   {
+      return cacheMaxAge;
+   }
+
+   Path getJournalFile()
+   {
+      return journalFile == null ? getTmpDirectory().resolve("state.journal") : Paths.get(journalFile);
+   }
+
+   int getJournalCompactionThreshold()
+   {
+      return journalCompactionThreshold;
+   }
 }
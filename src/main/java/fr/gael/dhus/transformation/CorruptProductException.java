@@ -0,0 +1,41 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+
+/**
+ * Signals a product whose size or checksums do not match the expected ones, it should be
+ * downloaded again.
+ */
+class CorruptProductException extends IOException
+{
+   private static final long serialVersionUID = 1L;
+
+   CorruptProductException(String message)
+   {
+      super(message);
+   }
+
+   CorruptProductException(String message, Throwable throwable)
+   {
+      super(message, throwable);
+   }
+}
@@ -19,73 +19,310 @@
  */
 package fr.gael.dhus.transformation;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import fr.gael.dhus.webprocess.LatencyHistogram;
+
 public class DownloadManager
 {
    private static final Logger LOGGER = LogManager.getLogger();
 
-   private final Map<String, Future<URL>> downloads = new ConcurrentHashMap<>();
+   // remote URL -> download, shared by transformations of the same WPS execution
+   private final Map<String, Download> downloads = new ConcurrentHashMap<>();
 
-   private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
-         4 /* initial size */, 200 /* maximum size */,
-         60, TimeUnit.SECONDS,
-         new LinkedBlockingDeque<>(),
-         runnable -> {
-            Thread thread = new Thread(runnable, Sentinel2L2ATransformer.TRANSFORMER_NAME + "-download");
-            thread.setDaemon(true);
-            return thread;
-         }
-   );
+   // transformation UUID -> remote URL
+   private final Map<String, String> transformations = new ConcurrentHashMap<>();
+
+   private final Configuration conf;
+   private final DownloadScheduler scheduler;
+   private final TransferPipeline pipeline;
+   private final StateJournal journal;
+   private final TieredStorage storage;
+   private final OutputStorage outputs;
+
+   // metrics
+   private final LatencyHistogram durations = new LatencyHistogram();
+   private final LongAdder completed = new LongAdder();
+   private final LongAdder failed = new LongAdder();
+   private final LongAdder corrupt = new LongAdder();
+
+   public DownloadManager(Configuration conf, StateJournal journal) throws IOException
+   {
+      this.conf = conf;
+      this.journal = journal;
+      this.storage = new TieredStorage(conf);
+      this.outputs = new OutputStorage(conf);
+      this.outputs.setEvictionListener(this::forget);
+      this.scheduler = new DownloadScheduler(conf);
+      this.pipeline = new TransferPipeline(conf);
+   }
 
-   public void submitDownload(String uuid, URL remoteTarUrl)
+   /**
+    * Queues the download of the result of a transformation.
+    *
+    * @param uuid         transformation UUID
+    * @param remoteTarUrl URL of the result
+    * @param priority     priority of the transformation
+    * @return false if the download queue is full or the disk space is lacking, the download should
+    *         be submitted again later
+    */
+   public boolean submitDownload(String uuid, URL remoteTarUrl, int priority)
    {
-      downloads.computeIfAbsent(uuid, key -> threadPool.submit(() -> prepareOutput(remoteTarUrl)));
+      String key = remoteTarUrl.toString();
+      if (!downloads.containsKey(key) && !outputs.admit())
+      {
+         return false;
+      }
+      try
+      {
+         downloads.compute(key, (url, download) ->
+         {
+            if (download == null)
+            {
+               Download created = new Download();
+               created.task = scheduler.submit(() -> prepareOutput(remoteTarUrl, created), priority);
+               download = created;
+            }
+            download.transformations.add(uuid);
+            return download;
+         });
+      }
+      catch (RejectedExecutionException e)
+      {
+         LOGGER.warn("Cannot start result download of Transformation '{}': {}", uuid, e.getMessage());
+         return false;
+      }
+      transformations.put(uuid, key);
+      journal.downloading(uuid, key);
 
       LOGGER.info("Starting result download of Transformation '{}' ({})", uuid, remoteTarUrl);
-      LOGGER.info("{} transformation downloads now running", threadPool.getActiveCount() + threadPool.getQueue().size());
+      LOGGER.info("{} transformation downloads now running", getRunningCount());
+      return true;
    }
 
    public boolean hasDownload(String uuid)
    {
-      return downloads.containsKey(uuid);
+      return getDownload(uuid) != null;
    }
 
    public boolean isDownloadDone(String uuid)
    {
-      Future<URL> downloadFuture = downloads.get(uuid);
-      return downloadFuture != null && downloadFuture.isDone();
+      Download download = getDownload(uuid);
+      return download != null && download.future.isDone();
    }
 
+   /**
+    * Forgets the download of a terminated transformation and deletes its product once no other
+    * transformation uses it. The download is cancelled if no other transformation waits for it.
+    */
    public void removeDownload(String uuid)
    {
-      downloads.remove(uuid);
+      forget(uuid);
+      outputs.release(uuid);
+   }
+
+   private void forget(String uuid)
+   {
+      String key = transformations.remove(uuid);
+      if (key != null)
+      {
+         downloads.computeIfPresent(key, (url, download) ->
+         {
+            download.transformations.remove(uuid);
+            if (!download.transformations.isEmpty())
+            {
+               return download;
+            }
+            if (!download.future.isDone())
+            {
+               LOGGER.info("Cancelling result download {}, no transformation waits for it", url);
+               // cancelled first, so that the interrupted download sees it
+               download.future.cancel(false);
+               download.task.cancel(true);
+            }
+            return null;
+         });
+      }
+   }
+
+   /**
+    * Returns the number of downloads running or waiting in queue.
+    */
+   public int getRunningCount()
+   {
+      return scheduler.getActiveCount() + scheduler.getQueueDepth();
+   }
+
+   public int getQueueDepth()
+   {
+      return scheduler.getQueueDepth();
+   }
+
+   public int getActiveCount()
+   {
+      return scheduler.getActiveCount();
+   }
+
+   public int getConcurrency()
+   {
+      return scheduler.getConcurrency();
+   }
+
+   /**
+    * Returns the aggregated download throughput, in bytes per second.
+    */
+   public double getThroughput()
+   {
+      return scheduler.getThroughput();
+   }
+
+   public long getTransferredBytes()
+   {
+      return scheduler.getTransferredBytes();
+   }
+
+   /**
+    * Returns the limiter of the download bandwidth, its limits may be changed at runtime.
+    */
+   BandwidthLimiter getBandwidthLimiter()
+   {
+      return scheduler.getBandwidthLimiter();
+   }
+
+   /**
+    * Returns the durations of the downloads, extraction included.
+    */
+   public LatencyHistogram getDurations()
+   {
+      return durations;
+   }
+
+   public long getCompletedCount()
+   {
+      return completed.sum();
+   }
+
+   public long getFailedCount()
+   {
+      return failed.sum();
+   }
+
+   /**
+    * Returns the number of corrupt results, downloaded again.
+    */
+   public long getCorruptCount()
+   {
+      return corrupt.sum();
+   }
+
+   /**
+    * Returns the bytes used in the scratch directory by archives and products not promoted yet.
+    */
+   public long getScratchUsed()
+   {
+      return storage.getScratchUsed();
+   }
+
+   public long getScratchMaxSize()
+   {
+      return storage.getMaxScratchSize();
+   }
+
+   public int getPromotingCount()
+   {
+      return storage.getPromotingCount();
+   }
+
+   /**
+    * Returns the bytes used in the data directory by the products of the transformations.
+    */
+   public long getOutputSize()
+   {
+      return outputs.getSize();
+   }
+
+   public long getOutputMaxSize()
+   {
+      return outputs.getMaxSize();
+   }
+
+   public long getEvictedCount()
+   {
+      return outputs.getEvictedCount();
+   }
+
+   /**
+    * Records a product of the data directory as owned by a transformation, and as recently used.
+    */
+   public void trackOutput(String uuid, URL product)
+   {
+      try
+      {
+         Path path = Paths.get(product.toURI());
+         if (Files.exists(path))
+         {
+            outputs.add(uuid, path);
+         }
+      }
+      catch (IOException | URISyntaxException | RuntimeException e)
+      {
+         LOGGER.warn("Cannot track result of Transformation '{}' ({})", uuid, product, e);
+      }
+   }
+
+   /**
+    * Returns the number of transformations waiting for a download.
+    */
+   public int getTransformationCount()
+   {
+      return transformations.size();
+   }
+
+   private Download getDownload(String uuid)
+   {
+      String key = transformations.get(uuid);
+      return key == null ? null : downloads.get(key);
    }
 
    public URL getDownloadResultURL(String uuid) throws InterruptedException, ExecutionException
    {
       try
       {
-         URL resultUrl = downloads.get(uuid).get();
+         URL resultUrl = getDownload(uuid).future.get();
+         journal.completed(uuid, resultUrl.toString());
+         trackOutput(uuid, resultUrl);
          LOGGER.info("Finished result download of Transformation '{}' ({})", uuid, resultUrl);
-         LOGGER.info("{} transformation downloads now running", threadPool.getActiveCount() + threadPool.getQueue().size());
+         LOGGER.info("{} transformation downloads now running", getRunningCount());
          return resultUrl;
       }
       catch(InterruptedException | ExecutionException e)
@@ -96,11 +333,164 @@ public class DownloadManager
    }
 
    /**
-    * Downloads the result TAR and unpacks it in the configured tmp directory.
+    * Downloads the result TAR and unpacks it in the scratch directory, then promotes the product
+    * to the data directory in background.
+    *
+    * @param download its future is completed with the final location of the product once promoted
     */
-   private URL prepareOutput(URL remoteTarUrl) throws IOException
+   private Void prepareOutput(URL remoteTarUrl, Download download)
    {
-      try (TarArchiveInputStream input = new TarArchiveInputStream(remoteTarUrl.openStream()))
+      CompletableFuture<URL> result = download.future;
+      ResumableDownload transfer = new ResumableDownload(remoteTarUrl, getArchivePath(remoteTarUrl), scheduler, pipeline, conf)
+            .onCheckpoint(bytes -> journalProgress(remoteTarUrl.toString(), bytes));
+      long start = System.nanoTime();
+      try
+      {
+         storage.awaitScratchSpace();
+
+         int retries = Math.max(1, conf.getDownloadRetries());
+         Path product = null;
+         for (int attempt = 1; product == null; attempt++)
+         {
+            // download the archive, resuming a previous partial download if any
+            Path archive = transfer.run();
+            long archiveSize = Files.size(archive);
+            storage.allocate(archiveSize);
+            try
+            {
+               product = unpack(archive);
+               storage.allocate(Files.size(product));
+            }
+            catch (CorruptProductException e)
+            {
+               // the archive is deleted, the next attempt downloads it from scratch
+               corrupt.increment();
+               if (attempt >= retries)
+               {
+                  throw e;
+               }
+               LOGGER.warn("Corrupt result {} (attempt {}/{}): {}", remoteTarUrl, attempt, retries, e.getMessage());
+            }
+            finally
+            {
+               Files.deleteIfExists(archive);
+               storage.free(archiveSize);
+            }
+         }
+         completed.increment();
+         durations.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+         storage.promote(product).whenComplete((promoted, error) ->
+         {
+            if (error != null)
+            {
+               failed.increment();
+               result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+               return;
+            }
+            try
+            {
+               URL url = promoted.toUri().toURL();
+               if (!own(download, promoted, url))
+               {
+                  return;
+               }
+               result.complete(url);
+            }
+            catch (MalformedURLException e)
+            {
+               result.completeExceptionally(e);
+            }
+         });
+      }
+      catch (IOException | RuntimeException e)
+      {
+         // a cancelled download is not a failure
+         if (!result.isCancelled())
+         {
+            failed.increment();
+         }
+         // a download interrupted by the shutdown is resumed after the restart
+         if (result.isCancelled() || !Thread.currentThread().isInterrupted())
+         {
+            transfer.discard();
+         }
+         result.completeExceptionally(e);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         if (result.isCancelled())
+         {
+            transfer.discard();
+         }
+         result.completeExceptionally(e);
+      }
+      return null;
+   }
+
+   /**
+    * Records a promoted product as owned by the transformations of its download, so that it is
+    * counted in the quota and deleted once they are all terminated, or deletes it right away if
+    * they were all terminated during the download.
+    *
+    * @return false if the product was deleted
+    */
+   private boolean own(Download download, Path product, URL url)
+   {
+      List<String> owners = new ArrayList<>(download.transformations);
+      owners.forEach(uuid -> trackOutput(uuid, url));
+
+      // transformations terminated while being tracked may have released the product already
+      owners.stream().filter(uuid -> !download.transformations.contains(uuid)).forEach(outputs::release);
+      if (owners.isEmpty())
+      {
+         LOGGER.info("Deleting {}, no transformation waits for it", product);
+         try
+         {
+            Files.deleteIfExists(product);
+         }
+         catch (IOException e)
+         {
+            LOGGER.warn("Cannot delete product {}", product, e);
+         }
+         return false;
+      }
+      return true;
+   }
+
+   private void journalProgress(String key, long bytes)
+   {
+      Download download = downloads.get(key);
+      if (download != null)
+      {
+         download.transformations.forEach(uuid -> journal.progress(uuid, bytes));
+      }
+   }
+
+   /**
+    * Returns the local path of a result TAR, stable across restarts.
+    */
+   private Path getArchivePath(URL remoteTarUrl)
+   {
+      UUID id = UUID.nameUUIDFromBytes(remoteTarUrl.toString().getBytes(StandardCharsets.UTF_8));
+      return conf.getTmpDirectory().resolve("download-" + id + ".tar");
+   }
+
+   /**
+    * Unpacks the product of a result TAR in the scratch directory, verifying it on the fly if
+    * enabled.
+    *
+    * @throws CorruptProductException if the product does not match its size or checksums
+    */
+   URL extract(Path archive) throws IOException
+   {
+      return unpack(archive).toUri().toURL();
+   }
+
+   private Path unpack(Path archive) throws IOException
+   {
+      try (TarArchiveInputStream input = new TarArchiveInputStream(new BufferedInputStream(Files.newInputStream(archive))))
       {
          // skip unnecessary elements
          input.getNextTarEntry();
@@ -109,13 +499,46 @@ public class DownloadManager
          // generate output file
          String filename = entry.getName().split(File.separator)[1];
          filename = filename.replace(".SAFE.", ".");
-         Path output = Configuration.getInstance().getTmpDirectory().resolve(filename);
+         Path output = storage.getScratchDirectory().resolve(filename);
 
          // write product data
-         Files.copy(input, output, StandardCopyOption.REPLACE_EXISTING);
+         long start = System.nanoTime();
+         long size;
+         try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+               StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+         {
+            if (conf.isDownloadVerified())
+            {
+               try (ProductVerifier verifier = new ProductVerifier(filename, entry.getSize()))
+               {
+                  size = pipeline.copy(verifier.wrap(Channels.newChannel(input)), channel, 0, -1, written -> {});
+                  verifier.verify();
+               }
+            }
+            else
+            {
+               size = pipeline.copy(Channels.newChannel(input), channel, 0, -1, written -> {});
+            }
+         }
+         catch (CorruptProductException e)
+         {
+            Files.deleteIfExists(output);
+            throw e;
+         }
+         long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+         LOGGER.info("Extracted {} ({} bytes in {} ms, {} MB/s, {})", filename, size, elapsed,
+               size / 1000 / elapsed, pipeline.isPipelined() ? "pipelined" : "sequential");
 
-         // return URL
-         return output.toUri().toURL();
+         return output;
       }
    }
+
+   private static final class Download
+   {
+      private final CompletableFuture<URL> future = new CompletableFuture<>();
+      private final Set<String> transformations = ConcurrentHashMap.newKeySet();
+
+      // set on creation, before the download is published to other transformations
+      private Future<Void> task;
+   }
 }
@@ -0,0 +1,321 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs result downloads with a bounded queue and an adaptive concurrency limit.
+ * <p>
+ * Downloads are started by priority, aging included (see {@link PriorityRules}), and are rejected
+ * when the queue is full. The concurrency limit is periodically adjusted,
+ * between the configured bounds, by a hill climbing on the aggregated throughput of all downloads:
+ * the limit keeps moving in the same direction while the throughput improves and goes back when
+ * it degrades.
+ */
+class DownloadScheduler
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   // relative throughput variation considered significant
+   private static final double THRESHOLD = 0.05;
+
+   private final int minConcurrency;
+   private final int maxConcurrency;
+   private final long adjustPeriod;
+   private final int capacity;
+   private final PriorityRules priorities;
+   private final BandwidthLimiter limiter;
+
+   // by rank, then in submission order
+   private final BlockingQueue<Task<?>> queue = new PriorityBlockingQueue<>(11,
+         Comparator.<Task<?>>comparingLong(task -> task.rank).thenComparingLong(task -> task.sequence));
+   private final AtomicLong sequence = new AtomicLong();
+   private final ExecutorService executor;
+   private final ExecutorService segmentExecutor;
+   private final ScheduledExecutorService controller;
+
+   // bytes downloaded since last adjustment, and since startup
+   private final LongAdder transferred = new LongAdder();
+   private final LongAdder totalTransferred = new LongAdder();
+
+   // guarded by this
+   private int concurrency;
+   private int active = 0;
+
+   // hill climbing state, guarded by this
+   private int direction = 1;
+   private double lastThroughput = 0;
+   private volatile double throughput = 0;
+
+   DownloadScheduler(Configuration conf)
+   {
+      this.minConcurrency = Math.max(1, conf.getDownloadMinThreads());
+      this.maxConcurrency = Math.max(minConcurrency, conf.getDownloadMaxThreads());
+      this.concurrency = Math.min(maxConcurrency, Math.max(minConcurrency, conf.getDownloadThreads()));
+      this.adjustPeriod = conf.getDownloadAdjustPeriod();
+      this.capacity = conf.getDownloadQueueSize();
+      this.priorities = conf.getPriorityRules();
+      this.limiter = new BandwidthLimiter(conf);
+
+      // downloads are bounded by the concurrency limit, segments by the maximum of concurrent tasks
+      String name = Sentinel2L2ATransformer.TRANSFORMER_NAME;
+      this.executor = ExecutorFactory.newExecutor(name + "-download", conf.isVirtualThreads(), 0);
+      this.segmentExecutor = ExecutorFactory.newExecutor(name + "-download-segment", conf.isVirtualThreads(),
+            conf.getMaxConcurrentTasks());
+      this.controller = Executors.newSingleThreadScheduledExecutor(
+            runnable -> newThread(runnable, "-download-scheduler"));
+
+      Thread dispatcher = newThread(this::dispatch, "-download-dispatcher");
+      dispatcher.start();
+      controller.scheduleWithFixedDelay(this::adjust, adjustPeriod, adjustPeriod, TimeUnit.MILLISECONDS);
+   }
+
+   private static Thread newThread(Runnable runnable, String suffix)
+   {
+      Thread thread = new Thread(runnable, Sentinel2L2ATransformer.TRANSFORMER_NAME + suffix);
+      thread.setDaemon(true);
+      return thread;
+   }
+
+   /**
+    * Queues a download.
+    *
+    * @param download performs the download
+    * @param priority priority of the download
+    * @throws RejectedExecutionException if the queue is full
+    */
+   <T> Future<T> submit(Callable<T> download, int priority)
+   {
+      Task<T> task = new Task<>(download, priorities.rank(priority), sequence.incrementAndGet());
+      synchronized (queue)
+      {
+         if (queue.size() >= capacity)
+         {
+            throw new RejectedExecutionException("Download queue is full (" + queue.size() + " downloads)");
+         }
+         queue.offer(task);
+      }
+      return task;
+   }
+
+   /**
+    * Wraps a download stream so that its throughput is taken into account and bounded by the
+    * bandwidth limiter, within the share of its download.
+    *
+    * @param share share of the download, opened by the bandwidth limiter
+    */
+   InputStream meter(InputStream stream, BandwidthLimiter.Share share)
+   {
+      return limiter.limit(new FilterInputStream(stream)
+      {
+         @Override
+         public int read() throws IOException
+         {
+            int read = super.read();
+            if (read != -1)
+            {
+               transferred.increment();
+               totalTransferred.increment();
+            }
+            return read;
+         }
+
+         @Override
+         public int read(byte[] buffer, int offset, int length) throws IOException
+         {
+            int read = super.read(buffer, offset, length);
+            if (read > 0)
+            {
+               transferred.add(read);
+               totalTransferred.add(read);
+            }
+            return read;
+         }
+      }, share);
+   }
+
+   BandwidthLimiter getBandwidthLimiter()
+   {
+      return limiter;
+   }
+
+   /**
+    * Returns the executor running the segments of segmented downloads.
+    */
+   ExecutorService getSegmentExecutor()
+   {
+      return segmentExecutor;
+   }
+
+   int getQueueDepth()
+   {
+      return queue.size();
+   }
+
+   synchronized int getActiveCount()
+   {
+      return active;
+   }
+
+   synchronized int getConcurrency()
+   {
+      return concurrency;
+   }
+
+   /**
+    * Returns the aggregated throughput measured over the last period, in bytes per second.
+    */
+   double getThroughput()
+   {
+      return throughput;
+   }
+
+   long getTransferredBytes()
+   {
+      return totalTransferred.sum();
+   }
+
+   private void dispatch()
+   {
+      try
+      {
+         while (!Thread.currentThread().isInterrupted())
+         {
+            // wait for a free slot first, queued downloads stay ranked and counted meanwhile
+            synchronized (this)
+            {
+               while (active >= concurrency)
+               {
+                  wait();
+               }
+            }
+            // only the dispatcher takes a slot, it is still free
+            Task<?> task = queue.take();
+            synchronized (this)
+            {
+               active++;
+            }
+            executor.execute(() ->
+            {
+               try
+               {
+                  task.run();
+               }
+               finally
+               {
+                  release();
+               }
+            });
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private synchronized void release()
+   {
+      active--;
+      notifyAll();
+   }
+
+   private void adjust()
+   {
+      adjust(transferred.sumThenReset() * 1000d / adjustPeriod);
+   }
+
+   /**
+    * Adjusts the concurrency limit to the throughput measured over the last period.
+    *
+    * @param current aggregated throughput, in bytes per second
+    */
+   void adjust(double current)
+   {
+      throughput = current;
+
+      synchronized (this)
+      {
+         // only adjust while downloads are limited by the concurrency, not by the demand
+         if (active < concurrency && queue.isEmpty())
+         {
+            lastThroughput = 0;
+            return;
+         }
+
+         if (lastThroughput > 0)
+         {
+            if (current < lastThroughput * (1 - THRESHOLD))
+            {
+               direction = -direction;
+            }
+            else if (current <= lastThroughput * (1 + THRESHOLD))
+            {
+               // plateau, keep the current limit
+               lastThroughput = current;
+               return;
+            }
+         }
+         lastThroughput = current;
+
+         int previous = concurrency;
+         concurrency = Math.min(maxConcurrency, Math.max(minConcurrency, concurrency + direction));
+         if (concurrency == previous)
+         {
+            // bound reached, explore the other way next time
+            direction = -direction;
+         }
+         notifyAll();
+         LOGGER.debug("Download concurrency {} -> {} ({} B/s)", previous, concurrency, (long) current);
+      }
+   }
+
+   private static final class Task<T> extends FutureTask<T>
+   {
+      private final long rank;
+      private final long sequence;
+
+      private Task(Callable<T> callable, long rank, long sequence)
+      {
+         super(callable);
+         this.rank = rank;
+         this.sequence = sequence;
+      }
+   }
+}
@@ -0,0 +1,356 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.webprocess.CircuitBreaker;
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.UnreachedWPSException;
+import fr.gael.dhus.webprocess.WPSException;
+import fr.gael.dhus.webprocess.sentinel2.Sentinel2WebProcessService;
+
+/**
+ * Routes WPS requests between several endpoints.
+ * <p>
+ * Execute requests are sent to an endpoint drawn at random, with a probability proportional to its
+ * configured weight and inversely proportional to its outstanding executions, observed latency and
+ * error rate. Endpoints whose circuit is open are skipped, and a request which could not reach its
+ * endpoint is sent to another one, other failures are not as the execution may have been launched.
+ * Status requests stick to the endpoint which issued the monitoring URL.
+ */
+class EndpointRouter
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   // smoothing factor of the latency and error rate moving averages
+   private static final double ALPHA = 0.2;
+
+   // latency assumed for endpoints not measured yet, in milliseconds
+   private static final double INITIAL_LATENCY = 100;
+
+   // penalty factor of the error rate
+   private static final double ERROR_PENALTY = 10;
+
+   private final List<Endpoint> endpoints = new ArrayList<>();
+
+   // monitoring URL -> endpoint which issued it
+   private final Map<String, Endpoint> executions = new ConcurrentHashMap<>();
+
+   EndpointRouter(Map<String, Integer> endpoints) throws MalformedURLException
+   {
+      for (Map.Entry<String, Integer> entry: endpoints.entrySet())
+      {
+         this.endpoints.add(new Endpoint(new URL(entry.getKey()), Math.max(1, entry.getValue())));
+      }
+   }
+
+   /**
+    * Loads the capabilities of all endpoints.
+    *
+    * @return a future completed once all endpoints are loaded or failed, exceptionally if none
+    *         could be loaded
+    */
+   CompletableFuture<Void> load()
+   {
+      List<CompletableFuture<Void>> loads = new ArrayList<>();
+      for (Endpoint endpoint: endpoints)
+      {
+         loads.add(Sentinel2WebProcessService.loadWPSAsync(endpoint.url).handle((service, error) ->
+         {
+            if (error == null)
+            {
+               endpoint.service = service;
+            }
+            else
+            {
+               LOGGER.warn("Could not load WPS endpoint {}: {}", endpoint.url, error.getMessage());
+            }
+            return null;
+         }));
+      }
+      return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).thenRun(() ->
+      {
+         if (getService() == null)
+         {
+            throw new IllegalStateException("No WPS endpoint could be loaded");
+         }
+      });
+   }
+
+   /**
+    * Reloads the capabilities of all endpoints, keeping the previous ones of unreachable endpoints.
+    *
+    * @return true if at least one endpoint was reloaded
+    */
+   boolean refresh()
+   {
+      boolean refreshed = false;
+      for (Endpoint endpoint: endpoints)
+      {
+         try
+         {
+            endpoint.service = Sentinel2WebProcessService.loadWPS(endpoint.url);
+            refreshed = true;
+         }
+         catch (WPSException e)
+         {
+            LOGGER.warn("Could not refresh capabilities of WPS endpoint {}, keeping the previous ones: {}",
+                  endpoint.url, e.getMessage());
+         }
+      }
+      return refreshed;
+   }
+
+   /**
+    * Returns the service of the first loaded endpoint.
+    */
+   Sentinel2WebProcessService getService()
+   {
+      for (Endpoint endpoint: endpoints)
+      {
+         if (endpoint.service != null)
+         {
+            return endpoint.service;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Launches a process on the best endpoint, failing over to the other endpoints while the
+    * request does not reach them.
+    *
+    * @param priority user priority of the execution
+    * @throws WPSException if the process could not be launched on any endpoint
+    */
+   ProcessExec execute(String processId, String tileId, int priority) throws WPSException
+   {
+      List<Endpoint> candidates = new ArrayList<>();
+      for (Endpoint endpoint: endpoints)
+      {
+         if (endpoint.service != null)
+         {
+            candidates.add(endpoint);
+         }
+      }
+
+      WPSException failure = new WPSException("No WPS endpoint available");
+      while (!candidates.isEmpty())
+      {
+         Endpoint endpoint = choose(candidates);
+         candidates.remove(endpoint);
+
+         long start = System.nanoTime();
+         try
+         {
+            ProcessExec execution = endpoint.service.queryProcessExecution(processId, tileId, priority);
+            endpoint.record((System.nanoTime() - start) / 1e6, false);
+            if (executions.putIfAbsent(execution.getMonitoringUrl().toString(), endpoint) == null)
+            {
+               endpoint.outstanding.incrementAndGet();
+            }
+            return execution;
+         }
+         catch (UnreachedWPSException e)
+         {
+            // the request was not sent, no execution may have been launched
+            endpoint.record((System.nanoTime() - start) / 1e6, true);
+            LOGGER.warn("Execute request could not reach WPS endpoint {}{}: {}", endpoint.url,
+                  candidates.isEmpty() ? "" : ", failing over", e.getMessage());
+            failure = e;
+         }
+         catch (WPSException e)
+         {
+            // the execution may have been launched anyway, executions are not idempotent
+            endpoint.record((System.nanoTime() - start) / 1e6, true);
+            throw e;
+         }
+      }
+      throw failure;
+   }
+
+   /**
+    * Draws an endpoint at random, in proportion to its score. Endpoints whose circuit is open are
+    * only drawn if all of them are.
+    */
+   private static Endpoint choose(List<Endpoint> candidates)
+   {
+      double[] scores = new double[candidates.size()];
+      double total = 0;
+      for (int i = 0; i < scores.length; i++)
+      {
+         Endpoint endpoint = candidates.get(i);
+         scores[i] = endpoint.isAvailable() ? endpoint.getScore() : 0;
+         total += scores[i];
+      }
+      if (total <= 0)
+      {
+         return candidates.get(0);
+      }
+
+      double draw = ThreadLocalRandom.current().nextDouble(total);
+      for (int i = 0; i < scores.length; i++)
+      {
+         draw -= scores[i];
+         if (draw < 0)
+         {
+            return candidates.get(i);
+         }
+      }
+      return candidates.get(scores.length - 1);
+   }
+
+   /**
+    * Starts tracking an execution, eg. restored after a restart, as outstanding on the endpoint
+    * which issued its monitoring URL.
+    */
+   void track(URL monitoringUrl)
+   {
+      executions.computeIfAbsent(monitoringUrl.toString(), url ->
+      {
+         Endpoint endpoint = findEndpoint(monitoringUrl);
+         endpoint.outstanding.incrementAndGet();
+         return endpoint;
+      });
+   }
+
+   /**
+    * Stops tracking an execution, once terminated or no longer monitored.
+    */
+   void completed(URL monitoringUrl)
+   {
+      Endpoint endpoint = executions.remove(monitoringUrl.toString());
+      if (endpoint != null)
+      {
+         endpoint.outstanding.decrementAndGet();
+      }
+   }
+
+   /**
+    * Returns the service of the endpoint which issued the given monitoring URL.
+    */
+   Sentinel2WebProcessService forMonitoringUrl(URL monitoringUrl)
+   {
+      Endpoint endpoint = executions.get(monitoringUrl.toString());
+      if (endpoint == null)
+      {
+         endpoint = findEndpoint(monitoringUrl);
+      }
+      // status queries only depend on the monitoring URL, any loaded service can send them
+      return endpoint.service != null ? endpoint.service : getService();
+   }
+
+   /**
+    * Finds the endpoint of a monitoring URL by host, the first endpoint by default.
+    */
+   private Endpoint findEndpoint(URL monitoringUrl)
+   {
+      for (Endpoint endpoint: endpoints)
+      {
+         if (endpoint.url.getAuthority().equalsIgnoreCase(monitoringUrl.getAuthority()))
+         {
+            return endpoint;
+         }
+      }
+      return endpoints.get(0);
+   }
+
+   /**
+    * Returns the number of executions outstanding on all endpoints.
+    */
+   int getOutstanding()
+   {
+      int outstanding = 0;
+      for (Endpoint endpoint: endpoints)
+      {
+         outstanding += endpoint.outstanding.get();
+      }
+      return outstanding;
+   }
+
+   /**
+    * Describes the state of each endpoint.
+    */
+   Map<String, String> describe()
+   {
+      Map<String, String> description = new LinkedHashMap<>();
+      for (Endpoint endpoint: endpoints)
+      {
+         description.put(endpoint.url.toString(), endpoint.toString());
+      }
+      return description;
+   }
+
+   private static final class Endpoint
+   {
+      private final URL url;
+      private final int weight;
+      private final CircuitBreaker breaker;
+      private final AtomicInteger outstanding = new AtomicInteger();
+      private volatile Sentinel2WebProcessService service;
+
+      // guarded by this
+      private double latency = INITIAL_LATENCY;
+      private double errorRate = 0;
+
+      private Endpoint(URL url, int weight)
+      {
+         this.url = url;
+         this.weight = weight;
+         this.breaker = CircuitBreaker.forEndpoint(url);
+      }
+
+      private synchronized void record(double millis, boolean failed)
+      {
+         latency += ALPHA * (millis - latency);
+         errorRate += ALPHA * ((failed ? 1 : 0) - errorRate);
+      }
+
+      private boolean isAvailable()
+      {
+         return breaker.getState() != CircuitBreaker.State.OPEN;
+      }
+
+      private synchronized double getScore()
+      {
+         return weight / ((1 + outstanding.get()) * Math.max(1, latency) * (1 + ERROR_PENALTY * errorRate));
+      }
+
+      @Override
+      public synchronized String toString()
+      {
+         return String.format("weight=%d, loaded=%b, circuit=%s, outstanding=%d, latency=%.0fms, errorRate=%.2f",
+               weight, service != null, breaker.getState(), outstanding.get(), latency, errorRate);
+      }
+   }
+}
@@ -0,0 +1,69 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Creates the executors running blocking tasks, such as downloads and WPS requests.
+ * <p>
+ * This version runs tasks on daemon platform threads. On Java 21 and later, the version of the
+ * multi-release jar may run them on virtual threads instead.
+ */
+final class ExecutorFactory
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private ExecutorFactory() {}
+
+   /**
+    * Returns whether virtual threads are supported by the running JVM.
+    */
+   static boolean isVirtualSupported()
+   {
+      return false;
+   }
+
+   /**
+    * Creates an executor starting a thread per task, idle threads are reused.
+    *
+    * @param name           name of the threads
+    * @param virtual        ignored, virtual threads require Java 21
+    * @param maxConcurrency maximum number of tasks running at once, unbounded if not positive
+    */
+   static ExecutorService newExecutor(String name, boolean virtual, int maxConcurrency)
+   {
+      if (virtual)
+      {
+         LOGGER.warn("Virtual threads require Java 21, {} runs on platform threads", name);
+      }
+      ExecutorService executor = Executors.newCachedThreadPool(runnable ->
+      {
+         Thread thread = new Thread(runnable, name);
+         thread.setDaemon(true);
+         return thread;
+      });
+      return LimitedExecutor.wrap(executor, maxConcurrency);
+   }
+}
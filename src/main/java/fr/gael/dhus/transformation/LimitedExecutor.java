@@ -0,0 +1,161 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the number of tasks running at once on an executor, tasks in excess wait in a queue
+ * without holding a thread.
+ */
+class LimitedExecutor extends AbstractExecutorService
+{
+   private final ExecutorService delegate;
+   private final int limit;
+
+   private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+   private final AtomicInteger running = new AtomicInteger();
+
+   /**
+    * @param limit maximum number of tasks running at once
+    */
+   LimitedExecutor(ExecutorService delegate, int limit)
+   {
+      this.delegate = delegate;
+      this.limit = Math.max(1, limit);
+   }
+
+   /**
+    * Bounds an executor, returned as is if the limit is not positive.
+    */
+   static ExecutorService wrap(ExecutorService executor, int limit)
+   {
+      return limit > 0 ? new LimitedExecutor(executor, limit) : executor;
+   }
+
+   int getRunningCount()
+   {
+      return running.get();
+   }
+
+   int getWaitingCount()
+   {
+      return waiting.size();
+   }
+
+   @Override
+   public void execute(Runnable task)
+   {
+      if (delegate.isShutdown())
+      {
+         throw new RejectedExecutionException("Executor is shut down");
+      }
+      waiting.offer(task);
+      drain();
+   }
+
+   /**
+    * Starts waiting tasks while the limit allows it, called when a task is queued or completed.
+    */
+   private void drain()
+   {
+      while (!waiting.isEmpty())
+      {
+         int current = running.get();
+         if (current >= limit)
+         {
+            return;
+         }
+         if (!running.compareAndSet(current, current + 1))
+         {
+            continue;
+         }
+         Runnable task = waiting.poll();
+         if (task == null)
+         {
+            running.decrementAndGet();
+            continue;
+         }
+         try
+         {
+            delegate.execute(() ->
+            {
+               try
+               {
+                  task.run();
+               }
+               finally
+               {
+                  running.decrementAndGet();
+                  drain();
+               }
+            });
+         }
+         catch (RejectedExecutionException e)
+         {
+            running.decrementAndGet();
+            throw e;
+         }
+      }
+   }
+
+   @Override
+   public void shutdown()
+   {
+      delegate.shutdown();
+   }
+
+   @Override
+   public List<Runnable> shutdownNow()
+   {
+      List<Runnable> tasks = delegate.shutdownNow();
+      Runnable task;
+      while ((task = waiting.poll()) != null)
+      {
+         tasks.add(task);
+      }
+      return tasks;
+   }
+
+   @Override
+   public boolean isShutdown()
+   {
+      return delegate.isShutdown();
+   }
+
+   @Override
+   public boolean isTerminated()
+   {
+      return delegate.isTerminated() && waiting.isEmpty();
+   }
+
+   @Override
+   public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      return delegate.awaitTermination(timeout, unit);
+   }
+}
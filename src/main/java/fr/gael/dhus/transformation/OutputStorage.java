@@ -0,0 +1,285 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Products served to the DHuS from the data directory, owned by the transformations that
+ * produced them.
+ * <p>
+ * A product is deleted once all of its owners are terminated. The total size of the products is
+ * bounded by a quota, least recently used products are evicted beyond it. Products handed out to
+ * the DHuS within the eviction grace period are not evicted, as it may still be ingesting them.
+ * New downloads are only admitted while the quota and the free space of the tmp and data
+ * directories allow it.
+ */
+class OutputStorage
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private final Path dataDirectory;
+   private final Path tmpDirectory;
+   private final long maxSize;
+   private final long minFree;
+   private final long grace;
+   private final LongSupplier clock;
+
+   // access ordered, least recently used product first
+   private final LinkedHashMap<Path, Output> outputs = new LinkedHashMap<>(16, 0.75f, true);
+
+   // transformation UUID -> product
+   private final Map<String, Path> owners = new HashMap<>();
+
+   private long size = 0;
+   private long evicted = 0;
+
+   // notified of the transformations whose product was evicted
+   private volatile Consumer<String> evictionListener = uuid -> {};
+
+   OutputStorage(Configuration conf)
+   {
+      this(conf.getDataDirectory(), conf.getTmpDirectory(), conf.getDataMaxSize(), conf.getDataMinFree(),
+            conf.getDataEvictionGrace(), System::currentTimeMillis);
+   }
+
+   /**
+    * @param maxSize quota of the data directory in bytes, unbounded if not positive
+    * @param minFree free space required in the data and tmp directories to admit a download
+    */
+   OutputStorage(Path dataDirectory, Path tmpDirectory, long maxSize, long minFree)
+   {
+      this(dataDirectory, tmpDirectory, maxSize, minFree, 0, System::currentTimeMillis);
+   }
+
+   /**
+    * @param grace milliseconds a product is kept once handed out, whatever the quota
+    * @param clock current time in milliseconds
+    */
+   OutputStorage(Path dataDirectory, Path tmpDirectory, long maxSize, long minFree, long grace, LongSupplier clock)
+   {
+      this.dataDirectory = dataDirectory;
+      this.tmpDirectory = tmpDirectory;
+      this.maxSize = maxSize;
+      this.minFree = minFree;
+      this.grace = grace;
+      this.clock = clock;
+   }
+
+   void setEvictionListener(Consumer<String> listener)
+   {
+      this.evictionListener = listener;
+   }
+
+   /**
+    * Records a product of the data directory as owned by a transformation, handed out to the DHuS,
+    * and marks it as recently used, evicting least recently used products if the quota is exceeded.
+    */
+   void add(String uuid, Path product) throws IOException
+   {
+      List<String> evictedOwners;
+      synchronized (this)
+      {
+         Path previous = owners.put(uuid, product);
+         if (previous != null && !previous.equals(product))
+         {
+            disown(uuid, previous);
+         }
+         Output output = outputs.get(product);
+         if (output == null)
+         {
+            output = new Output(Files.size(product));
+            outputs.put(product, output);
+            size += output.size;
+         }
+         output.owners.add(uuid);
+         output.handedOut = clock.getAsLong();
+         evictedOwners = evict(0, product);
+      }
+      evictedOwners.forEach(evictionListener);
+   }
+
+   /**
+    * Releases the product of a terminated transformation, deleting it if no other transformation
+    * owns it.
+    */
+   synchronized void release(String uuid)
+   {
+      Path product = owners.remove(uuid);
+      if (product != null)
+      {
+         disown(uuid, product);
+      }
+   }
+
+   /**
+    * Returns whether a new download may start, evicting least recently used products to make room
+    * if needed.
+    */
+   boolean admit()
+   {
+      long missing = Math.max(0, minFree - getFreeSpace());
+      List<String> evictedOwners;
+      boolean admitted;
+      synchronized (this)
+      {
+         // the quota must not be reached yet, a download adds at least one product to it
+         long over = maxSize > 0 ? Math.max(0, size - maxSize + 1) : 0;
+         evictedOwners = evict(Math.max(missing, over), null);
+         admitted = maxSize <= 0 || size < maxSize;
+      }
+      evictedOwners.forEach(evictionListener);
+
+      // evicted products may not be on the file store lacking space
+      admitted = admitted && (missing == 0 || getFreeSpace() >= minFree);
+      if (!admitted)
+      {
+         LOGGER.warn("Not enough space to start a download ({} bytes of products, {} bytes free required)",
+               getSize(), minFree);
+      }
+      return admitted;
+   }
+
+   synchronized long getSize()
+   {
+      return size;
+   }
+
+   long getMaxSize()
+   {
+      return maxSize;
+   }
+
+   synchronized int getProductCount()
+   {
+      return outputs.size();
+   }
+
+   synchronized long getEvictedCount()
+   {
+      return evicted;
+   }
+
+   private void disown(String uuid, Path product)
+   {
+      Output output = outputs.get(product);
+      if (output != null)
+      {
+         output.owners.remove(uuid);
+         if (output.owners.isEmpty())
+         {
+            outputs.remove(product);
+            delete(product, output);
+         }
+      }
+   }
+
+   /**
+    * Evicts least recently used products until the given bytes are freed and the quota is met,
+    * products handed out within the grace period excepted.
+    *
+    * @param required bytes to free
+    * @param keep     product not to evict, may be null
+    * @return owners of the evicted products
+    */
+   private List<String> evict(long required, Path keep)
+   {
+      List<String> evictedOwners = new ArrayList<>();
+      long freed = 0;
+      long handedOutBefore = clock.getAsLong() - grace;
+      Iterator<Map.Entry<Path, Output>> iterator = outputs.entrySet().iterator();
+      while (iterator.hasNext() && (freed < required || (maxSize > 0 && size > maxSize)))
+      {
+         Map.Entry<Path, Output> eldest = iterator.next();
+         if (eldest.getKey().equals(keep) || eldest.getValue().handedOut > handedOutBefore)
+         {
+            continue;
+         }
+         iterator.remove();
+         Output output = eldest.getValue();
+         output.owners.forEach(owners::remove);
+         evictedOwners.addAll(output.owners);
+         delete(eldest.getKey(), output);
+         freed += output.size;
+         evicted++;
+         LOGGER.info("Evicted {} from data directory ({} bytes used)", eldest.getKey(), size);
+      }
+      return evictedOwners;
+   }
+
+   private void delete(Path product, Output output)
+   {
+      size -= output.size;
+      try
+      {
+         Files.deleteIfExists(product);
+      }
+      catch (IOException e)
+      {
+         LOGGER.warn("Cannot delete product {}", product, e);
+      }
+   }
+
+   /**
+    * Returns the lowest usable space of the file stores of the data and tmp directories.
+    */
+   private long getFreeSpace()
+   {
+      try
+      {
+         return Math.min(Files.getFileStore(dataDirectory).getUsableSpace(),
+               Files.getFileStore(tmpDirectory).getUsableSpace());
+      }
+      catch (IOException e)
+      {
+         LOGGER.warn("Cannot get free space of {} and {}", dataDirectory, tmpDirectory, e);
+         return Long.MAX_VALUE;
+      }
+   }
+
+   private static final class Output
+   {
+      private final long size;
+      private final Set<String> owners = new HashSet<>();
+
+      // last time the product was handed out to the DHuS
+      private long handedOut;
+
+      private Output(long size)
+      {
+         this.size = size;
+      }
+   }
+}
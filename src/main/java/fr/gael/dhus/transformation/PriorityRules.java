@@ -0,0 +1,123 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Priority of transformations, derived from the metadata of their product.
+ * <p>
+ * A rule matches a metadata attribute against a regular expression, the priority of a product is
+ * the highest priority of the rules it matches, or the default priority. Higher priorities are
+ * scheduled first.
+ * <p>
+ * Waiting transformations age to prevent starvation: a transformation gains one priority level per
+ * aging period spent waiting. Aging is folded into a static rank, the enqueue time minus the
+ * priority times the aging period, so that queues can stay ordered by rank.
+ */
+class PriorityRules
+{
+   private final int defaultPriority;
+   private final long agingPeriod;
+   private final List<Rule> rules;
+
+   /**
+    * @param defaultPriority priority of products matching no rule
+    * @param agingPeriod     waiting time worth one priority level, in milliseconds
+    * @param rules           rules, by name, formatted as {@code priority|attribute|regex}
+    * @throws IllegalArgumentException if a rule is malformed
+    */
+   PriorityRules(int defaultPriority, long agingPeriod, Map<String, String> rules)
+   {
+      this.defaultPriority = defaultPriority;
+      this.agingPeriod = agingPeriod;
+
+      List<Rule> parsed = new ArrayList<>();
+      for (Map.Entry<String, String> rule: rules.entrySet())
+      {
+         String[] parts = rule.getValue().split("\\|", 3);
+         if (parts.length != 3)
+         {
+            throw new IllegalArgumentException("Malformed priority rule '" + rule.getKey() + "': " + rule.getValue());
+         }
+         parsed.add(new Rule(Integer.parseInt(parts[0].trim()), parts[1].trim(), Pattern.compile(parts[2].trim())));
+      }
+      this.rules = Collections.unmodifiableList(parsed);
+   }
+
+   /**
+    * Returns the priority of a product.
+    *
+    * @param metadata metadata of the product
+    */
+   int getPriority(Map<String, String> metadata)
+   {
+      Integer priority = null;
+      for (Rule rule: rules)
+      {
+         String value = metadata.get(rule.attribute);
+         if (value != null && rule.pattern.matcher(value).matches()
+               && (priority == null || rule.priority > priority))
+         {
+            priority = rule.priority;
+         }
+      }
+      return priority == null ? defaultPriority : priority;
+   }
+
+   int getDefaultPriority()
+   {
+      return defaultPriority;
+   }
+
+   /**
+    * Returns the rank of an item of the given priority enqueued now, lower ranks are scheduled
+    * first.
+    */
+   long rank(int priority)
+   {
+      return rank(priority, System.currentTimeMillis());
+   }
+
+   long rank(int priority, long enqueued)
+   {
+      // without aging, a large period keeps priorities strict while preserving FIFO order
+      long period = agingPeriod > 0 ? agingPeriod : Integer.MAX_VALUE;
+      return enqueued - priority * period;
+   }
+
+   private static final class Rule
+   {
+      private final int priority;
+      private final String attribute;
+      private final Pattern pattern;
+
+      private Rule(int priority, String attribute, Pattern pattern)
+      {
+         this.priority = priority;
+         this.attribute = attribute;
+         this.pattern = pattern;
+      }
+   }
+}
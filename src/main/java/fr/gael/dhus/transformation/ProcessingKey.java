@@ -0,0 +1,99 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.Objects;
+
+/**
+ * Identifies the output of a L2A processing: a L1C tile processed with a given processor
+ * version at a given resolution.
+ */
+final class ProcessingKey
+{
+   private static final String SEPARATOR = "|";
+
+   private final String tileId;
+   private final String processorVersion;
+   private final String resolution;
+
+   ProcessingKey(String tileId, String processorVersion, String resolution)
+   {
+      this.tileId = Objects.requireNonNull(tileId);
+      this.processorVersion = Objects.requireNonNull(processorVersion);
+      this.resolution = Objects.requireNonNull(resolution);
+   }
+
+   /**
+    * Parses a key formatted with {@link #toString()}.
+    */
+   static ProcessingKey parse(String value)
+   {
+      String[] parts = value.split("\\|", -1);
+      if (parts.length != 3)
+      {
+         throw new IllegalArgumentException("Invalid processing key: " + value);
+      }
+      return new ProcessingKey(parts[0], parts[1], parts[2]);
+   }
+
+   String getTileId()
+   {
+      return tileId;
+   }
+
+   String getProcessorVersion()
+   {
+      return processorVersion;
+   }
+
+   String getResolution()
+   {
+      return resolution;
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof ProcessingKey))
+      {
+         return false;
+      }
+      ProcessingKey other = (ProcessingKey) obj;
+      return tileId.equals(other.tileId)
+            && processorVersion.equals(other.processorVersion)
+            && resolution.equals(other.resolution);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return Objects.hash(tileId, processorVersion, resolution);
+   }
+
+   @Override
+   public String toString()
+   {
+      return tileId + SEPARATOR + processorVersion + SEPARATOR + resolution;
+   }
+}
@@ -0,0 +1,426 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Verifies a product while it is extracted, without reading it again.
+ * <p>
+ * The number of bytes written is checked against the size recorded in the TAR header. Zipped SAFE
+ * products are inflated on the fly by a background thread, which computes the MD5 checksum of
+ * each file and checks them against the checksums of the SAFE manifest, if any.
+ */
+class ProductVerifier implements AutoCloseable
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private static final String MANIFEST = "manifest.safe";
+
+   // marks the end of the product in the queue
+   private static final byte[] END = new byte[0];
+   private static final int QUEUE_DEPTH = 256;
+
+   private static final ExecutorService INFLATERS = Executors.newCachedThreadPool(runnable ->
+   {
+      Thread thread = new Thread(runnable, Sentinel2L2ATransformer.TRANSFORMER_NAME + "-verify");
+      thread.setDaemon(true);
+      return thread;
+   });
+
+   private final String name;
+   private final long expectedSize;
+
+   // chunks of the product to inflate, null if the product is not zipped
+   private final BlockingQueue<byte[]> chunks;
+   private final Future<Integer> inflater;
+
+   private long size = 0;
+   private boolean ended = false;
+
+   /**
+    * @param name         file name of the product
+    * @param expectedSize size recorded in the TAR header, -1 if unknown
+    */
+   ProductVerifier(String name, long expectedSize)
+   {
+      this.name = name;
+      this.expectedSize = expectedSize;
+      if (name.endsWith(".zip"))
+      {
+         this.chunks = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+         this.inflater = INFLATERS.submit(this::verifyChecksums);
+      }
+      else
+      {
+         this.chunks = null;
+         this.inflater = null;
+      }
+   }
+
+   /**
+    * Wraps the source of the product, read errors of the source are reported as a corrupt
+    * product.
+    */
+   ReadableByteChannel wrap(ReadableByteChannel source)
+   {
+      return new ReadableByteChannel()
+      {
+         @Override
+         public int read(ByteBuffer buffer) throws IOException
+         {
+            int position = buffer.position();
+            int read;
+            try
+            {
+               read = source.read(buffer);
+            }
+            catch (InterruptedIOException e)
+            {
+               throw e;
+            }
+            catch (IOException e)
+            {
+               throw new CorruptProductException(name + " is truncated or unreadable", e);
+            }
+            if (read > 0)
+            {
+               feed(buffer, position, read);
+            }
+            return read;
+         }
+
+         @Override
+         public boolean isOpen()
+         {
+            return source.isOpen();
+         }
+
+         @Override
+         public void close() throws IOException
+         {
+            source.close();
+         }
+      };
+   }
+
+   private void feed(ByteBuffer buffer, int position, int length) throws InterruptedIOException
+   {
+      size += length;
+      if (chunks == null)
+      {
+         return;
+      }
+      byte[] chunk = new byte[length];
+      ByteBuffer view = buffer.duplicate();
+      view.limit(position + length);
+      view.position(position);
+      view.get(chunk);
+      offer(chunk);
+   }
+
+   /**
+    * Queues a chunk for the inflater, unless it stopped.
+    */
+   private void offer(byte[] chunk) throws InterruptedIOException
+   {
+      try
+      {
+         while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS))
+         {
+            if (inflater.isDone())
+            {
+               return;
+            }
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while verifying " + name);
+      }
+   }
+
+   /**
+    * Checks the product once entirely written.
+    *
+    * @throws CorruptProductException if its size or checksums do not match
+    */
+   void verify() throws IOException
+   {
+      close();
+      if (expectedSize >= 0 && size != expectedSize)
+      {
+         throw new CorruptProductException(name + " is truncated: " + size + " bytes written, " + expectedSize + " expected");
+      }
+      if (inflater == null)
+      {
+         return;
+      }
+      try
+      {
+         int verified = inflater.get();
+         LOGGER.debug("Verified {} ({} bytes, {} checksums)", name, size, verified);
+      }
+      catch (ExecutionException e)
+      {
+         if (e.getCause() instanceof IOException)
+         {
+            throw (IOException) e.getCause();
+         }
+         throw new IOException("Cannot verify " + name, e.getCause());
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while verifying " + name);
+      }
+   }
+
+   /**
+    * Stops the inflater, without waiting for it.
+    */
+   @Override
+   public void close() throws InterruptedIOException
+   {
+      if (chunks != null && !ended)
+      {
+         ended = true;
+         offer(END);
+      }
+   }
+
+   /**
+    * Inflates the zipped product, checking the MD5 checksums of its files against its manifest.
+    *
+    * @return number of checksums verified
+    */
+   private int verifyChecksums() throws IOException
+   {
+      Map<String, String> checksums = new HashMap<>();
+      Map<String, String> expected = null;
+      String root = "";
+      try (ZipInputStream zip = new ZipInputStream(new ChunkInputStream()))
+      {
+         MessageDigest md5 = MessageDigest.getInstance("MD5");
+         byte[] buffer = new byte[64 * 1024];
+         ZipEntry entry;
+         while ((entry = zip.getNextEntry()) != null)
+         {
+            String entryName = entry.getName();
+            if (entry.isDirectory())
+            {
+               continue;
+            }
+            if (entryName.equals(MANIFEST) || entryName.endsWith("/" + MANIFEST))
+            {
+               root = entryName.substring(0, entryName.length() - MANIFEST.length());
+               ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+               int read;
+               while ((read = zip.read(buffer)) != -1)
+               {
+                  manifest.write(buffer, 0, read);
+               }
+               expected = parseManifest(manifest.toByteArray());
+               continue;
+            }
+            md5.reset();
+            int read;
+            while ((read = zip.read(buffer)) != -1)
+            {
+               md5.update(buffer, 0, read);
+            }
+            checksums.put(entryName, toHex(md5.digest()));
+         }
+      }
+      catch (ZipException | EOFException e)
+      {
+         throw new CorruptProductException(name + " is not a valid zip: " + e.getMessage(), e);
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new IOException("MD5 is not supported", e);
+      }
+
+      if (expected == null)
+      {
+         LOGGER.debug("No manifest found in {}, checksums not verified", name);
+         return 0;
+      }
+      for (Map.Entry<String, String> file: expected.entrySet())
+      {
+         String path = root + file.getKey();
+         String checksum = checksums.get(path);
+         if (checksum == null)
+         {
+            throw new CorruptProductException(name + " lacks " + path + ", listed in its manifest");
+         }
+         if (!checksum.equalsIgnoreCase(file.getValue()))
+         {
+            throw new CorruptProductException(name + " has an invalid checksum for " + path);
+         }
+      }
+      return expected.size();
+   }
+
+   /**
+    * Returns the MD5 checksums of a SAFE manifest, by file path relative to the SAFE root.
+    */
+   static Map<String, String> parseManifest(byte[] manifest) throws IOException
+   {
+      Map<String, String> checksums = new HashMap<>();
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      try
+      {
+         XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(manifest));
+         String href = null;
+         while (reader.hasNext())
+         {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT)
+            {
+               continue;
+            }
+            if ("fileLocation".equals(reader.getLocalName()))
+            {
+               href = reader.getAttributeValue(null, "href");
+            }
+            else if ("checksum".equals(reader.getLocalName()) && href != null
+                  && "MD5".equalsIgnoreCase(reader.getAttributeValue(null, "checksumName")))
+            {
+               checksums.put(href.startsWith("./") ? href.substring(2) : href, reader.getElementText().trim());
+               href = null;
+            }
+         }
+         reader.close();
+      }
+      catch (XMLStreamException e)
+      {
+         throw new CorruptProductException("Invalid SAFE manifest: " + e.getMessage(), e);
+      }
+      return checksums;
+   }
+
+   private static String toHex(byte[] bytes)
+   {
+      StringBuilder hex = new StringBuilder(bytes.length * 2);
+      for (byte b: bytes)
+      {
+         hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+   }
+
+   /**
+    * Reads the queued chunks, drained up to the end of the product once closed so that the writer
+    * is never blocked.
+    */
+   private final class ChunkInputStream extends InputStream
+   {
+      private byte[] chunk = new byte[0];
+      private int offset = 0;
+      private boolean end = false;
+
+      @Override
+      public int read() throws IOException
+      {
+         byte[] one = new byte[1];
+         return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] buffer, int off, int length) throws IOException
+      {
+         while (offset == chunk.length)
+         {
+            if (end || !next())
+            {
+               return -1;
+            }
+         }
+         int read = Math.min(length, chunk.length - offset);
+         System.arraycopy(chunk, offset, buffer, off, read);
+         offset += read;
+         return read;
+      }
+
+      /**
+       * @return false at the end of the product
+       */
+      private boolean next() throws InterruptedIOException
+      {
+         try
+         {
+            byte[] next = chunks.take();
+            if (next == END)
+            {
+               end = true;
+               return false;
+            }
+            chunk = next;
+            offset = 0;
+            return true;
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying " + name);
+         }
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+         while (!end)
+         {
+            next();
+         }
+      }
+   }
+}
@@ -0,0 +1,214 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.ProcessStatus;
+
+/**
+ * Estimates the completion of WPS executions to schedule their status polls.
+ * <p>
+ * The progress rate of each execution is learnt from the percentages it reports, and the typical
+ * duration of executions from the completed ones. An execution is polled again halfway to its
+ * estimated completion, within the configured bounds: rarely while far from completion, and
+ * frequently close to it. Executions without estimate are polled at the default interval.
+ * <p>
+ * Early progress rates are unreliable, the delay is bounded by twice the time the progress of the
+ * execution has been observed, so that it grows exponentially at most. Without a reported
+ * progression nothing tells an execution finishing early, estimates from the typical duration
+ * only shorten the delay below the default interval close to the expected completion.
+ */
+class ProgressEstimator
+{
+   // weight of the last completed execution in the typical duration
+   private static final double ALPHA = 0.2;
+
+   private final long interval;
+   private final long minInterval;
+   private final long maxInterval;
+   private final boolean adaptive;
+
+   // guarded by this, 0 until an execution is seen from its start to its completion
+   private double typicalDuration = 0;
+
+   ProgressEstimator(Configuration conf)
+   {
+      this(conf.getPollerInterval(), conf.getPollerIntervalMin(), conf.getPollerIntervalMax(), conf.isPollerAdaptive());
+   }
+
+   /**
+    * @param interval    delay between two polls without estimate
+    * @param minInterval minimum delay between two polls, at most the default interval
+    * @param maxInterval maximum delay between two polls, at least the default interval
+    * @param adaptive    if false, executions are always polled at the default interval
+    */
+   ProgressEstimator(long interval, long minInterval, long maxInterval, boolean adaptive)
+   {
+      this.interval = interval;
+      this.minInterval = Math.min(minInterval, interval);
+      this.maxInterval = Math.max(maxInterval, interval);
+      this.adaptive = adaptive;
+   }
+
+   /**
+    * Starts estimating the progress of an execution, seen for the first time.
+    */
+   Progress start(long now)
+   {
+      return new Progress(now);
+   }
+
+   /**
+    * Records the latest polled status of an execution.
+    *
+    * @return delay until its next poll, in milliseconds
+    */
+   long update(Progress progress, ProcessExecStatus status, long now)
+   {
+      if (status.getStatus() == ProcessStatus.ACCEPTED)
+      {
+         progress.accepted();
+      }
+      else if (status.getStatus() == ProcessStatus.STARTED)
+      {
+         progress.record(status.getProgression(), now);
+      }
+      if (!adaptive)
+      {
+         return interval;
+      }
+
+      long remaining = estimateRemaining(progress, now);
+      if (remaining < 0)
+      {
+         progress.estimatedCompletion = -1;
+         return interval;
+      }
+      progress.estimatedCompletion = now + remaining;
+      long delay = Math.min(maxInterval, remaining / 2);
+      if (progress.rate > 0)
+      {
+         delay = Math.min(delay, 2 * (now - progress.firstProgressed));
+      }
+      else
+      {
+         delay = Math.min(delay, interval);
+      }
+      return Math.max(minInterval, delay);
+   }
+
+   /**
+    * Records the completion of an execution, its duration is learnt if it was seen from its start.
+    */
+   synchronized void completed(Progress progress, long now)
+   {
+      if (progress.fromStart)
+      {
+         long duration = now - progress.started;
+         typicalDuration = typicalDuration == 0 ? duration : ALPHA * duration + (1 - ALPHA) * typicalDuration;
+      }
+   }
+
+   synchronized long getTypicalDuration()
+   {
+      return (long) typicalDuration;
+   }
+
+   /**
+    * Returns the estimated time to completion, or -1 if unknown.
+    */
+   private long estimateRemaining(Progress progress, long now)
+   {
+      if (progress.rate > 0)
+      {
+         return (long) ((100 - progress.progression) / progress.rate);
+      }
+      long typical = getTypicalDuration();
+      if (typical > 0 && progress.fromStart)
+      {
+         // overdue executions are polled at the default interval
+         long remaining = typical - (now - progress.started);
+         return remaining > 0 ? remaining : -1;
+      }
+      return -1;
+   }
+
+   /**
+    * Progress of an execution, updated by the poller only.
+    */
+   static final class Progress
+   {
+      private final long started;
+
+      // first and latest progression reported once started, in percent
+      private int firstProgression = -1;
+      private long firstProgressed;
+      private volatile int progression = -1;
+
+      // percent per millisecond since the first reported progression, 0 if unknown
+      private double rate = 0;
+
+      // whether the execution was seen accepted or started without progress
+      private boolean fromStart = false;
+
+      private volatile long estimatedCompletion = -1;
+
+      private Progress(long started)
+      {
+         this.started = started;
+      }
+
+      private void accepted()
+      {
+         if (firstProgression < 0)
+         {
+            fromStart = true;
+         }
+      }
+
+      private void record(int percent, long now)
+      {
+         if (firstProgression < 0)
+         {
+            firstProgression = percent;
+            firstProgressed = now;
+            fromStart |= percent == 0;
+         }
+         else if (percent > firstProgression && now > firstProgressed)
+         {
+            rate = (percent - firstProgression) / (double) (now - firstProgressed);
+         }
+         progression = percent;
+      }
+
+      int getProgression()
+      {
+         return progression;
+      }
+
+      /**
+       * Returns the estimated completion time, -1 if unknown.
+       */
+      long getEstimatedCompletion()
+      {
+         return estimatedCompletion;
+      }
+   }
+}
@@ -0,0 +1,312 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * On-disk cache of completed L2A products, indexed by {@link ProcessingKey}.
+ * <p>
+ * The index is persisted in the cache directory and reloaded at startup. Entries are evicted when
+ * older than the configured maximum age, and least recently used entries are evicted while the
+ * cache exceeds its maximum size.
+ */
+class ResultCache
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private static final String INDEX_FILE = "index.properties";
+   private static final String FIELD_SEPARATOR = ";";
+
+   private final Path directory;
+   private final long maxSize;
+   private final long maxAge;
+
+   // access ordered, eldest entry first
+   private final LinkedHashMap<ProcessingKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+   private long size = 0;
+
+   /**
+    * Creates a disabled cache.
+    */
+   ResultCache()
+   {
+      this.directory = null;
+      this.maxSize = 0;
+      this.maxAge = 0;
+   }
+
+   ResultCache(Path directory, long maxSize, long maxAge) throws IOException
+   {
+      this.directory = directory;
+      this.maxSize = maxSize;
+      this.maxAge = maxAge;
+
+      Files.createDirectories(directory);
+      loadIndex();
+      synchronized (this)
+      {
+         evict();
+      }
+   }
+
+   boolean isEnabled()
+   {
+      return directory != null;
+   }
+
+   synchronized boolean contains(ProcessingKey key)
+   {
+      return isEnabled() && getEntry(key) != null;
+   }
+
+   /**
+    * Copies (or links) the cached product of the given key into the target directory.
+    *
+    * @return the restored product, or null if the key is not cached
+    */
+   synchronized Path restore(ProcessingKey key, Path targetDirectory) throws IOException
+   {
+      if (!isEnabled())
+      {
+         return null;
+      }
+      Entry entry = getEntry(key);
+      if (entry == null)
+      {
+         return null;
+      }
+
+      Path cached = directory.resolve(entry.fileName);
+      Path target = targetDirectory.resolve(cached.getFileName().toString());
+      if (!Files.exists(target) || Files.size(target) != entry.size)
+      {
+         linkOrCopy(cached, target);
+      }
+      entry.lastAccess = System.currentTimeMillis();
+      saveIndex();
+
+      LOGGER.info("Restored {} from result cache ({})", key, target);
+      return target;
+   }
+
+   /**
+    * Adds a completed product to the cache, does nothing if the key is already cached.
+    */
+   synchronized void put(ProcessingKey key, Path product) throws IOException
+   {
+      if (!isEnabled() || getEntry(key) != null)
+      {
+         return;
+      }
+
+      // products of different keys may have the same name
+      UUID id = UUID.nameUUIDFromBytes(key.toString().getBytes(StandardCharsets.UTF_8));
+      String fileName = id + "/" + product.getFileName();
+      Path cached = directory.resolve(fileName);
+      Files.createDirectories(cached.getParent());
+      linkOrCopy(product, cached);
+
+      long now = System.currentTimeMillis();
+      Entry entry = new Entry(fileName, Files.size(cached), now, now);
+      entries.put(key, entry);
+      size += entry.size;
+      evict();
+      saveIndex();
+
+      LOGGER.info("Added {} to result cache ({} bytes used)", key, size);
+   }
+
+   synchronized long getSize()
+   {
+      return size;
+   }
+
+   synchronized int getEntryCount()
+   {
+      return entries.size();
+   }
+
+   /**
+    * Returns the valid entry of a key, removing it if expired or missing on disk.
+    */
+   private Entry getEntry(ProcessingKey key)
+   {
+      Entry entry = entries.get(key);
+      if (entry != null && (isExpired(entry) || !Files.exists(directory.resolve(entry.fileName))))
+      {
+         remove(key, entry);
+         return null;
+      }
+      return entry;
+   }
+
+   private boolean isExpired(Entry entry)
+   {
+      return maxAge > 0 && System.currentTimeMillis() - entry.created > maxAge;
+   }
+
+   private void evict()
+   {
+      Iterator<Map.Entry<ProcessingKey, Entry>> iterator = entries.entrySet().iterator();
+      while (iterator.hasNext())
+      {
+         Map.Entry<ProcessingKey, Entry> eldest = iterator.next();
+         if (isExpired(eldest.getValue()) || (maxSize > 0 && size > maxSize))
+         {
+            iterator.remove();
+            delete(eldest.getKey(), eldest.getValue());
+         }
+      }
+   }
+
+   private void remove(ProcessingKey key, Entry entry)
+   {
+      entries.remove(key);
+      delete(key, entry);
+   }
+
+   private void delete(ProcessingKey key, Entry entry)
+   {
+      size -= entry.size;
+      try
+      {
+         Path cached = directory.resolve(entry.fileName);
+         Files.deleteIfExists(cached);
+         if (!cached.getParent().equals(directory))
+         {
+            Files.deleteIfExists(cached.getParent());
+         }
+         LOGGER.debug("Evicted {} from result cache", key);
+      }
+      catch (IOException e)
+      {
+         LOGGER.warn("Cannot delete cached product {}", entry.fileName, e);
+      }
+   }
+
+   private static void linkOrCopy(Path source, Path target) throws IOException
+   {
+      Files.deleteIfExists(target);
+      try
+      {
+         Files.createLink(target, source);
+      }
+      catch (IOException | UnsupportedOperationException e)
+      {
+         // not on the same file store
+         Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+
+   private void loadIndex() throws IOException
+   {
+      Path index = directory.resolve(INDEX_FILE);
+      if (!Files.exists(index))
+      {
+         return;
+      }
+
+      Properties properties = new Properties();
+      try (InputStream input = Files.newInputStream(index))
+      {
+         properties.load(input);
+      }
+
+      // restore the access order
+      TreeMap<Long, Map.Entry<ProcessingKey, Entry>> byAccess = new TreeMap<>();
+      for (String name: properties.stringPropertyNames())
+      {
+         try
+         {
+            String[] fields = properties.getProperty(name).split(FIELD_SEPARATOR);
+            Entry entry = new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                  Long.parseLong(fields[3]));
+            long access = entry.lastAccess;
+            while (byAccess.containsKey(access))
+            {
+               access++;
+            }
+            byAccess.put(access, new AbstractMap.SimpleEntry<>(ProcessingKey.parse(name), entry));
+         }
+         catch (RuntimeException e)
+         {
+            LOGGER.warn("Ignoring invalid result cache entry '{}'", name);
+         }
+      }
+      synchronized (this)
+      {
+         byAccess.values().forEach(e ->
+         {
+            entries.put(e.getKey(), e.getValue());
+            size += e.getValue().size;
+         });
+      }
+      LOGGER.info("Loaded result cache index: {} products, {} bytes", entries.size(), size);
+   }
+
+   private void saveIndex() throws IOException
+   {
+      Properties properties = new Properties();
+      entries.forEach((key, entry) -> properties.setProperty(key.toString(),
+            entry.fileName + FIELD_SEPARATOR + entry.size + FIELD_SEPARATOR
+            + entry.created + FIELD_SEPARATOR + entry.lastAccess));
+
+      Path index = directory.resolve(INDEX_FILE);
+      Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+      try (OutputStream output = Files.newOutputStream(tmp))
+      {
+         properties.store(output, "L2A result cache index");
+      }
+      Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private static final class Entry
+   {
+      private final String fileName;
+      private final long size;
+      private final long created;
+      private long lastAccess;
+
+      private Entry(String fileName, long size, long created, long lastAccess)
+      {
+         this.fileName = fileName;
+         this.size = size;
+         this.created = created;
+         this.lastAccess = lastAccess;
+      }
+   }
+}
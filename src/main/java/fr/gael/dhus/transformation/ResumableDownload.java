@@ -0,0 +1,608 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Downloads a remote file into a {@code .part} file, keeping a checkpoint of the received bytes.
+ * <p>
+ * Failed transfers are resumed from the checkpoint using HTTP Range requests when the server
+ * supports them, including after a restart. Large files are fetched as several byte ranges in
+ * parallel, each segment being resumed independently. The {@code .part} file is renamed to its
+ * target once complete.
+ */
+class ResumableDownload
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private static final String PART_SUFFIX = ".part";
+   private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+   // checkpoint properties
+   private static final String CHECKPOINT_URL = "url";
+   private static final String CHECKPOINT_BYTES = "bytes";
+   private static final String CHECKPOINT_TOTAL = "total";
+   private static final String CHECKPOINT_SEGMENTS = "segments";
+   private static final String CHECKPOINT_SEGMENT = "segment.";
+   private static final String CHECKPOINT_ETAG = "etag";
+   private static final String CHECKPOINT_LAST_MODIFIED = "lastModified";
+
+   private final URL source;
+   private final Path target;
+   private final Path part;
+   private final Path checkpoint;
+   private final DownloadScheduler scheduler;
+   private final TransferPipeline pipeline;
+   private final int retries;
+   private final int timeout;
+   private final long checkpointInterval;
+   private final int maxSegments;
+   private final long minSegmentSize;
+
+   // validators of the remote file, used to check it did not change between two attempts
+   private volatile String etag;
+   private volatile String lastModified;
+
+   // set when the server does not honor range requests, possibly by a segment thread
+   private volatile boolean rangeUnsupported = false;
+
+   // set once the partial download is deleted, late checkpoints of the segments are dropped
+   private boolean discarded = false;
+
+   // share of the download bandwidth, read from by all the segments, set while running
+   private BandwidthLimiter.Share share;
+
+   // notified of the number of bytes received at each checkpoint
+   private LongConsumer checkpointListener = bytes -> {};
+
+   // a lock rather than a monitor, checkpoints are written by segments which may run on virtual
+   // threads
+   private final ReentrantLock checkpointLock = new ReentrantLock();
+
+   ResumableDownload(URL source, Path target, DownloadScheduler scheduler, TransferPipeline pipeline,
+         Configuration conf)
+   {
+      this.source = source;
+      this.target = target;
+      this.part = Paths.get(target + PART_SUFFIX);
+      this.checkpoint = Paths.get(part + CHECKPOINT_SUFFIX);
+      this.scheduler = scheduler;
+      this.pipeline = pipeline;
+      this.retries = Math.max(1, conf.getDownloadRetries());
+      this.timeout = conf.getDownloadTimeout();
+      this.checkpointInterval = conf.getDownloadCheckpointInterval();
+      this.maxSegments = Math.max(1, conf.getDownloadSegments());
+      this.minSegmentSize = Math.max(1, conf.getDownloadSegmentMinSize());
+   }
+
+   ResumableDownload onCheckpoint(LongConsumer listener)
+   {
+      this.checkpointListener = listener;
+      return this;
+   }
+
+   /**
+    * Downloads the remote file, resuming a previous partial download if any.
+    *
+    * @return the downloaded file
+    * @throws IOException if the download failed after all retries
+    */
+   Path run() throws IOException
+   {
+      try (BandwidthLimiter.Share share = scheduler.getBandwidthLimiter().open())
+      {
+         // published to the segment threads by their submission
+         this.share = share;
+         return attempt();
+      }
+   }
+
+   private Path attempt() throws IOException
+   {
+      IOException failure = null;
+      for (int attempt = 1; attempt <= retries; attempt++)
+      {
+         try
+         {
+            Properties state = loadCheckpoint();
+            if (state != null && state.containsKey(CHECKPOINT_SEGMENTS) && !rangeUnsupported)
+            {
+               resumeSegments(state);
+            }
+            else
+            {
+               long offset = state == null ? 0 : getLong(state, CHECKPOINT_BYTES);
+               if (offset > 0 || !transferSegments())
+               {
+                  transfer(Math.min(offset, Files.exists(part) ? Files.size(part) : 0));
+               }
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(checkpoint);
+            return target;
+         }
+         catch (IOException e)
+         {
+            failure = e;
+            if (Thread.currentThread().isInterrupted())
+            {
+               // download cancelled
+               break;
+            }
+            LOGGER.warn("Download of {} failed (attempt {}/{}): {}", source, attempt, retries, e.getMessage());
+         }
+      }
+      throw failure;
+   }
+
+   /**
+    * Deletes the partial download and its checkpoint, once cancelled or failed for good.
+    */
+   void discard()
+   {
+      checkpointLock.lock();
+      try
+      {
+         discarded = true;
+         Files.deleteIfExists(part);
+         Files.deleteIfExists(checkpoint);
+         Files.deleteIfExists(Paths.get(checkpoint + ".tmp"));
+      }
+      catch (IOException e)
+      {
+         LOGGER.warn("Cannot delete partial download {}", part, e);
+      }
+      finally
+      {
+         checkpointLock.unlock();
+      }
+   }
+
+   /**
+    * Downloads the remote file as a single stream, starting at the given offset.
+    */
+   private void transfer(long offset) throws IOException
+   {
+      URLConnection connection = open(offset, -1);
+      if (connection instanceof HttpURLConnection)
+      {
+         HttpURLConnection http = (HttpURLConnection) connection;
+         int code = http.getResponseCode();
+         if (code == HttpURLConnection.HTTP_PARTIAL)
+         {
+            checkContentRange(http, offset);
+         }
+         else if (code == HttpURLConnection.HTTP_OK)
+         {
+            offset = 0;
+         }
+         else
+         {
+            http.disconnect();
+            if (code == 416)
+            {
+               // range not satisfiable, start over
+               Files.deleteIfExists(checkpoint);
+               Files.deleteIfExists(part);
+            }
+            throw new IOException("Unexpected HTTP status (" + code + "): " + http.getResponseMessage());
+         }
+         keepValidators(http);
+      }
+      else
+      {
+         offset = 0;
+      }
+
+      if (offset > 0)
+      {
+         LOGGER.info("Resuming download of {} from byte {}", source, offset);
+      }
+
+      long length = connection.getContentLengthLong();
+      long expected = length < 0 ? -1 : offset + length;
+
+      long start = offset;
+      AtomicLong received = new AtomicLong(offset);
+      try (ReadableByteChannel input = Channels.newChannel(scheduler.meter(connection.getInputStream(), share));
+           FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+      {
+         channel.truncate(offset);
+         AtomicLong nextCheckpoint = new AtomicLong(offset + checkpointInterval);
+         try
+         {
+            pipeline.copy(input, channel, offset, -1, written ->
+            {
+               received.set(start + written);
+               if (received.get() >= nextCheckpoint.get())
+               {
+                  saveCheckpoint(received.get());
+                  nextCheckpoint.set(received.get() + checkpointInterval);
+               }
+            });
+         }
+         finally
+         {
+            saveCheckpoint(received.get());
+         }
+      }
+
+      if (expected >= 0 && received.get() != expected)
+      {
+         throw new IOException("Truncated download: " + received + " bytes received, " + expected + " expected");
+      }
+   }
+
+   /**
+    * Starts a segmented download if the server supports range requests and the file is large
+    * enough.
+    *
+    * @return false if the file must be downloaded as a single stream
+    */
+   private boolean transferSegments() throws IOException
+   {
+      if (maxSegments < 2 || rangeUnsupported)
+      {
+         return false;
+      }
+
+      // probe the total size and the support of range requests
+      URLConnection connection = open(0, 0);
+      if (!(connection instanceof HttpURLConnection))
+      {
+         return false;
+      }
+      HttpURLConnection http = (HttpURLConnection) connection;
+      long total = -1;
+      try
+      {
+         if (http.getResponseCode() == HttpURLConnection.HTTP_PARTIAL)
+         {
+            String contentRange = http.getHeaderField("Content-Range");
+            int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+            if (slash > 0 && !contentRange.endsWith("*"))
+            {
+               total = Long.parseLong(contentRange.substring(slash + 1).trim());
+            }
+            keepValidators(http);
+         }
+      }
+      catch (NumberFormatException e)
+      {
+         total = -1;
+      }
+      finally
+      {
+         http.disconnect();
+      }
+
+      if (total < 0)
+      {
+         LOGGER.debug("Server does not support range requests for {}", source);
+         rangeUnsupported = true;
+         return false;
+      }
+
+      int segments = (int) Math.min(maxSegments, total / minSegmentSize);
+      if (segments < 2)
+      {
+         return false;
+      }
+
+      // preallocate the output file
+      try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw"))
+      {
+         file.setLength(total);
+      }
+      download(total, new AtomicLongArray(segments));
+      return true;
+   }
+
+   private void resumeSegments(Properties state) throws IOException
+   {
+      long total = getLong(state, CHECKPOINT_TOTAL);
+      int segments = (int) getLong(state, CHECKPOINT_SEGMENTS);
+      AtomicLongArray progress = new AtomicLongArray(segments);
+      for (int i = 0; i < segments; i++)
+      {
+         progress.set(i, getLong(state, CHECKPOINT_SEGMENT + i));
+      }
+      if (Files.size(part) != total)
+      {
+         throw new IOException("Partial download does not match its checkpoint, starting over");
+      }
+      LOGGER.info("Resuming segmented download of {}", source);
+      download(total, progress);
+   }
+
+   /**
+    * Downloads all the segments of the file in parallel.
+    */
+   private void download(long total, AtomicLongArray progress) throws IOException
+   {
+      int segments = progress.length();
+      saveCheckpoint(total, progress);
+      try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE))
+      {
+         List<CompletableFuture<Void>> futures = new ArrayList<>(segments);
+         for (int i = 0; i < segments; i++)
+         {
+            int segment = i;
+            long start = total * i / segments;
+            long end = total * (i + 1) / segments - 1;
+            futures.add(CompletableFuture.runAsync(() ->
+            {
+               try
+               {
+                  downloadSegment(channel, segment, start, end, total, progress);
+               }
+               catch (IOException e)
+               {
+                  throw new CompletionException(e);
+               }
+            }, scheduler.getSegmentExecutor()));
+         }
+
+         try
+         {
+            // interruptible, closing the channel stops the segments of a cancelled download
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[segments])).get();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Segmented download of " + source + " interrupted");
+         }
+         catch (ExecutionException e)
+         {
+            if (e.getCause() instanceof IOException)
+            {
+               throw (IOException) e.getCause();
+            }
+            throw new IOException("Segmented download failed", e.getCause());
+         }
+         finally
+         {
+            saveCheckpoint(total, progress);
+         }
+      }
+   }
+
+   private void downloadSegment(FileChannel channel, int segment, long start, long end, long total,
+         AtomicLongArray progress) throws IOException
+   {
+      long position = start + progress.get(segment);
+      if (position > end)
+      {
+         // segment already complete
+         return;
+      }
+
+      HttpURLConnection http = (HttpURLConnection) open(position, end);
+      if (http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+      {
+         http.disconnect();
+         if (http.getResponseCode() == HttpURLConnection.HTTP_OK)
+         {
+            // remote file changed or range not honored anymore
+            rangeUnsupported = true;
+            Files.deleteIfExists(checkpoint);
+         }
+         throw new IOException("Unexpected HTTP status for segment " + segment + " (" + http.getResponseCode() + ")");
+      }
+      checkContentRange(http, position);
+
+      long first = position;
+      AtomicLong nextCheckpoint = new AtomicLong(position + checkpointInterval);
+      long copied;
+      try (ReadableByteChannel input = Channels.newChannel(scheduler.meter(http.getInputStream(), share)))
+      {
+         copied = pipeline.copy(input, channel, position, end - position + 1, written ->
+         {
+            long current = first + written;
+            progress.set(segment, current - start);
+            if (current >= nextCheckpoint.get())
+            {
+               saveCheckpoint(total, progress);
+               nextCheckpoint.set(current + checkpointInterval);
+            }
+         });
+      }
+
+      if (first + copied <= end)
+      {
+         throw new IOException("Truncated segment " + segment + ": " + (end - first - copied + 1) + " bytes missing");
+      }
+   }
+
+   /**
+    * Opens a connection to the remote file.
+    *
+    * @param from first requested byte
+    * @param to   last requested byte, or -1 for the end of the file
+    */
+   private URLConnection open(long from, long to) throws IOException
+   {
+      URLConnection connection = source.openConnection();
+      connection.setConnectTimeout(timeout);
+      connection.setReadTimeout(timeout);
+      if (connection instanceof HttpURLConnection && (from > 0 || to >= 0))
+      {
+         connection.setRequestProperty("Range", "bytes=" + from + "-" + (to >= 0 ? Long.toString(to) : ""));
+         String validator = etag != null ? etag : lastModified;
+         if (validator != null)
+         {
+            // full content is sent back if the remote file changed
+            connection.setRequestProperty("If-Range", validator);
+         }
+      }
+      return connection;
+   }
+
+   private void checkContentRange(HttpURLConnection http, long offset) throws IOException
+   {
+      String contentRange = http.getHeaderField("Content-Range");
+      if (contentRange == null || !contentRange.startsWith("bytes " + offset + "-"))
+      {
+         http.disconnect();
+         throw new IOException("Unexpected Content-Range: " + contentRange);
+      }
+   }
+
+   private void keepValidators(HttpURLConnection http)
+   {
+      etag = http.getHeaderField("ETag");
+      lastModified = http.getHeaderField("Last-Modified");
+   }
+
+   private static long getLong(Properties properties, String key) throws IOException
+   {
+      try
+      {
+         return Long.parseLong(properties.getProperty(key, "0"));
+      }
+      catch (NumberFormatException e)
+      {
+         throw new IOException("Invalid download checkpoint property: " + key, e);
+      }
+   }
+
+   /**
+    * Returns the checkpoint of a previous partial download of the same file, or null.
+    */
+   private Properties loadCheckpoint() throws IOException
+   {
+      if (!Files.exists(part) || !Files.exists(checkpoint))
+      {
+         return null;
+      }
+
+      Properties properties = new Properties();
+      try (InputStream input = Files.newInputStream(checkpoint))
+      {
+         properties.load(input);
+      }
+      if (!source.toString().equals(properties.getProperty(CHECKPOINT_URL)))
+      {
+         return null;
+      }
+      etag = properties.getProperty(CHECKPOINT_ETAG);
+      lastModified = properties.getProperty(CHECKPOINT_LAST_MODIFIED);
+      return properties;
+   }
+
+   private void saveCheckpoint(long bytes) throws IOException
+   {
+      Properties properties = newCheckpoint();
+      properties.setProperty(CHECKPOINT_BYTES, Long.toString(bytes));
+      storeCheckpoint(properties);
+      checkpointListener.accept(bytes);
+   }
+
+   private void saveCheckpoint(long total, AtomicLongArray progress) throws IOException
+   {
+      checkpointLock.lock();
+      try
+      {
+         Properties properties = newCheckpoint();
+         properties.setProperty(CHECKPOINT_TOTAL, Long.toString(total));
+         properties.setProperty(CHECKPOINT_SEGMENTS, Integer.toString(progress.length()));
+         long bytes = 0;
+         for (int i = 0; i < progress.length(); i++)
+         {
+            properties.setProperty(CHECKPOINT_SEGMENT + i, Long.toString(progress.get(i)));
+            bytes += progress.get(i);
+         }
+         storeCheckpoint(properties);
+         checkpointListener.accept(bytes);
+      }
+      finally
+      {
+         checkpointLock.unlock();
+      }
+   }
+
+   private Properties newCheckpoint()
+   {
+      Properties properties = new Properties();
+      properties.setProperty(CHECKPOINT_URL, source.toString());
+      if (etag != null)
+      {
+         properties.setProperty(CHECKPOINT_ETAG, etag);
+      }
+      if (lastModified != null)
+      {
+         properties.setProperty(CHECKPOINT_LAST_MODIFIED, lastModified);
+      }
+      return properties;
+   }
+
+   private void storeCheckpoint(Properties properties) throws IOException
+   {
+      checkpointLock.lock();
+      try
+      {
+         if (discarded || rangeUnsupported && properties.containsKey(CHECKPOINT_SEGMENTS))
+         {
+            // download or segmented download abandoned
+            return;
+         }
+         Path tmp = Paths.get(checkpoint + ".tmp");
+         try (OutputStream output = Files.newOutputStream(tmp))
+         {
+            properties.store(output, null);
+         }
+         Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      finally
+      {
+         checkpointLock.unlock();
+      }
+   }
+}
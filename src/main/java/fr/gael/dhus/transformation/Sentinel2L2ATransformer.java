@@ -20,16 +20,27 @@
 package fr.gael.dhus.transformation;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -61,14 +72,79 @@ public class Sentinel2L2ATransformer implements Transformer
    // required metadata for transformations
    private static final String ATTRIBUTE_TILE_ID = "Level-1C PDI Identifier";
 
-   // configuration
-   private Configuration conf;
+   // prefix of the transformation data of products served from the result cache
+   private static final String CACHED_DATA_PREFIX = "cache:";
+   private static final String QUEUED_DATA_PREFIX = "queued:";
 
-   // web processing service
-   private Sentinel2WebProcessService wps;
+   // warm-up states
+   private enum Readiness
+   {
+      WARMING_UP, READY, FAILED
+   }
+
+   // configuration, the one of the classpath once warming up if not injected
+   private volatile Configuration conf;
+
+   // web processing service, replaced when its capabilities are refreshed
+   private volatile EndpointRouter router;
+   private volatile long capabilitiesLoaded = 0;
 
    // download manager
-   private DownloadManager downloadManager = new DownloadManager();
+   private DownloadManager downloadManager;
+
+   // background status poller
+   private StatusPoller statusPoller;
+
+   // submissions waiting for the quota of the WPS user
+   private SubmissionQueue submissionQueue;
+
+   // transformation UUID -> priority, restored from the state journal after a restart
+   private final Map<String, Integer> priorities = new ConcurrentHashMap<>();
+
+   // in-flight executions shared by transformations of the same tile
+   private final SubmissionRegistry submissions = new SubmissionRegistry();
+
+   // transformation UUID -> submission of the in-flight execution it is attached to
+   private final Map<String, CompletableFuture<ProcessExec>> attachments = new ConcurrentHashMap<>();
+
+   // completed products
+   private ResultCache resultCache = new ResultCache();
+
+   // state of transformations, persisted across restarts
+   private StateJournal journal;
+
+   // components are published by the transition to READY
+   private final AtomicReference<Readiness> readiness = new AtomicReference<>(Readiness.WARMING_UP);
+   private final AtomicReference<CompletableFuture<Void>> warmUp = new AtomicReference<>();
+
+   // refreshes the capabilities of the WPS
+   private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable ->
+   {
+      Thread thread = new Thread(runnable, TRANSFORMER_NAME + "-capabilities-refresh");
+      thread.setDaemon(true);
+      return thread;
+   });
+
+   /**
+    * Creates the transformer and starts warming it up in background.
+    */
+   public Sentinel2L2ATransformer()
+   {
+      this(null, true);
+   }
+
+   /**
+    * @param conf   configuration, the one of the classpath if null
+    * @param warmUp true to start warming up
+    */
+   Sentinel2L2ATransformer(Configuration conf, boolean warmUp)
+   {
+      this.conf = conf;
+      if (warmUp)
+      {
+         warmUp();
+      }
+   }
 
    @Override
    public String getName()
@@ -84,18 +160,131 @@ public class Sentinel2L2ATransformer implements Transformer
 
    public Sentinel2WebProcessService getWPS()
    {
-      return wps;
+      EndpointRouter router = this.router;
+      return router == null ? null : router.getService();
+   }
+
+   /**
+    * Returns true once the transformer is warmed up and the WPS capabilities are loaded.
+    */
+   public boolean isReady()
+   {
+      return readiness.get() == Readiness.READY;
+   }
+
+   /**
+    * Returns the age of the loaded WPS capabilities in milliseconds, or -1 if not loaded yet.
+    */
+   public long getCapabilitiesAge()
+   {
+      long loaded = capabilitiesLoaded;
+      return loaded == 0 ? -1 : System.currentTimeMillis() - loaded;
    }
 
-   private void init() throws TransformationException
+   /**
+    * Starts the warm-up, unless it is running or succeeded already. A failed warm-up is started
+    * again.
+    *
+    * @return the running or completed warm-up
+    */
+   private CompletableFuture<Void> warmUp()
    {
-      if (wps != null && conf != null)
+      CompletableFuture<Void> current = warmUp.get();
+      if (current != null && !current.isCompletedExceptionally())
       {
-         return;
+         return current;
+      }
+      CompletableFuture<Void> next = new CompletableFuture<>();
+      if (!warmUp.compareAndSet(current, next))
+      {
+         // started concurrently
+         return warmUp.get();
+      }
+
+      LOGGER.info("Warming up transformer {}", TRANSFORMER_NAME);
+      readiness.set(Readiness.WARMING_UP);
+      CompletableFuture.runAsync(this::initLocal)
+            .thenCompose(ignored -> router.load())
+            .thenRun(this::start)
+            .whenComplete((ignored, error) ->
+            {
+               if (error == null)
+               {
+                  readiness.set(Readiness.READY);
+                  LOGGER.info("Transformer {} ready", TRANSFORMER_NAME);
+                  next.complete(null);
+               }
+               else
+               {
+                  readiness.set(Readiness.FAILED);
+                  LOGGER.error("Transformer {} warm-up failed", TRANSFORMER_NAME, error);
+                  next.completeExceptionally(error);
+               }
+            });
+      return next;
+   }
+
+   /**
+    * Waits for the warm-up, at most for the configured duration.
+    *
+    * @return false if the transformer is still warming up
+    * @throws TransformationException if the warm-up failed, it is started again
+    */
+   private boolean awaitReady() throws TransformationException
+   {
+      if (readiness.get() == Readiness.READY)
+      {
+         return true;
+      }
+      CompletableFuture<Void> future = warmUp();
+      try
+      {
+         future.get(getConfiguration().getWarmupWait(), TimeUnit.MILLISECONDS);
+         return true;
       }
+      catch (TimeoutException e)
+      {
+         return false;
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+      catch (ExecutionException e)
+      {
+         Throwable cause = e.getCause();
+         throw new TransformationException("Service not reachable: " + cause.getMessage(), cause);
+      }
+   }
+
+   /**
+    * Returns the configuration of the transformer, the one of the classpath until it is set.
+    */
+   private Configuration getConfiguration()
+   {
+      Configuration conf = this.conf;
+      return conf == null ? Configuration.getInstance() : conf;
+   }
+
+   /**
+    * Initializes the local components, kept from a previous failed warm-up if any. Downloads
+    * interrupted by a restart are resumed, they do not depend on the WPS, and products completed
+    * before it are tracked, so that they are deleted once terminated.
+    */
+   private synchronized void initLocal()
+   {
       try
       {
-         this.conf = Configuration.getInstance();
+         if (this.conf == null)
+         {
+            this.conf = Configuration.getInstance();
+         }
+
+         if (conf.isVirtualThreads() && ExecutorFactory.isVirtualSupported())
+         {
+            LOGGER.info("Downloads and WPS requests run on virtual threads");
+         }
 
          // temporary directory
          Path tmpDir = this.conf.getTmpDirectory();
@@ -103,11 +292,172 @@ public class Sentinel2L2ATransformer implements Transformer
          {
             Files.createDirectories(tmpDir);
          }
-         this.wps = Sentinel2WebProcessService.loadWPS(new URL(conf.getServiceUrl()));
+
+         // result cache
+         Path cacheDir = this.conf.getCacheDirectory();
+         if (cacheDir != null && !this.resultCache.isEnabled())
+         {
+            this.resultCache = new ResultCache(cacheDir, conf.getCacheMaxSize(), conf.getCacheMaxAge().toMillis());
+         }
+
+         if (this.journal == null)
+         {
+            this.journal = new StateJournal(conf.getJournalFile(), conf.getJournalCompactionThreshold());
+         }
+
+         if (this.downloadManager == null)
+         {
+            this.downloadManager = new DownloadManager(conf, journal);
+            restoreDownloads();
+         }
+
+         if (this.router == null)
+         {
+            this.router = new EndpointRouter(conf.getServiceEndpoints());
+         }
+      }
+      catch (IOException e)
+      {
+         throw new CompletionException(e);
+      }
+   }
+
+   /**
+    * Starts the components depending on the WPS, once the capabilities of an endpoint are loaded.
+    */
+   private void start()
+   {
+      this.capabilitiesLoaded = System.currentTimeMillis();
+      this.statusPoller = new StatusPoller(conf, router);
+      this.statusPoller.setTerminationListener(submissions::finished);
+      this.submissionQueue = new SubmissionQueue(conf, router::getOutstanding);
+      new TransformerMetrics(this, downloadManager, statusPoller).register();
+      restore();
+
+      long ttl = conf.getCapabilitiesTtl();
+      if (ttl > 0)
+      {
+         refresher.scheduleWithFixedDelay(this::refreshCapabilities, ttl, ttl, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Reloads the capabilities of the WPS endpoints, the previous ones are kept for unreachable
+    * endpoints.
+    */
+   private void refreshCapabilities()
+   {
+      if (router.refresh())
+      {
+         this.capabilitiesLoaded = System.currentTimeMillis();
+         LOGGER.debug("WPS capabilities refreshed");
+      }
+   }
+
+   EndpointRouter getRouter()
+   {
+      return router;
+   }
+
+   SubmissionQueue getSubmissionQueue()
+   {
+      return submissionQueue;
+   }
+
+   /**
+    * Resumes the downloads and tracks the products of the transformations recorded in the state
+    * journal.
+    */
+   private void restoreDownloads()
+   {
+      for (StateJournal.Entry entry: journal.getEntries())
+      {
+         // tile and priority are recorded together, downloads journaled alone have neither
+         if (entry.getTileId() != null)
+         {
+            priorities.put(entry.getUuid(), entry.getPriority());
+         }
+         try
+         {
+            switch (entry.getState())
+            {
+               case DOWNLOADING:
+                  // if the download queue is full, submitted again once polled
+                  downloadManager.submitDownload(entry.getUuid(), new URL(entry.getOutputUrl()),
+                        getPriority(entry.getUuid()));
+                  break;
+               case COMPLETED:
+                  // served on their next status query
+                  downloadManager.trackOutput(entry.getUuid(), new URL(entry.getOutputUrl()));
+                  break;
+               default:
+                  break;
+            }
+         }
+         catch (MalformedURLException e)
+         {
+            LOGGER.warn("Cannot restore Transformation '{}' from state journal", entry.getUuid(), e);
+            priorities.remove(entry.getUuid());
+            journal.removed(entry.getUuid());
+         }
+      }
+   }
+
+   /**
+    * Resumes the submissions and polling of the transformations recorded in the state journal.
+    */
+   private void restore()
+   {
+      for (StateJournal.Entry entry: journal.getEntries())
+      {
+         try
+         {
+            switch (entry.getState())
+            {
+               case QUEUED:
+                  requeue(entry);
+                  break;
+               case SUBMITTED:
+                  statusPoller.register(entry.getUuid(), new URL(entry.getMonitoringUrl()));
+                  break;
+               case DOWNLOADING:
+                  // download not resumed by the local initialization, the download queue was full
+                  if (!downloadManager.hasDownload(entry.getUuid()) && entry.getMonitoringUrl() != null)
+                  {
+                     statusPoller.register(entry.getUuid(), new URL(entry.getMonitoringUrl()));
+                  }
+                  break;
+               default:
+                  break;
+            }
+         }
+         catch (MalformedURLException e)
+         {
+            LOGGER.warn("Cannot restore Transformation '{}' from state journal", entry.getUuid(), e);
+            journal.removed(entry.getUuid());
+         }
       }
-      catch (IOException | WPSException e)
+   }
+
+   /**
+    * Queues again the submission of a transformation queued before a restart.
+    */
+   private void requeue(StateJournal.Entry entry)
+   {
+      String uuid = entry.getUuid();
+      if (entry.getTileId() == null)
       {
-         throw new TransformationException("Service not reachable: " + e.getMessage(), e);
+         LOGGER.warn("Cannot restore Transformation '{}' from state journal, tile unknown", uuid);
+         journal.removed(uuid);
+         return;
+      }
+      ProcessingKey key = newKey(entry.getTileId());
+      priorities.put(uuid, entry.getPriority());
+      if (!submissionQueue.enqueue(uuid, entry.getPriority(), newSubmission(uuid, key, entry.getPriority())))
+      {
+         LOGGER.warn("Cannot restore Transformation '{}' from state journal, submission queue full", uuid);
+         priorities.remove(uuid);
+         journal.removed(uuid);
       }
    }
 
@@ -115,7 +465,11 @@ public class Sentinel2L2ATransformer implements Transformer
    public void isTransformable(ProductInfo product, Map<String, String> parameters)
          throws TransformationException
    {
-      init();
+      // only local checks, admitted while warming up
+      if (readiness.get() == Readiness.FAILED)
+      {
+         awaitReady();
+      }
 
       // check parameters
       if(!parameters.isEmpty())
@@ -123,22 +477,34 @@ public class Sentinel2L2ATransformer implements Transformer
          throw new TransformationException("This transformer takes no parameters.");
       }
 
+      checkProduct(getConfiguration(), product.getMetadata());
+   }
+
+   /**
+    * Checks that a product is a Sentinel-2 L1C product within the accepted sensing period.
+    *
+    * @param conf     configuration holding the accepted sensing period
+    * @param metadata metadata of the product
+    * @throws TransformationException if the product cannot be transformed
+    */
+   static void checkProduct(Configuration conf, Map<String, String> metadata) throws TransformationException
+   {
       // check that product is Sentinel 2
-      String satName = product.getMetadata().get("Satellite name");
+      String satName = metadata.get("Satellite name");
       if (!"Sentinel-2".equals(satName))
       {
           throw new TransformationException("Product is not a Sentinel-2 product.");
       }
 
       // check product type
-      String prodType = product.getMetadata().get("Product type");
+      String prodType = metadata.get("Product type");
       if (!"S2MSI1C".equals(prodType))
       {
           throw new TransformationException("Product is not a Sentinel-2 L1C product.");
       }
 
       // check product has PDI metadata
-      if(!product.getMetadata().containsKey(ATTRIBUTE_TILE_ID))
+      if(!metadata.containsKey(ATTRIBUTE_TILE_ID))
       {
          throw new TransformationException("Product attribute missing: " + ATTRIBUTE_TILE_ID);
       }
@@ -148,7 +514,7 @@ public class Sentinel2L2ATransformer implements Transformer
       try
       {
          // product sensing date
-         Date date = sdf.parse(product.getMetadata().get("Sensing stop"));
+         Date date = sdf.parse(metadata.get("Sensing stop"));
 
          // limit start
          Date limitStart = conf.getL2aDateStart();
@@ -184,25 +550,134 @@ public class Sentinel2L2ATransformer implements Transformer
    public TransformationStatus submitTransformation(String transformationUuid, ProductInfo productInfo, Map<String, String> parameters)
          throws TransformationException
    {
-      // initialize
-      init();
-
       // note: this transformation doesn't take any parameters, ignore the argument
+      return submit(transformationUuid, productInfo.getMetadata());
+   }
+
+   /**
+    * Submits the transformation of a product.
+    *
+    * @param transformationUuid transformation UUID
+    * @param metadata           metadata of the product
+    */
+   TransformationStatus submit(String transformationUuid, Map<String, String> metadata) throws TransformationException
+   {
+      // wait for the warm-up, fail fast if it takes too long
+      if (!awaitReady())
+      {
+         throw new TransformationException("Service is warming up, please retry later.");
+      }
 
       try
       {
-         // execute processing
-         ProcessExec execution = wps.queryProcessExecution(L2A_PROCESS_NAME, productInfo.getMetadata().get(ATTRIBUTE_TILE_ID));
+         // execute processing, or attach to the in-flight execution of the same tile
+         String tileId = metadata.get(ATTRIBUTE_TILE_ID);
+         ProcessingKey key = newKey(tileId);
+         if (resultCache.contains(key))
+         {
+            LOGGER.info("Transformation '{}' served from result cache ({})", transformationUuid, key);
+            return new TransformationStatus(JobStatus.RUNNING, null, CACHED_DATA_PREFIX + key);
+         }
+
+         int priority = conf.getPriorityRules().getPriority(metadata);
+         priorities.put(transformationUuid, priority);
 
-         // return status and data
-         return new TransformationStatus(JobStatus.RUNNING, null, execution.getMonitoringUrl().toString());
+         // journaled as queued until its execution is submitted, by itself or by an in-flight one
+         journal.queued(transformationUuid, tileId, priority);
+
+         // attaching to an in-flight execution does not count against the quota
+         CompletableFuture<ProcessExec> inFlight = submissions.attach(transformationUuid, key);
+         if (inFlight != null)
+         {
+            attach(transformationUuid, key, priority, inFlight);
+            return new TransformationStatus(JobStatus.RUNNING, null, QUEUED_DATA_PREFIX + transformationUuid);
+         }
+
+         // queued until the quota of the WPS user allows its dispatch
+         if (!submissionQueue.enqueue(transformationUuid, priority, newSubmission(transformationUuid, key, priority)))
+         {
+            priorities.remove(transformationUuid);
+            journal.removed(transformationUuid);
+            throw new TransformationException("Too many transformations queued, please retry later.");
+         }
+         return new TransformationStatus(JobStatus.RUNNING, null, QUEUED_DATA_PREFIX + transformationUuid);
       }
-      catch (WPSException | RuntimeException e)
+      catch (RuntimeException e)
       {
          throw new TransformationException("Could not start transformation.", e);
       }
    }
 
+   /**
+    * Resolves a transformation attached to an in-flight execution once its submission ends. The
+    * transformation is queued for a submission of its own if the in-flight one failed.
+    */
+   private void attach(String transformationUuid, ProcessingKey key, int priority, CompletableFuture<ProcessExec> inFlight)
+   {
+      CompletableFuture<ProcessExec> attached = new CompletableFuture<>();
+      attachments.put(transformationUuid, attached);
+      inFlight.whenComplete((execution, error) ->
+      {
+         // terminated meanwhile
+         if (attachments.get(transformationUuid) != attached)
+         {
+            return;
+         }
+         if (error == null)
+         {
+            attached.complete(submitted(transformationUuid, key, priority, execution));
+            return;
+         }
+         LOGGER.info("Submission of in-flight execution of {} failed, Transformation '{}' queued", key, transformationUuid);
+         submissions.release(transformationUuid);
+         if (submissionQueue.enqueue(transformationUuid, priority, newSubmission(transformationUuid, key, priority)))
+         {
+            attachments.remove(transformationUuid, attached);
+         }
+         else
+         {
+            attached.completeExceptionally(new WPSException("Too many transformations queued"));
+         }
+      });
+   }
+
+   /**
+    * Returns the submission of a queued or attached transformation.
+    *
+    * @return the submission, or null if the transformation is unknown (eg. after a restart)
+    */
+   private CompletableFuture<ProcessExec> getSubmission(String transformationUuid)
+   {
+      CompletableFuture<ProcessExec> attached = attachments.get(transformationUuid);
+      return attached != null ? attached : submissionQueue.get(transformationUuid);
+   }
+
+   private void forgetSubmission(String transformationUuid)
+   {
+      attachments.remove(transformationUuid);
+      submissionQueue.forget(transformationUuid);
+   }
+
+   /**
+    * Returns the WPS execution request of a transformation, attaching it to the in-flight
+    * execution of the same tile if any.
+    */
+   private SubmissionRegistry.Submission newSubmission(String transformationUuid, ProcessingKey key, int priority)
+   {
+      return () -> submitted(transformationUuid, key, priority, submissions.submit(transformationUuid, key,
+            () -> router.execute(L2A_PROCESS_NAME, key.getTileId(), priority)));
+   }
+
+   /**
+    * Starts polling the WPS execution a transformation is attached to, and journals it.
+    */
+   private ProcessExec submitted(String transformationUuid, ProcessingKey key, int priority, ProcessExec execution)
+   {
+      statusPoller.register(transformationUuid, execution.getMonitoringUrl());
+      journal.submitted(transformationUuid, execution.getMonitoringUrl().toString(), key.getTileId(), priority);
+      return execution;
+   }
+
    @Override
    // TODO check data is not null
    public TransformationStatus getTransformationStatus(String transformationUuid, String data) throws TransformationException
@@ -212,21 +687,80 @@ public class Sentinel2L2ATransformer implements Transformer
          throw new TransformationException("Execution status URL cannot be null");
       }
 
-      // initialize
-      init();
+      // wait for the warm-up, transformation considered running until then
+      if (!awaitReady())
+      {
+         return new TransformationStatus(JobStatus.RUNNING, null, data);
+      }
 
       try
       {
+         // product served from result cache
+         if (data.startsWith(CACHED_DATA_PREFIX))
+         {
+            ProcessingKey key = ProcessingKey.parse(data.substring(CACHED_DATA_PREFIX.length()));
+            Path product = resultCache.restore(key, conf.getDataDirectory());
+            if (product == null)
+            {
+               throw new TransformationException("Cached result of Transformation '" + transformationUuid + "' is no longer available");
+            }
+            URL result = product.toUri().toURL();
+            downloadManager.trackOutput(transformationUuid, result);
+            return new TransformationStatus(JobStatus.COMPLETED, result, data);
+         }
+
+         // queued submission, resolved to its monitoring URL once dispatched
+         if (data.startsWith(QUEUED_DATA_PREFIX))
+         {
+            CompletableFuture<ProcessExec> queued = getSubmission(transformationUuid);
+            if (queued != null && !queued.isDone())
+            {
+               return new TransformationStatus(JobStatus.RUNNING, null, data);
+            }
+            if (queued != null && queued.isCompletedExceptionally())
+            {
+               Throwable cause = queued.handle((execution, error) -> error).join();
+               LOGGER.error("Could not start Transformation '{}'", transformationUuid, cause);
+               forgetSubmission(transformationUuid);
+               priorities.remove(transformationUuid);
+               journal.removed(transformationUuid);
+               return new TransformationStatus(JobStatus.FAILED, null, data);
+            }
+
+            // dispatched submissions are recorded in the state journal
+            StateJournal.Entry submitted = journal.get(transformationUuid);
+            if (submitted == null || submitted.getMonitoringUrl() == null)
+            {
+               LOGGER.error("Queued submission of Transformation '{}' was lost", transformationUuid);
+               return new TransformationStatus(JobStatus.FAILED, null, data);
+            }
+            forgetSubmission(transformationUuid);
+            data = submitted.getMonitoringUrl();
+         }
+
+         // result downloaded before a restart
+         StateJournal.Entry entry = journal.get(transformationUuid);
+         if (entry != null && entry.getState() == StateJournal.State.COMPLETED
+               && !downloadManager.hasDownload(transformationUuid))
+         {
+            URL result = new URL(entry.getOutputUrl());
+            if (Files.exists(Paths.get(result.toURI())))
+            {
+               downloadManager.trackOutput(transformationUuid, result);
+               cacheResult(transformationUuid, result);
+               return new TransformationStatus(JobStatus.COMPLETED, result, data);
+            }
+         }
+
          // check existing downloads
          if(downloadManager.hasDownload(transformationUuid))
          {
             if(downloadManager.isDownloadDone(transformationUuid))
             {
                // download is done, transformation considered completed
-               return new TransformationStatus(
-                     JobStatus.COMPLETED,
-                     downloadManager.getDownloadResultURL(transformationUuid),
-                     data);
+               URL result = downloadManager.getDownloadResultURL(transformationUuid);
+               cacheResult(transformationUuid, result);
+               return new TransformationStatus(JobStatus.COMPLETED, result, data);
             }
             else
             {
@@ -235,9 +769,14 @@ public class Sentinel2L2ATransformer implements Transformer
             }
          }
 
-         // no download found, check status at WPS
+         // no download found, check status polled from the WPS
          URL url = new URL(data);
-         ProcessExecStatus executionStatus = wps.queryExecutionStatus(url);
+         ProcessExecStatus executionStatus = statusPoller.getStatus(transformationUuid, url);
+         if (executionStatus == null)
+         {
+            // not polled yet
+            return new TransformationStatus(JobStatus.RUNNING, null, data);
+         }
 
          switch(executionStatus.getStatus())
          {
@@ -245,9 +784,17 @@ public class Sentinel2L2ATransformer implements Transformer
             case STARTED:
                return new TransformationStatus(JobStatus.RUNNING, null, data);
             case SUCCEEDED:
-               downloadManager.submitDownload(transformationUuid, new URL(executionStatus.getOutput()));
+               if (downloadManager.submitDownload(transformationUuid, new URL(executionStatus.getOutput()),
+                     getPriority(transformationUuid)))
+               {
+                  statusPoller.unregister(transformationUuid);
+               }
                return new TransformationStatus(JobStatus.RUNNING, null, data);
             case FAILED:
+               statusPoller.unregister(transformationUuid);
+               submissions.evict(transformationUuid);
+               priorities.remove(transformationUuid);
+               journal.removed(transformationUuid);
                return new TransformationStatus(JobStatus.FAILED, null, data);
             case PAUSED:
             default:
@@ -260,7 +807,7 @@ public class Sentinel2L2ATransformer implements Transformer
          LOGGER.warn("Transformation '{}' assumed RUNNING", transformationUuid);
          return new TransformationStatus(JobStatus.RUNNING, null, data);
       }
-      catch (WPSException | IOException | RuntimeException e)
+      catch (WPSException | IOException | URISyntaxException | RuntimeException e)
       {
          throw new TransformationException("Could not handle status of Transformation '"+transformationUuid+"'", e);
       }
@@ -275,17 +822,65 @@ public class Sentinel2L2ATransformer implements Transformer
       }
    }
 
+   private int getPriority(String transformationUuid)
+   {
+      return priorities.getOrDefault(transformationUuid, conf.getPriorityRules().getDefaultPriority());
+   }
+
+   /**
+    * Returns the processing key of a tile with the configured processor.
+    */
+   private ProcessingKey newKey(String tileId)
+   {
+      return new ProcessingKey(tileId, conf.getL2aProcessorVersion(), conf.getL2aResolution());
+   }
+
+   private void cacheResult(String transformationUuid, URL result)
+   {
+      // transformations restored from the state journal are not in the submission registry
+      ProcessingKey key = submissions.getKey(transformationUuid);
+      StateJournal.Entry entry = journal.get(transformationUuid);
+      if (key == null && entry != null && entry.getTileId() != null)
+      {
+         key = newKey(entry.getTileId());
+      }
+      if (key != null && resultCache.isEnabled())
+      {
+         try
+         {
+            resultCache.put(key, Paths.get(result.toURI()));
+         }
+         catch (IOException | URISyntaxException e)
+         {
+            LOGGER.warn("Could not add result of Transformation '{}' to the result cache", transformationUuid, e);
+         }
+      }
+   }
+
    @Override
    public void terminateTransformation(String transformationUuid)
    {
+      // only the local components are needed, the WPS may be unreachable or still loading
       try
       {
-         init();
-         downloadManager.removeDownload(transformationUuid);
+         initLocal();
+      }
+      catch (CompletionException e)
+      {
+         LOGGER.error("Could not terminate Transformation '{}'", transformationUuid, e.getCause());
+         return;
       }
-      catch (TransformationException e)
+
+      // components depending on the WPS are published by the transition to READY
+      attachments.remove(transformationUuid);
+      if (isReady())
       {
-         LOGGER.error("Could not terminate Transformation '{}'", transformationUuid, e);
+         submissionQueue.forget(transformationUuid);
+         statusPoller.unregister(transformationUuid);
       }
+      submissions.release(transformationUuid);
+      priorities.remove(transformationUuid);
+      downloadManager.removeDownload(transformationUuid);
+      journal.removed(transformationUuid);
    }
 }
@@ -0,0 +1,325 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append-only journal of the state of transformations, replayed at startup so that polling and
+ * downloads resume without waiting for DHuS to query their status.
+ * <p>
+ * Each line is a full record of a transformation, the last record of a transformation wins. The
+ * journal is rewritten with the live records only once enough records have been appended.
+ */
+class StateJournal
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private static final String FIELD_SEPARATOR = "\t";
+   private static final String NONE = "-";
+
+   enum State
+   {
+      /** submission queued locally, tile and priority known */
+      QUEUED,
+      /** WPS execution submitted, monitoring URL, tile and priority known */
+      SUBMITTED,
+      /** result being downloaded from the output URL */
+      DOWNLOADING,
+      /** result available locally, the output URL is the local product */
+      COMPLETED,
+      /** transformation failed or terminated, dropped at compaction */
+      REMOVED
+   }
+
+   private final Path file;
+   private final int compactionThreshold;
+
+   // transformation UUID -> latest record, in insertion order
+   private final Map<String, Entry> entries = new LinkedHashMap<>();
+   private Writer writer;
+   private int appended = 0;
+
+   StateJournal(Path file, int compactionThreshold) throws IOException
+   {
+      this.file = file;
+      this.compactionThreshold = Math.max(1, compactionThreshold);
+
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      replay();
+      compact();
+   }
+
+   /**
+    * Returns the live records read from the journal or appended since.
+    */
+   synchronized Collection<Entry> getEntries()
+   {
+      return new ArrayList<>(entries.values());
+   }
+
+   synchronized Entry get(String uuid)
+   {
+      return entries.get(uuid);
+   }
+
+   void queued(String uuid, String tileId, int priority)
+   {
+      append(new Entry(uuid, State.QUEUED, null, null, 0, tileId, priority));
+   }
+
+   void submitted(String uuid, String monitoringUrl, String tileId, int priority)
+   {
+      append(new Entry(uuid, State.SUBMITTED, monitoringUrl, null, 0, tileId, priority));
+   }
+
+   void downloading(String uuid, String outputUrl)
+   {
+      Entry previous = get(uuid);
+      append(previous == null
+            ? new Entry(uuid, State.DOWNLOADING, null, outputUrl, 0)
+            : new Entry(uuid, State.DOWNLOADING, previous.monitoringUrl, outputUrl, 0, previous.tileId,
+                  previous.priority));
+   }
+
+   void progress(String uuid, long bytes)
+   {
+      Entry previous = get(uuid);
+      if (previous != null && previous.state == State.DOWNLOADING)
+      {
+         append(new Entry(uuid, State.DOWNLOADING, previous.monitoringUrl, previous.outputUrl, bytes,
+               previous.tileId, previous.priority));
+      }
+   }
+
+   void completed(String uuid, String resultUrl)
+   {
+      Entry previous = get(uuid);
+      append(previous == null
+            ? new Entry(uuid, State.COMPLETED, null, resultUrl, 0)
+            : new Entry(uuid, State.COMPLETED, previous.monitoringUrl, resultUrl, previous.bytes, previous.tileId,
+                  previous.priority));
+   }
+
+   void removed(String uuid)
+   {
+      if (get(uuid) != null)
+      {
+         append(new Entry(uuid, State.REMOVED, null, null, 0));
+      }
+   }
+
+   synchronized int getEntryCount()
+   {
+      return entries.size();
+   }
+
+   private synchronized void append(Entry entry)
+   {
+      if (entry.state == State.REMOVED)
+      {
+         entries.remove(entry.uuid);
+      }
+      else
+      {
+         entries.put(entry.uuid, entry);
+      }
+
+      try
+      {
+         writer.write(entry.toLine());
+         writer.flush();
+         if (++appended >= compactionThreshold && appended > entries.size())
+         {
+            compact();
+         }
+      }
+      catch (IOException e)
+      {
+         LOGGER.warn("Could not write to state journal {}", file, e);
+      }
+   }
+
+   /**
+    * Reads the journal, ignoring malformed records such as a line truncated by a crash.
+    */
+   private void replay() throws IOException
+   {
+      if (!Files.exists(file))
+      {
+         return;
+      }
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+      {
+         String line;
+         while ((line = reader.readLine()) != null)
+         {
+            Entry entry = Entry.parse(line);
+            if (entry == null)
+            {
+               LOGGER.warn("Ignoring malformed record in state journal {}: {}", file, line);
+            }
+            else if (entry.state == State.REMOVED)
+            {
+               entries.remove(entry.uuid);
+            }
+            else
+            {
+               entries.put(entry.uuid, entry);
+            }
+         }
+      }
+      LOGGER.info("{} transformations restored from state journal {}", entries.size(), file);
+   }
+
+   /**
+    * Rewrites the journal with the live records only.
+    */
+   private void compact() throws IOException
+   {
+      if (writer != null)
+      {
+         writer.close();
+      }
+
+      Path tmp = Paths.get(file + ".tmp");
+      try (Writer output = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+      {
+         for (Entry entry: entries.values())
+         {
+            output.write(entry.toLine());
+         }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+      appended = 0;
+   }
+
+   static final class Entry
+   {
+      private final String uuid;
+      private final State state;
+      private final String monitoringUrl;
+      private final String outputUrl;
+      private final long bytes;
+      private final String tileId;
+      private final int priority;
+
+      private Entry(String uuid, State state, String monitoringUrl, String outputUrl, long bytes)
+      {
+         this(uuid, state, monitoringUrl, outputUrl, bytes, null, 0);
+      }
+
+      private Entry(String uuid, State state, String monitoringUrl, String outputUrl, long bytes, String tileId,
+            int priority)
+      {
+         this.uuid = uuid;
+         this.state = state;
+         this.monitoringUrl = monitoringUrl;
+         this.outputUrl = outputUrl;
+         this.bytes = bytes;
+         this.tileId = tileId;
+         this.priority = priority;
+      }
+
+      String getUuid()
+      {
+         return uuid;
+      }
+
+      State getState()
+      {
+         return state;
+      }
+
+      String getMonitoringUrl()
+      {
+         return monitoringUrl;
+      }
+
+      String getOutputUrl()
+      {
+         return outputUrl;
+      }
+
+      long getBytes()
+      {
+         return bytes;
+      }
+
+      String getTileId()
+      {
+         return tileId;
+      }
+
+      int getPriority()
+      {
+         return priority;
+      }
+
+      private String toLine()
+      {
+         return String.join(FIELD_SEPARATOR, state.name(), uuid,
+               monitoringUrl == null ? NONE : monitoringUrl,
+               outputUrl == null ? NONE : outputUrl,
+               Long.toString(bytes),
+               tileId == null ? NONE : tileId,
+               Integer.toString(priority)) + '\n';
+      }
+
+      private static Entry parse(String line)
+      {
+         String[] fields = line.split(FIELD_SEPARATOR);
+         if (fields.length != 7)
+         {
+            return null;
+         }
+         try
+         {
+            return new Entry(fields[1], State.valueOf(fields[0]),
+                  NONE.equals(fields[2]) ? null : fields[2],
+                  NONE.equals(fields[3]) ? null : fields[3],
+                  Long.parseLong(fields[4]),
+                  NONE.equals(fields[5]) ? null : fields[5],
+                  Integer.parseInt(fields[6]));
+         }
+         catch (IllegalArgumentException e)
+         {
+            return null;
+         }
+      }
+   }
+}
@@ -0,0 +1,330 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.webprocess.NonCriticalWPSException;
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.ProcessStatus;
+import fr.gael.dhus.webprocess.WPSException;
+
+/**
+ * Polls the status of WPS executions in background and keeps the latest known status in memory.
+ * <p>
+ * Executions are identified by their monitoring URL and may be shared by several transformations.
+ * The overall rate of status queries sent to the WPS is capped by the configured polls per second.
+ * Queries are asynchronous, the number of queries in flight is capped as well, at most to the
+ * connections per route of the HTTP client pool. Each query is sent
+ * to the WPS endpoint which issued the monitoring URL.
+ * <p>
+ * Executions are polled again at an interval adapted to their estimated completion (see
+ * {@link ProgressEstimator}).
+ */
+public class StatusPoller
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private final EndpointRouter router;
+   private final long interval;
+   private final ProgressEstimator estimator;
+
+   // transformation UUID -> monitoring URL
+   private final Map<String, String> transformations = new ConcurrentHashMap<>();
+
+   // monitoring URL -> polled execution
+   private final Map<String, Execution> executions = new ConcurrentHashMap<>();
+
+   // executions waiting for their next poll
+   private final DelayQueue<Execution> queue = new DelayQueue<>();
+
+   private final ScheduledExecutorService dispatcher;
+
+   // permits for status queries in flight
+   private final Semaphore inFlight;
+   private final int maxInFlight;
+
+   // notified of the transformations whose execution succeeded or failed
+   private volatile Consumer<String> terminationListener = uuid -> {};
+
+   StatusPoller(Configuration conf, EndpointRouter router)
+   {
+      this.router = router;
+      this.interval = conf.getPollerInterval();
+      this.estimator = new ProgressEstimator(conf);
+
+      this.dispatcher = Executors.newSingleThreadScheduledExecutor(
+            runnable -> newThread(runnable, "-poll-dispatcher"));
+      // queries beyond the connections of the HTTP pool would only wait for a lease, and time out
+      this.maxInFlight = Math.max(1, Math.min(conf.getPollerMaxInFlight(), conf.getHttpPoolMaxPerRoute()));
+      this.inFlight = new Semaphore(maxInFlight);
+
+      // one query dispatched per period at most
+      long period = Math.max(1L, (long) (1_000_000d / conf.getPollerRate()));
+      dispatcher.scheduleAtFixedRate(this::dispatch, period, period, TimeUnit.MICROSECONDS);
+   }
+
+   private static Thread newThread(Runnable runnable, String suffix)
+   {
+      Thread thread = new Thread(runnable, Sentinel2L2ATransformer.TRANSFORMER_NAME + suffix);
+      thread.setDaemon(true);
+      return thread;
+   }
+
+   void setTerminationListener(Consumer<String> listener)
+   {
+      this.terminationListener = listener;
+   }
+
+   /**
+    * Starts polling the given monitoring URL on behalf of a transformation.
+    */
+   public void register(String uuid, URL monitoringUrl)
+   {
+      String key = monitoringUrl.toString();
+      transformations.put(uuid, key);
+      executions.compute(key, (url, execution) ->
+      {
+         if (execution == null)
+         {
+            execution = new Execution(monitoringUrl, estimator.start(System.currentTimeMillis()));
+            router.track(monitoringUrl);
+            queue.offer(execution);
+         }
+         execution.transformations.add(uuid);
+         return execution;
+      });
+   }
+
+   /**
+    * Stops polling on behalf of a transformation, the execution is forgotten once no transformation
+    * references it anymore.
+    */
+   public void unregister(String uuid)
+   {
+      String key = transformations.remove(uuid);
+      if (key != null)
+      {
+         executions.computeIfPresent(key, (url, execution) ->
+         {
+            execution.transformations.remove(uuid);
+            if (execution.transformations.isEmpty())
+            {
+               queue.remove(execution);
+               router.completed(execution.monitoringUrl);
+               return null;
+            }
+            return execution;
+         });
+      }
+   }
+
+   /**
+    * Returns the latest known status of the execution monitored by a transformation, registering
+    * it if needed (eg. after a restart).
+    *
+    * @param uuid          transformation UUID
+    * @param monitoringUrl monitoring URL of the WPS execution
+    * @return latest status, or null if the execution has not been polled yet
+    * @throws WPSException if the latest poll failed with a critical error
+    */
+   public ProcessExecStatus getStatus(String uuid, URL monitoringUrl) throws WPSException
+   {
+      Execution execution = executions.get(monitoringUrl.toString());
+      if (execution == null || !execution.transformations.contains(uuid))
+      {
+         register(uuid, monitoringUrl);
+         return null;
+      }
+      if (execution.error != null)
+      {
+         throw execution.error;
+      }
+      return execution.status;
+   }
+
+   public int getTrackedExecutions()
+   {
+      return executions.size();
+   }
+
+   /**
+    * Returns the number of tracked transformations per latest known status of their execution,
+    * transformations whose execution has not been polled yet are counted under a null key.
+    */
+   public Map<ProcessStatus, Integer> countTransformationsByStatus()
+   {
+      Map<ProcessStatus, Integer> counts = new HashMap<>();
+      for (Execution execution: executions.values())
+      {
+         ProcessStatus status = execution.status == null ? null : execution.status.getStatus();
+         counts.merge(status, execution.transformations.size(), Integer::sum);
+      }
+      return counts;
+   }
+
+   public int getInFlightCount()
+   {
+      return maxInFlight - inFlight.availablePermits();
+   }
+
+   /**
+    * Returns the typical duration of the executions learnt so far, 0 if unknown.
+    */
+   public long getTypicalDuration()
+   {
+      return estimator.getTypicalDuration();
+   }
+
+   /**
+    * Returns the polling state of the execution of a transformation: its latest progression, next
+    * poll time and estimated completion time, or null if not tracked. Times are in milliseconds
+    * since the epoch, -1 if unknown.
+    */
+   public Map<String, Long> getPolling(String uuid)
+   {
+      String key = transformations.get(uuid);
+      Execution execution = key == null ? null : executions.get(key);
+      if (execution == null)
+      {
+         return null;
+      }
+      Map<String, Long> polling = new LinkedHashMap<>();
+      polling.put("progression", (long) execution.progress.getProgression());
+      polling.put("nextPoll", execution.nextPoll);
+      polling.put("estimatedCompletion", execution.progress.getEstimatedCompletion());
+      return polling;
+   }
+
+   private void dispatch()
+   {
+      // executions stay in queue while too many queries are in flight
+      if (!inFlight.tryAcquire())
+      {
+         return;
+      }
+      Execution execution = queue.poll();
+      if (execution == null)
+      {
+         inFlight.release();
+         return;
+      }
+      try
+      {
+         router.forMonitoringUrl(execution.monitoringUrl)
+               .queryExecutionStatusAsync(execution.monitoringUrl).whenComplete((status, error) ->
+         {
+            inFlight.release();
+            polled(execution, status, error instanceof CompletionException ? error.getCause() : error);
+         });
+      }
+      catch (RuntimeException e)
+      {
+         inFlight.release();
+         polled(execution, null, e);
+      }
+   }
+
+   private void polled(Execution execution, ProcessExecStatus result, Throwable error)
+   {
+      long now = System.currentTimeMillis();
+      long delay = interval;
+      if (error == null)
+      {
+         execution.status = result;
+         execution.error = null;
+         delay = estimator.update(execution.progress, result, now);
+      }
+      else if (error instanceof NonCriticalWPSException)
+      {
+         LOGGER.debug("Could not poll status of execution {}: {}", execution.monitoringUrl, error.getMessage());
+      }
+      else if (error instanceof WPSException)
+      {
+         execution.error = (WPSException) error;
+      }
+      else
+      {
+         execution.error = new WPSException("Could not poll status of execution " + execution.monitoringUrl, error);
+      }
+
+      // terminal states are kept in memory but not polled anymore
+      ProcessStatus status = execution.status == null ? null : execution.status.getStatus();
+      if (status == ProcessStatus.SUCCEEDED || status == ProcessStatus.FAILED)
+      {
+         router.completed(execution.monitoringUrl);
+         if (status == ProcessStatus.SUCCEEDED && error == null)
+         {
+            estimator.completed(execution.progress, now);
+         }
+         execution.transformations.forEach(terminationListener);
+      }
+      else if (executions.get(execution.monitoringUrl.toString()) == execution)
+      {
+         execution.nextPoll = now + delay;
+         queue.offer(execution);
+         LOGGER.trace("Next poll of execution {} in {} ms", execution.monitoringUrl, delay);
+      }
+   }
+
+   private static final class Execution implements Delayed
+   {
+      private final URL monitoringUrl;
+      private final ProgressEstimator.Progress progress;
+      private final Set<String> transformations = ConcurrentHashMap.newKeySet();
+      private volatile ProcessExecStatus status;
+      private volatile WPSException error;
+      private volatile long nextPoll = System.currentTimeMillis();
+
+      private Execution(URL monitoringUrl, ProgressEstimator.Progress progress)
+      {
+         this.monitoringUrl = monitoringUrl;
+         this.progress = progress;
+      }
+
+      @Override
+      public long getDelay(TimeUnit unit)
+      {
+         return unit.convert(nextPoll - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+      }
+
+      @Override
+      public int compareTo(Delayed other)
+      {
+         return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+      }
+   }
+}
@@ -0,0 +1,239 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.Map;
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.webprocess.NonCriticalWPSException;
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.WPSException;
+
+/**
+ * Local admission queue of WPS submissions.
+ * <p>
+ * The WPS enforces quotas per user, submissions are therefore queued locally and dispatched at the
+ * rate of a token bucket, as long as the number of outstanding executions stays below the
+ * configured maximum. Submissions are dispatched by priority, aging included (see
+ * {@link PriorityRules}). Submissions failing with a non-critical error (eg. rejected while the
+ * WPS is overloaded) are queued again, keeping their rank.
+ */
+class SubmissionQueue
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   // period of the dispatcher, in milliseconds
+   private static final long DISPATCH_PERIOD = 50;
+
+   private final TokenBucket bucket;
+   private final int maxOutstanding;
+   private final int capacity;
+   private final PriorityRules priorities;
+   private final IntSupplier outstanding;
+
+   // by rank, then in submission order
+   private final BlockingQueue<Pending> queue = new PriorityBlockingQueue<>(11,
+         Comparator.<Pending>comparingLong(pending -> pending.rank).thenComparingLong(pending -> pending.sequence));
+   private final AtomicLong sequence = new AtomicLong();
+
+   // transformation UUID -> queued or dispatched submission
+   private final Map<String, Pending> submissions = new ConcurrentHashMap<>();
+
+   private final AtomicInteger dispatching = new AtomicInteger();
+   private final ScheduledExecutorService dispatcher;
+   private final ExecutorService workers;
+
+   /**
+    * @param conf        configuration holding the rate, burst, maximum of outstanding executions and
+    *                    priority rules
+    * @param outstanding number of executions outstanding on the WPS
+    */
+   SubmissionQueue(Configuration conf, IntSupplier outstanding)
+   {
+      this(new TokenBucket(conf.getSubmitRate(), conf.getSubmitBurst()), conf.getSubmitMaxOutstanding(),
+            conf.getSubmitQueueSize(), conf.getPriorityRules(), outstanding,
+            ExecutorFactory.newExecutor(Sentinel2L2ATransformer.TRANSFORMER_NAME + "-submit",
+                  conf.isVirtualThreads(), conf.getMaxConcurrentTasks()));
+   }
+
+   SubmissionQueue(TokenBucket bucket, int maxOutstanding, int capacity, PriorityRules priorities,
+         IntSupplier outstanding)
+   {
+      this(bucket, maxOutstanding, capacity, priorities, outstanding,
+            ExecutorFactory.newExecutor(Sentinel2L2ATransformer.TRANSFORMER_NAME + "-submit", false, 0));
+   }
+
+   /**
+    * @param workers runs the blocking WPS execution requests
+    */
+   SubmissionQueue(TokenBucket bucket, int maxOutstanding, int capacity, PriorityRules priorities,
+         IntSupplier outstanding, ExecutorService workers)
+   {
+      this.bucket = bucket;
+      this.maxOutstanding = maxOutstanding;
+      this.capacity = capacity;
+      this.priorities = priorities;
+      this.outstanding = outstanding;
+
+      this.dispatcher = Executors.newSingleThreadScheduledExecutor(
+            runnable -> newThread(runnable, "-submit-dispatcher"));
+      this.workers = workers;
+      dispatcher.scheduleWithFixedDelay(this::dispatch, DISPATCH_PERIOD, DISPATCH_PERIOD, TimeUnit.MILLISECONDS);
+   }
+
+   private static Thread newThread(Runnable runnable, String suffix)
+   {
+      Thread thread = new Thread(runnable, Sentinel2L2ATransformer.TRANSFORMER_NAME + suffix);
+      thread.setDaemon(true);
+      return thread;
+   }
+
+   /**
+    * Queues the submission of a transformation.
+    *
+    * @param uuid       transformation UUID
+    * @param priority   priority of the transformation
+    * @param submission performs the WPS execution request once dispatched
+    * @return false if the queue is full
+    */
+   boolean enqueue(String uuid, int priority, SubmissionRegistry.Submission submission)
+   {
+      if (queue.size() >= capacity)
+      {
+         return false;
+      }
+      Pending pending = new Pending(uuid, priorities.rank(priority), sequence.incrementAndGet(), submission);
+      submissions.put(uuid, pending);
+      queue.offer(pending);
+      return true;
+   }
+
+   /**
+    * Returns the execution of a queued transformation, not completed until it is dispatched.
+    *
+    * @return the execution, or null if the transformation is unknown (eg. after a restart)
+    */
+   CompletableFuture<ProcessExec> get(String uuid)
+   {
+      Pending pending = submissions.get(uuid);
+      return pending == null ? null : pending.execution;
+   }
+
+   /**
+    * Forgets a transformation, cancelling its submission if it is still queued.
+    */
+   void forget(String uuid)
+   {
+      Pending pending = submissions.remove(uuid);
+      if (pending != null && queue.remove(pending))
+      {
+         pending.execution.cancel(false);
+      }
+   }
+
+   int getQueuedCount()
+   {
+      return queue.size();
+   }
+
+   int getDispatchingCount()
+   {
+      return dispatching.get();
+   }
+
+   private void dispatch()
+   {
+      while (!queue.isEmpty()
+            && (maxOutstanding <= 0 || outstanding.getAsInt() + dispatching.get() < maxOutstanding)
+            && bucket.tryAcquire())
+      {
+         Pending pending = queue.poll();
+         if (pending == null)
+         {
+            return;
+         }
+         dispatching.incrementAndGet();
+         try
+         {
+            workers.execute(() -> submit(pending));
+         }
+         catch (RuntimeException e)
+         {
+            dispatching.decrementAndGet();
+            pending.execution.completeExceptionally(e);
+         }
+      }
+   }
+
+   private void submit(Pending pending)
+   {
+      try
+      {
+         pending.execution.complete(pending.submission.submit());
+      }
+      catch (NonCriticalWPSException e)
+      {
+         LOGGER.debug("Submission of Transformation '{}' rejected, queued again: {}", pending.uuid, e.getMessage());
+         if (submissions.get(pending.uuid) == pending)
+         {
+            queue.offer(pending);
+         }
+      }
+      catch (WPSException | RuntimeException e)
+      {
+         pending.execution.completeExceptionally(e);
+      }
+      finally
+      {
+         dispatching.decrementAndGet();
+      }
+   }
+
+   private static final class Pending
+   {
+      private final String uuid;
+      private final long rank;
+      private final long sequence;
+      private final SubmissionRegistry.Submission submission;
+      private final CompletableFuture<ProcessExec> execution = new CompletableFuture<>();
+
+      private Pending(String uuid, long rank, long sequence, SubmissionRegistry.Submission submission)
+      {
+         this.uuid = uuid;
+         this.rank = rank;
+         this.sequence = sequence;
+         this.submission = submission;
+      }
+   }
+}
@@ -0,0 +1,225 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.WPSException;
+
+/**
+ * Registry of in-flight WPS executions, so that transformations producing the same output share
+ * a single remote execution.
+ */
+class SubmissionRegistry
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   // processing key -> in-flight execution
+   private final Map<ProcessingKey, InFlight> executions = new ConcurrentHashMap<>();
+
+   // transformation UUID -> execution it is attached to
+   private final Map<String, InFlight> transformations = new ConcurrentHashMap<>();
+
+   /**
+    * Submission of a new WPS execution.
+    */
+   @FunctionalInterface
+   interface Submission
+   {
+      ProcessExec submit() throws WPSException;
+   }
+
+   /**
+    * Attaches a transformation to the in-flight execution of the given key, the submission is only
+    * performed if no such execution exists.
+    *
+    * @param uuid       transformation UUID
+    * @param key        processing key
+    * @param submission performs the WPS execution request
+    * @return the in-flight execution
+    * @throws WPSException if the submission failed
+    */
+   ProcessExec submit(String uuid, ProcessingKey key, Submission submission) throws WPSException
+   {
+      InFlight created = new InFlight(key);
+      InFlight inFlight = executions.compute(key, (k, existing) ->
+      {
+         InFlight execution = existing != null ? existing : created;
+         execution.transformations.add(uuid);
+         return execution;
+      });
+      transformations.put(uuid, inFlight);
+
+      if (inFlight == created)
+      {
+         try
+         {
+            created.execution.complete(submission.submit());
+         }
+         catch (WPSException | RuntimeException e)
+         {
+            created.execution.completeExceptionally(e);
+            executions.remove(key, created);
+         }
+      }
+      else
+      {
+         LOGGER.info("Transformation '{}' attached to in-flight execution of {}", uuid, key);
+      }
+      return await(uuid, inFlight);
+   }
+
+   /**
+    * Attaches a transformation to the in-flight execution of the given key, if any, without
+    * waiting for its submission. The caller detaches the transformation if the submission fails.
+    *
+    * @param uuid transformation UUID
+    * @param key  processing key
+    * @return the submission of the in-flight execution, or null if none exists
+    */
+   CompletableFuture<ProcessExec> attach(String uuid, ProcessingKey key)
+   {
+      InFlight inFlight = executions.computeIfPresent(key, (k, existing) ->
+      {
+         existing.transformations.add(uuid);
+         return existing;
+      });
+      if (inFlight == null)
+      {
+         return null;
+      }
+      transformations.put(uuid, inFlight);
+      LOGGER.info("Transformation '{}' attached to in-flight execution of {}", uuid, key);
+      return inFlight.execution;
+   }
+
+   /**
+    * Waits for the submission of the execution a transformation is attached to, detaching it if
+    * the submission failed.
+    */
+   private ProcessExec await(String uuid, InFlight inFlight) throws WPSException
+   {
+      ProcessingKey key = inFlight.key;
+      try
+      {
+         return inFlight.execution.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         release(uuid);
+         throw new WPSException("Interrupted while waiting for the submission of " + key, e);
+      }
+      catch (ExecutionException e)
+      {
+         release(uuid);
+         if (e.getCause() instanceof WPSException)
+         {
+            throw (WPSException) e.getCause();
+         }
+         throw new WPSException("Could not submit execution of " + key, e.getCause());
+      }
+   }
+
+   /**
+    * Returns the processing key of a transformation, or null if unknown.
+    */
+   ProcessingKey getKey(String uuid)
+   {
+      InFlight inFlight = transformations.get(uuid);
+      return inFlight == null ? null : inFlight.key;
+   }
+
+   /**
+    * Detaches a transformation, the in-flight execution is forgotten once no transformation
+    * references it anymore.
+    */
+   void release(String uuid)
+   {
+      InFlight inFlight = transformations.remove(uuid);
+      if (inFlight != null)
+      {
+         inFlight.transformations.remove(uuid);
+         executions.computeIfPresent(inFlight.key, (k, current) ->
+               current == inFlight && inFlight.transformations.isEmpty() ? null : current);
+      }
+   }
+
+   /**
+    * Forgets the in-flight execution of a transformation (eg. failed remotely) so that the next
+    * submission of the same key starts a new execution. A newer execution of the same key is
+    * kept.
+    */
+   void evict(String uuid)
+   {
+      InFlight inFlight = transformations.remove(uuid);
+      if (inFlight != null)
+      {
+         executions.remove(inFlight.key, inFlight);
+      }
+   }
+
+   /**
+    * Forgets the execution of a transformation once it succeeded or failed remotely, so that the
+    * next submission of the same key starts a new execution rather than attaching to one whose
+    * status or output may have expired. The transformation stays attached, its key is still known.
+    */
+   void finished(String uuid)
+   {
+      InFlight inFlight = transformations.get(uuid);
+      if (inFlight != null)
+      {
+         executions.remove(inFlight.key, inFlight);
+      }
+   }
+
+   /**
+    * Returns true if an execution of the given key is in flight.
+    */
+   boolean isInFlight(ProcessingKey key)
+   {
+      return executions.containsKey(key);
+   }
+
+   int getInFlightCount()
+   {
+      return executions.size();
+   }
+
+   private static final class InFlight
+   {
+      private final ProcessingKey key;
+      private final CompletableFuture<ProcessExec> execution = new CompletableFuture<>();
+      private final Set<String> transformations = ConcurrentHashMap.newKeySet();
+
+      private InFlight(ProcessingKey key)
+      {
+         this.key = key;
+      }
+   }
+}
@@ -0,0 +1,238 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Two storage tiers for result products: products are downloaded and extracted on a fast scratch
+ * directory (the tmp directory), then promoted in background to the bulk data directory.
+ * <p>
+ * Promotion is an atomic rename when both directories are on the same file system, and a copy
+ * followed by an atomic rename in the data directory otherwise, so that products are never seen
+ * partially written in the data directory.
+ * <p>
+ * The usage of the scratch directory is tracked, new downloads wait while it exceeds the
+ * configured maximum size.
+ */
+class TieredStorage
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   // promotions are I/O bound, a few threads are enough
+   private static final int PROMOTION_THREADS = 2;
+
+   private final Path scratchDirectory;
+   private final Path dataDirectory;
+   private final boolean tiered;
+   private final long maxScratchSize;
+
+   // a lock rather than a monitor, waiting downloads may run on virtual threads
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition freed = lock.newCondition();
+
+   // guarded by lock
+   private long scratchUsed = 0;
+
+   private final AtomicInteger promoting = new AtomicInteger();
+   private final ExecutorService promoter;
+
+   TieredStorage(Configuration conf) throws IOException
+   {
+      this(conf.getTmpDirectory(), conf.getDataDirectory(), conf.getTmpMaxSize());
+   }
+
+   TieredStorage(Path scratchDirectory, Path dataDirectory, long maxScratchSize) throws IOException
+   {
+      this.scratchDirectory = scratchDirectory;
+      this.dataDirectory = dataDirectory;
+      this.maxScratchSize = maxScratchSize;
+      Files.createDirectories(scratchDirectory);
+      Files.createDirectories(dataDirectory);
+      this.tiered = !Files.isSameFile(scratchDirectory, dataDirectory);
+
+      this.promoter = Executors.newFixedThreadPool(PROMOTION_THREADS, runnable ->
+      {
+         Thread thread = new Thread(runnable, Sentinel2L2ATransformer.TRANSFORMER_NAME + "-promote");
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   Path getScratchDirectory()
+   {
+      return scratchDirectory;
+   }
+
+   Path getDataDirectory()
+   {
+      return dataDirectory;
+   }
+
+   /**
+    * Waits while the scratch directory is full, unless it is empty so that a product larger than
+    * the maximum size can still be processed.
+    */
+   void awaitScratchSpace() throws InterruptedException
+   {
+      lock.lock();
+      try
+      {
+         while (maxScratchSize > 0 && scratchUsed > 0 && scratchUsed >= maxScratchSize)
+         {
+            freed.await();
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Accounts for a file written in the scratch directory.
+    */
+   void allocate(long bytes)
+   {
+      lock.lock();
+      try
+      {
+         scratchUsed += bytes;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Accounts for a file removed from the scratch directory.
+    */
+   void free(long bytes)
+   {
+      lock.lock();
+      try
+      {
+         scratchUsed = Math.max(0, scratchUsed - bytes);
+         freed.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   long getScratchUsed()
+   {
+      lock.lock();
+      try
+      {
+         return scratchUsed;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   long getMaxScratchSize()
+   {
+      return maxScratchSize;
+   }
+
+   int getPromotingCount()
+   {
+      return promoting.get();
+   }
+
+   /**
+    * Promotes a product of the scratch directory, allocated beforehand, to the data directory.
+    *
+    * @return a future completed with the final location of the product
+    */
+   CompletableFuture<Path> promote(Path product) throws IOException
+   {
+      long size = Files.size(product);
+      if (!tiered)
+      {
+         free(size);
+         return CompletableFuture.completedFuture(product);
+      }
+
+      promoting.incrementAndGet();
+      return CompletableFuture.supplyAsync(() ->
+      {
+         try
+         {
+            return move(product, dataDirectory.resolve(product.getFileName()));
+         }
+         catch (IOException e)
+         {
+            throw new CompletionException(e);
+         }
+         finally
+         {
+            promoting.decrementAndGet();
+            free(size);
+         }
+      }, promoter);
+   }
+
+   private static Path move(Path source, Path target) throws IOException
+   {
+      long start = System.currentTimeMillis();
+      try
+      {
+         Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         LOGGER.debug("Promoted {} to {} (rename)", source, target);
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+         // different file systems, copied next to the target then renamed
+         Path part = target.resolveSibling(target.getFileName() + ".part");
+         try
+         {
+            Files.copy(source, part, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         }
+         finally
+         {
+            Files.deleteIfExists(part);
+         }
+         Files.delete(source);
+         LOGGER.debug("Promoted {} to {} (copy in {} ms)", source, target, System.currentTimeMillis() - start);
+      }
+      return target;
+   }
+}
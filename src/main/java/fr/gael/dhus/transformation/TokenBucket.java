@@ -0,0 +1,123 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter: tokens are added at a constant rate up to the capacity of the bucket,
+ * which bounds the size of bursts. A non positive rate disables the limitation.
+ */
+class TokenBucket
+{
+   private final LongSupplier clock;
+
+   // guarded by this
+   private double tokensPerNano;
+   private double capacity;
+   private double tokens;
+   private long refilled;
+
+   TokenBucket(double tokensPerSecond, int capacity)
+   {
+      this(tokensPerSecond, capacity, System::nanoTime);
+   }
+
+   TokenBucket(double tokensPerSecond, int capacity, LongSupplier clock)
+   {
+      this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+      this.capacity = Math.max(1, capacity);
+      this.clock = clock;
+      this.tokens = this.capacity;
+      this.refilled = clock.getAsLong();
+   }
+
+   /**
+    * Takes a token if one is available.
+    *
+    * @return false if the bucket is empty
+    */
+   synchronized boolean tryAcquire()
+   {
+      if (tokensPerNano <= 0)
+      {
+         return true;
+      }
+      refill();
+      if (tokens < 1)
+      {
+         return false;
+      }
+      tokens--;
+      return true;
+   }
+
+   /**
+    * Takes tokens whether available or not, the bucket may then owe tokens.
+    *
+    * @return nanoseconds to wait until the debt of the bucket is paid off
+    */
+   synchronized long reserve(double count)
+   {
+      if (tokensPerNano <= 0)
+      {
+         return 0;
+      }
+      refill();
+      tokens -= count;
+      return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+   }
+
+   /**
+    * Changes the rate and the capacity of the bucket, tokens in excess of the new capacity are lost.
+    */
+   synchronized void setRate(double tokensPerSecond, int capacity)
+   {
+      if (tokensPerNano > 0)
+      {
+         refill();
+      }
+      this.refilled = clock.getAsLong();
+      this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+      this.capacity = Math.max(1, capacity);
+      this.tokens = Math.min(this.tokens, this.capacity);
+   }
+
+   /**
+    * Returns the number of tokens currently available.
+    */
+   synchronized double getTokens()
+   {
+      if (tokensPerNano <= 0)
+      {
+         return capacity;
+      }
+      refill();
+      return tokens;
+   }
+
+   private void refill()
+   {
+      long now = clock.getAsLong();
+      tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+      refilled = now;
+   }
+}
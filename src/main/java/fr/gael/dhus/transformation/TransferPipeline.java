@@ -0,0 +1,326 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies a stream into a file.
+ * <p>
+ * In pipelined mode, the caller thread reads the source into direct buffers taken from a shared
+ * pool, and a writer thread writes them into the file. Both stages are connected by a bounded ring
+ * of buffers, so that network and disk I/O overlap. Otherwise, the caller thread alternately reads
+ * and writes using a heap buffer.
+ */
+class TransferPipeline
+{
+   // marks the end of the source in the ring
+   private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+   /**
+    * Notified of the progress of a copy.
+    */
+   @FunctionalInterface
+   interface Progress
+   {
+      /**
+       * @param written number of bytes written so far
+       */
+      void written(long written) throws IOException;
+   }
+
+   private final boolean pipelined;
+   private final int bufferSize;
+   private final int bufferCount;
+   private final int depth;
+
+   // shared pool of direct buffers, allocated on demand up to bufferCount
+   private final BlockingQueue<ByteBuffer> pool = new LinkedBlockingQueue<>();
+   private final AtomicInteger allocated = new AtomicInteger();
+
+   // not bounded, a reader waits for its writer
+   private final ExecutorService writers;
+
+   TransferPipeline(Configuration conf)
+   {
+      this(conf.isDownloadPipelined(), conf.getDownloadBufferSize(), conf.getDownloadBufferCount(),
+            conf.getDownloadPipelineDepth(), conf.isVirtualThreads());
+   }
+
+   TransferPipeline(boolean pipelined, int bufferSize, int bufferCount, int depth)
+   {
+      this(pipelined, bufferSize, bufferCount, depth, false);
+   }
+
+   TransferPipeline(boolean pipelined, int bufferSize, int bufferCount, int depth, boolean virtualThreads)
+   {
+      this.writers = ExecutorFactory.newExecutor(Sentinel2L2ATransformer.TRANSFORMER_NAME + "-writer",
+            virtualThreads, 0);
+      this.pipelined = pipelined;
+      this.bufferSize = bufferSize;
+      this.depth = Math.max(1, depth);
+      this.bufferCount = Math.max(this.depth + 1, bufferCount);
+   }
+
+   boolean isPipelined()
+   {
+      return pipelined;
+   }
+
+   /**
+    * Copies a source into a file, starting at the given file position.
+    *
+    * @param source   channel to read
+    * @param target   file to write
+    * @param position position of the first byte in the file
+    * @param maxBytes maximum number of bytes to copy, or -1 to copy until the end of the source
+    * @param progress notified after each write
+    * @return number of bytes copied
+    */
+   long copy(ReadableByteChannel source, FileChannel target, long position, long maxBytes, Progress progress)
+         throws IOException
+   {
+      long limit = maxBytes < 0 ? Long.MAX_VALUE : maxBytes;
+      return pipelined
+            ? copyPipelined(source, target, position, limit, progress)
+            : copySequential(source, target, position, limit, progress);
+   }
+
+   private long copySequential(ReadableByteChannel source, FileChannel target, long position, long limit,
+         Progress progress) throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+      long copied = 0;
+      while (copied < limit)
+      {
+         buffer.clear();
+         buffer.limit((int) Math.min(buffer.capacity(), limit - copied));
+         if (source.read(buffer) == -1)
+         {
+            break;
+         }
+         buffer.flip();
+         copied += write(target, buffer, position + copied);
+         progress.written(copied);
+      }
+      return copied;
+   }
+
+   private long copyPipelined(ReadableByteChannel source, FileChannel target, long position, long limit,
+         Progress progress) throws IOException
+   {
+      BlockingQueue<ByteBuffer> ring = new ArrayBlockingQueue<>(depth);
+
+      // writer stage, stops on the END marker
+      Future<Long> writer = writers.submit(() ->
+      {
+         long written = 0;
+         ByteBuffer buffer;
+         while ((buffer = ring.take()) != END)
+         {
+            try
+            {
+               written += write(target, buffer, position + written);
+            }
+            finally
+            {
+               release(buffer);
+            }
+            progress.written(written);
+         }
+         return written;
+      });
+
+      // reader stage
+      IOException failure = null;
+      boolean interrupted = false;
+      try
+      {
+         long read = 0;
+         boolean eof = false;
+         while (!eof && read < limit)
+         {
+            ByteBuffer buffer = acquire();
+            buffer.limit((int) Math.min(buffer.capacity(), limit - read));
+            // fill the buffer to write large blocks
+            while (buffer.hasRemaining())
+            {
+               if (source.read(buffer) == -1)
+               {
+                  eof = true;
+                  break;
+               }
+            }
+            buffer.flip();
+            read += buffer.remaining();
+            if (!buffer.hasRemaining())
+            {
+               release(buffer);
+            }
+            else if (!enqueue(ring, buffer, writer))
+            {
+               // writer failed
+               break;
+            }
+         }
+      }
+      catch (IOException e)
+      {
+         failure = e;
+      }
+      catch (InterruptedException e)
+      {
+         interrupted = true;
+         failure = new InterruptedIOException("Interrupted while reading source");
+      }
+
+      // the writer is never interrupted as it would close the target channel
+      try
+      {
+         boolean ended = false;
+         while (!ended)
+         {
+            try
+            {
+               enqueue(ring, END, writer);
+               ended = true;
+            }
+            catch (InterruptedException e)
+            {
+               interrupted = true;
+            }
+         }
+
+         while (true)
+         {
+            try
+            {
+               long written = writer.get();
+               if (failure != null)
+               {
+                  throw failure;
+               }
+               return written;
+            }
+            catch (InterruptedException e)
+            {
+               interrupted = true;
+            }
+         }
+      }
+      catch (ExecutionException e)
+      {
+         if (failure != null)
+         {
+            throw failure;
+         }
+         if (e.getCause() instanceof IOException)
+         {
+            throw (IOException) e.getCause();
+         }
+         throw new IOException("Cannot write " + target, e.getCause());
+      }
+      finally
+      {
+         drain(ring);
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Puts a buffer in the ring, unless the writer stopped.
+    *
+    * @return false if the writer stopped, the buffer is then released
+    */
+   private boolean enqueue(BlockingQueue<ByteBuffer> ring, ByteBuffer buffer, Future<Long> writer)
+         throws InterruptedException
+   {
+      while (!ring.offer(buffer, 100, TimeUnit.MILLISECONDS))
+      {
+         if (writer.isDone())
+         {
+            release(buffer);
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static long write(FileChannel target, ByteBuffer buffer, long position) throws IOException
+   {
+      long written = 0;
+      while (buffer.hasRemaining())
+      {
+         written += target.write(buffer, position + written);
+      }
+      return written;
+   }
+
+   private ByteBuffer acquire() throws InterruptedException
+   {
+      ByteBuffer buffer = pool.poll();
+      if (buffer == null)
+      {
+         if (allocated.incrementAndGet() <= bufferCount)
+         {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+         }
+         else
+         {
+            allocated.decrementAndGet();
+            buffer = pool.take();
+         }
+      }
+      buffer.clear();
+      return buffer;
+   }
+
+   private void release(ByteBuffer buffer)
+   {
+      if (buffer != END)
+      {
+         pool.offer(buffer);
+      }
+   }
+
+   private void drain(BlockingQueue<ByteBuffer> ring)
+   {
+      ByteBuffer buffer;
+      while ((buffer = ring.poll()) != null)
+      {
+         release(buffer);
+      }
+   }
+}
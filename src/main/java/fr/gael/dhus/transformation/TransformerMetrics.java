@@ -0,0 +1,423 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.webprocess.CircuitBreaker;
+import fr.gael.dhus.webprocess.HttpClientPool;
+import fr.gael.dhus.webprocess.LatencyHistogram;
+import fr.gael.dhus.webprocess.RetryPolicy;
+import fr.gael.dhus.webprocess.WpsMetrics;
+import fr.gael.dhus.webprocess.WpsMetrics.RequestType;
+
+/**
+ * Gathers the metrics of the transformer components, registered in the platform MBean server.
+ */
+class TransformerMetrics implements TransformerMetricsMXBean
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   static final String OBJECT_NAME = "fr.gael.dhus:type=Transformer,name=" + Sentinel2L2ATransformer.TRANSFORMER_NAME;
+
+   private final Sentinel2L2ATransformer transformer;
+   private final DownloadManager downloadManager;
+   private final StatusPoller statusPoller;
+
+   TransformerMetrics(Sentinel2L2ATransformer transformer, DownloadManager downloadManager, StatusPoller statusPoller)
+   {
+      this.transformer = transformer;
+      this.downloadManager = downloadManager;
+      this.statusPoller = statusPoller;
+   }
+
+   /**
+    * Registers the metrics, replacing the ones of a previous initialization if any.
+    */
+   void register()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+         server.registerMBean(this, name);
+      }
+      catch (JMException e)
+      {
+         LOGGER.warn("Could not register transformer metrics", e);
+      }
+   }
+
+   private static <T> Map<String, T> perRequestType(Function<LatencyHistogram, T> metric)
+   {
+      Map<String, T> values = new LinkedHashMap<>();
+      for (RequestType type: RequestType.values())
+      {
+         values.put(type.name(), metric.apply(WpsMetrics.getInstance().getLatency(type)));
+      }
+      return values;
+   }
+
+   @Override
+   public boolean isReady()
+   {
+      return transformer.isReady();
+   }
+
+   @Override
+   public long getCapabilitiesAge()
+   {
+      return transformer.getCapabilitiesAge();
+   }
+
+   @Override
+   public Map<String, Long> getWpsRequestCount()
+   {
+      return perRequestType(LatencyHistogram::getCount);
+   }
+
+   @Override
+   public Map<String, Double> getWpsLatencyMean()
+   {
+      return perRequestType(LatencyHistogram::getMean);
+   }
+
+   @Override
+   public Map<String, Long> getWpsLatencyP50()
+   {
+      return perRequestType(histogram -> histogram.getPercentile(50));
+   }
+
+   @Override
+   public Map<String, Long> getWpsLatencyP95()
+   {
+      return perRequestType(histogram -> histogram.getPercentile(95));
+   }
+
+   @Override
+   public Map<String, Long> getWpsLatencyP99()
+   {
+      return perRequestType(histogram -> histogram.getPercentile(99));
+   }
+
+   @Override
+   public Map<String, Long> getWpsLatencyMax()
+   {
+      return perRequestType(LatencyHistogram::getMax);
+   }
+
+   @Override
+   public Map<String, Long> wpsLatencyHistogram(String requestType)
+   {
+      return WpsMetrics.getInstance().getLatency(RequestType.valueOf(requestType)).getBuckets();
+   }
+
+   @Override
+   public long getWpsRetryCount()
+   {
+      return RetryPolicy.getInstance().getRetryCount();
+   }
+
+   @Override
+   public long getWpsRetryExhaustedCount()
+   {
+      return RetryPolicy.getInstance().getExhaustedCount();
+   }
+
+   @Override
+   public long getWpsGatewayTimeoutCount()
+   {
+      return WpsMetrics.getInstance().getGatewayTimeoutCount();
+   }
+
+   @Override
+   public long getWpsTimeoutCount()
+   {
+      return WpsMetrics.getInstance().getTimeoutCount();
+   }
+
+   @Override
+   public long getWpsErrorCount()
+   {
+      return WpsMetrics.getInstance().getErrorCount();
+   }
+
+   @Override
+   public long getWpsCircuitRejectedCount()
+   {
+      return CircuitBreaker.getAll().values().stream().mapToLong(CircuitBreaker::getRejectedCount).sum();
+   }
+
+   @Override
+   public Map<String, String> getWpsCircuitStates()
+   {
+      Map<String, String> states = new LinkedHashMap<>();
+      CircuitBreaker.getAll().forEach((endpoint, breaker) -> states.put(endpoint, breaker.getState().name()));
+      return states;
+   }
+
+   @Override
+   public Map<String, String> getWpsEndpoints()
+   {
+      EndpointRouter router = transformer.getRouter();
+      return router == null ? new LinkedHashMap<>() : router.describe();
+   }
+
+   @Override
+   public int getHttpLeasedConnections()
+   {
+      return HttpClientPool.getInstance().getLeasedConnections();
+   }
+
+   @Override
+   public int getHttpAvailableConnections()
+   {
+      return HttpClientPool.getInstance().getAvailableConnections();
+   }
+
+   @Override
+   public double getDownloadThroughput()
+   {
+      return downloadManager.getThroughput();
+   }
+
+   @Override
+   public long getDownloadedBytes()
+   {
+      return downloadManager.getTransferredBytes();
+   }
+
+   @Override
+   public long getDownloadBandwidthLimit()
+   {
+      return downloadManager.getBandwidthLimiter().getLimit();
+   }
+
+   @Override
+   public long getDownloadBandwidthDay()
+   {
+      return downloadManager.getBandwidthLimiter().getDayLimit();
+   }
+
+   @Override
+   public void setDownloadBandwidthDay(long limit)
+   {
+      downloadManager.getBandwidthLimiter().setDayLimit(limit);
+      LOGGER.info("Download bandwidth limit of the day set to {} B/s", limit);
+   }
+
+   @Override
+   public long getDownloadBandwidthNight()
+   {
+      return downloadManager.getBandwidthLimiter().getNightLimit();
+   }
+
+   @Override
+   public void setDownloadBandwidthNight(long limit)
+   {
+      downloadManager.getBandwidthLimiter().setNightLimit(limit);
+      LOGGER.info("Download bandwidth limit of the night set to {} B/s", limit);
+   }
+
+   @Override
+   public boolean isDownloadBandwidthFair()
+   {
+      return downloadManager.getBandwidthLimiter().isFair();
+   }
+
+   @Override
+   public void setDownloadBandwidthFair(boolean fair)
+   {
+      downloadManager.getBandwidthLimiter().setFair(fair);
+   }
+
+   @Override
+   public int getDownloadQueueDepth()
+   {
+      return downloadManager.getQueueDepth();
+   }
+
+   @Override
+   public int getActiveDownloads()
+   {
+      return downloadManager.getActiveCount();
+   }
+
+   @Override
+   public int getDownloadConcurrency()
+   {
+      return downloadManager.getConcurrency();
+   }
+
+   @Override
+   public long getCompletedDownloads()
+   {
+      return downloadManager.getCompletedCount();
+   }
+
+   @Override
+   public long getFailedDownloads()
+   {
+      return downloadManager.getFailedCount();
+   }
+
+   @Override
+   public long getCorruptDownloads()
+   {
+      return downloadManager.getCorruptCount();
+   }
+
+   @Override
+   public double getDownloadDurationMean()
+   {
+      return downloadManager.getDurations().getMean();
+   }
+
+   @Override
+   public long getDownloadDurationP50()
+   {
+      return downloadManager.getDurations().getPercentile(50);
+   }
+
+   @Override
+   public long getDownloadDurationP95()
+   {
+      return downloadManager.getDurations().getPercentile(95);
+   }
+
+   @Override
+   public long getDownloadDurationMax()
+   {
+      return downloadManager.getDurations().getMax();
+   }
+
+   @Override
+   public long getScratchUsedBytes()
+   {
+      return downloadManager.getScratchUsed();
+   }
+
+   @Override
+   public long getScratchMaxBytes()
+   {
+      return downloadManager.getScratchMaxSize();
+   }
+
+   @Override
+   public int getPromotingProducts()
+   {
+      return downloadManager.getPromotingCount();
+   }
+
+   @Override
+   public long getOutputUsedBytes()
+   {
+      return downloadManager.getOutputSize();
+   }
+
+   @Override
+   public long getOutputMaxBytes()
+   {
+      return downloadManager.getOutputMaxSize();
+   }
+
+   @Override
+   public long getEvictedProducts()
+   {
+      return downloadManager.getEvictedCount();
+   }
+
+   @Override
+   public Map<String, Long> getDownloadDurationHistogram()
+   {
+      return downloadManager.getDurations().getBuckets();
+   }
+
+   @Override
+   public int getTrackedExecutions()
+   {
+      return statusPoller.getTrackedExecutions();
+   }
+
+   @Override
+   public long getTypicalExecutionDuration()
+   {
+      return statusPoller.getTypicalDuration();
+   }
+
+   @Override
+   public Map<String, Long> transformationPolling(String uuid)
+   {
+      Map<String, Long> polling = statusPoller.getPolling(uuid);
+      return polling == null ? Collections.emptyMap() : polling;
+   }
+
+   @Override
+   public int getStatusQueriesInFlight()
+   {
+      return statusPoller.getInFlightCount();
+   }
+
+   @Override
+   public int getQueuedSubmissions()
+   {
+      SubmissionQueue queue = transformer.getSubmissionQueue();
+      return queue == null ? 0 : queue.getQueuedCount();
+   }
+
+   @Override
+   public int getDispatchingSubmissions()
+   {
+      SubmissionQueue queue = transformer.getSubmissionQueue();
+      return queue == null ? 0 : queue.getDispatchingCount();
+   }
+
+   @Override
+   public int getOutstandingExecutions()
+   {
+      EndpointRouter router = transformer.getRouter();
+      return router == null ? 0 : router.getOutstanding();
+   }
+
+   @Override
+   public Map<String, Integer> getTrackedTransformations()
+   {
+      Map<String, Integer> counts = new LinkedHashMap<>();
+      statusPoller.countTransformationsByStatus().forEach((status, count) ->
+            counts.put(status == null ? "PENDING" : status.name(), count));
+      counts.put("DOWNLOADING", downloadManager.getTransformationCount());
+      return counts;
+   }
+}
@@ -0,0 +1,173 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.Map;
+
+/**
+ * Metrics of the L2A transformer, exposed over JMX.
+ * <p>
+ * Latencies and durations are in milliseconds, WPS request types are GET_CAPABILITIES, EXECUTE
+ * and STATUS. The download bandwidth limits are writable, bandwidths are in bytes per second.
+ */
+public interface TransformerMetricsMXBean
+{
+   // readiness
+
+   boolean isReady();
+
+   /**
+    * Returns the age of the loaded WPS capabilities, -1 if not loaded yet.
+    */
+   long getCapabilitiesAge();
+
+   // WPS queries
+
+   Map<String, Long> getWpsRequestCount();
+
+   Map<String, Double> getWpsLatencyMean();
+
+   Map<String, Long> getWpsLatencyP50();
+
+   Map<String, Long> getWpsLatencyP95();
+
+   Map<String, Long> getWpsLatencyP99();
+
+   Map<String, Long> getWpsLatencyMax();
+
+   /**
+    * Returns the latency histogram of a WPS request type.
+    */
+   Map<String, Long> wpsLatencyHistogram(String requestType);
+
+   long getWpsRetryCount();
+
+   long getWpsRetryExhaustedCount();
+
+   long getWpsGatewayTimeoutCount();
+
+   long getWpsTimeoutCount();
+
+   long getWpsErrorCount();
+
+   long getWpsCircuitRejectedCount();
+
+   Map<String, String> getWpsCircuitStates();
+
+   /**
+    * Returns the routing state of each WPS endpoint: weight, circuit, outstanding executions,
+    * latency and error rate.
+    */
+   Map<String, String> getWpsEndpoints();
+
+   int getHttpLeasedConnections();
+
+   int getHttpAvailableConnections();
+
+   // downloads
+
+   double getDownloadThroughput();
+
+   long getDownloadedBytes();
+
+   /**
+    * Returns the download bandwidth limit in effect, 0 if unlimited.
+    */
+   long getDownloadBandwidthLimit();
+
+   long getDownloadBandwidthDay();
+
+   void setDownloadBandwidthDay(long limit);
+
+   long getDownloadBandwidthNight();
+
+   void setDownloadBandwidthNight(long limit);
+
+   boolean isDownloadBandwidthFair();
+
+   void setDownloadBandwidthFair(boolean fair);
+
+   int getDownloadQueueDepth();
+
+   int getActiveDownloads();
+
+   int getDownloadConcurrency();
+
+   long getCompletedDownloads();
+
+   long getFailedDownloads();
+
+   /**
+    * Returns the number of results whose size or checksums did not match, downloaded again.
+    */
+   long getCorruptDownloads();
+
+   double getDownloadDurationMean();
+
+   long getDownloadDurationP50();
+
+   long getDownloadDurationP95();
+
+   long getDownloadDurationMax();
+
+   long getScratchUsedBytes();
+
+   long getScratchMaxBytes();
+
+   int getPromotingProducts();
+
+   long getOutputUsedBytes();
+
+   long getOutputMaxBytes();
+
+   long getEvictedProducts();
+
+   Map<String, Long> getDownloadDurationHistogram();
+
+   // transformations
+
+   int getTrackedExecutions();
+
+   /**
+    * Returns the typical duration of the WPS executions, learnt from the completed ones, 0 if
+    * unknown.
+    */
+   long getTypicalExecutionDuration();
+
+   /**
+    * Returns the latest progression, next poll time and estimated completion time of the
+    * execution of a transformation, times in milliseconds since the epoch.
+    */
+   Map<String, Long> transformationPolling(String uuid);
+
+   int getStatusQueriesInFlight();
+
+   int getQueuedSubmissions();
+
+   int getDispatchingSubmissions();
+
+   int getOutstandingExecutions();
+
+   /**
+    * Returns the number of tracked transformations per WPS execution status, PENDING for
+    * executions not polled yet and DOWNLOADING for results being downloaded.
+    */
+   Map<String, Integer> getTrackedTransformations();
+}
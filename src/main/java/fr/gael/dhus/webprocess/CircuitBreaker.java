@@ -0,0 +1,183 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.transformation.Configuration;
+
+/**
+ * Circuit breaker of a Web Process Service endpoint.
+ * <p>
+ * The circuit opens after a number of consecutive failures, queries then fail fast without
+ * reaching the endpoint. Once the open duration has elapsed, the circuit is half-open: a single
+ * probe query is let through, closing the circuit if it succeeds or opening it again otherwise.
+ */
+public final class CircuitBreaker
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   // endpoint (scheme://host:port) -> circuit breaker
+   private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+   public enum State
+   {
+      CLOSED, OPEN, HALF_OPEN
+   }
+
+   /**
+    * Returns the circuit breaker of the endpoint serving the given URL.
+    */
+   public static CircuitBreaker forEndpoint(URL url)
+   {
+      String endpoint = url.getProtocol() + "://" + url.getAuthority();
+      return BREAKERS.computeIfAbsent(endpoint, key -> new CircuitBreaker(key,
+            Configuration.getInstance().getBreakerFailureThreshold(),
+            Configuration.getInstance().getBreakerOpenDuration(), System::currentTimeMillis));
+   }
+
+   public static Map<String, CircuitBreaker> getAll()
+   {
+      return Collections.unmodifiableMap(BREAKERS);
+   }
+
+   private final String endpoint;
+   private final int failureThreshold;
+   private final long openDuration;
+   private final LongSupplier clock;
+
+   private State state = State.CLOSED;
+   private int consecutiveFailures = 0;
+   private long openedAt = 0;
+   private boolean probing = false;
+
+   private final LongAdder failures = new LongAdder();
+   private final LongAdder rejections = new LongAdder();
+   private final LongAdder openings = new LongAdder();
+
+   CircuitBreaker(String endpoint, int failureThreshold, long openDuration, LongSupplier clock)
+   {
+      this.endpoint = endpoint;
+      this.failureThreshold = Math.max(1, failureThreshold);
+      this.openDuration = openDuration;
+      this.clock = clock;
+   }
+
+   /**
+    * Checks whether a query may be sent to the endpoint.
+    *
+    * @return false if the circuit is open, or half-open with a probe already in flight
+    */
+   public synchronized boolean tryAcquire()
+   {
+      if (state == State.OPEN && clock.getAsLong() - openedAt >= openDuration)
+      {
+         LOGGER.info("Circuit of {} half-open, probing", endpoint);
+         state = State.HALF_OPEN;
+         probing = false;
+      }
+      if (state == State.CLOSED)
+      {
+         return true;
+      }
+      if (state == State.HALF_OPEN && !probing)
+      {
+         probing = true;
+         return true;
+      }
+      rejections.increment();
+      return false;
+   }
+
+   /**
+    * Records a query answered by the endpoint.
+    */
+   public synchronized void onSuccess()
+   {
+      if (state != State.CLOSED)
+      {
+         LOGGER.info("Circuit of {} closed", endpoint);
+      }
+      state = State.CLOSED;
+      consecutiveFailures = 0;
+      probing = false;
+   }
+
+   /**
+    * Gives back a permit obtained from {@link #tryAcquire()} for a query that never reached the
+    * endpoint (malformed URL, request not sent, cancelled), so that a half-open circuit lets
+    * another probe through.
+    */
+   public synchronized void release()
+   {
+      probing = false;
+   }
+
+   /**
+    * Records a query that failed because of the endpoint (unreachable, timeout, server error).
+    */
+   public synchronized void onFailure()
+   {
+      failures.increment();
+      consecutiveFailures++;
+      if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold))
+      {
+         LOGGER.warn("Circuit of {} open for {} ms after {} consecutive failures", endpoint, openDuration,
+               consecutiveFailures);
+         state = State.OPEN;
+         openedAt = clock.getAsLong();
+         probing = false;
+         openings.increment();
+      }
+   }
+
+   public String getEndpoint()
+   {
+      return endpoint;
+   }
+
+   public synchronized State getState()
+   {
+      return state;
+   }
+
+   public long getFailureCount()
+   {
+      return failures.sum();
+   }
+
+   public long getRejectedCount()
+   {
+      return rejections.sum();
+   }
+
+   public long getOpenedCount()
+   {
+      return openings.sum();
+   }
+}
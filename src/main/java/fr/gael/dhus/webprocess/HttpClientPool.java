@@ -0,0 +1,124 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.transformation.Configuration;
+
+/**
+ * Shared pooled non-blocking HTTP client used to query Web Process Services.
+ * <p>
+ * Requests are multiplexed on a few I/O reactor threads, so that a large number of requests may
+ * be in flight without holding a thread each. Connections are kept alive and reused between
+ * requests, and idle connections are evicted by a background thread.
+ */
+public final class HttpClientPool
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private static final HttpClientPool INSTANCE = new HttpClientPool(Configuration.getInstance());
+
+   public static HttpClientPool getInstance()
+   {
+      return INSTANCE;
+   }
+
+   private final PoolingNHttpClientConnectionManager connectionManager;
+   private final CloseableHttpAsyncClient client;
+
+   private HttpClientPool(Configuration conf)
+   {
+      try
+      {
+         connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor());
+      }
+      catch (IOReactorException e)
+      {
+         throw new IllegalStateException("Cannot start HTTP I/O reactor", e);
+      }
+      connectionManager.setMaxTotal(conf.getHttpPoolMaxTotal());
+      connectionManager.setDefaultMaxPerRoute(conf.getHttpPoolMaxPerRoute());
+
+      RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(conf.getHttpConnectTimeout())
+            .setConnectionRequestTimeout(conf.getHttpConnectTimeout())
+            .setSocketTimeout(conf.getHttpSocketTimeout())
+            .build();
+
+      long keepAlive = conf.getHttpKeepAlive();
+
+      client = HttpAsyncClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy((response, context) ->
+            {
+               // honor the server's Keep-Alive header, bounded by the configured duration
+               long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+               return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+            })
+            .build();
+      client.start();
+
+      // the async client builder has no eviction option, evict expired and idle connections here
+      long idleEviction = conf.getHttpIdleEviction();
+      ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable ->
+      {
+         Thread thread = new Thread(runnable, "wps-http-evictor");
+         thread.setDaemon(true);
+         return thread;
+      });
+      evictor.scheduleWithFixedDelay(() ->
+      {
+         connectionManager.closeExpiredConnections();
+         connectionManager.closeIdleConnections(idleEviction, TimeUnit.MILLISECONDS);
+      }, idleEviction, idleEviction, TimeUnit.MILLISECONDS);
+
+      LOGGER.debug("HTTP connection pool created (max total: {}, max per route: {})",
+            conf.getHttpPoolMaxTotal(), conf.getHttpPoolMaxPerRoute());
+   }
+
+   public CloseableHttpAsyncClient getClient()
+   {
+      return client;
+   }
+
+   public int getLeasedConnections()
+   {
+      return connectionManager.getTotalStats().getLeased();
+   }
+
+   public int getAvailableConnections()
+   {
+      return connectionManager.getTotalStats().getAvailable();
+   }
+}
@@ -0,0 +1,118 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations, using power of two buckets from 1 ms to about 70 minutes.
+ * <p>
+ * Percentiles are estimated as the upper bound of the bucket they fall in.
+ */
+public final class LatencyHistogram
+{
+   // upper bound of bucket i is 2^i ms, the last bucket is unbounded
+   private static final int BUCKETS = 24;
+
+   private final LongAdder[] counts = new LongAdder[BUCKETS];
+   private final LongAdder total = new LongAdder();
+   private final LongAdder sum = new LongAdder();
+   private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+   public LatencyHistogram()
+   {
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         counts[i] = new LongAdder();
+      }
+   }
+
+   /**
+    * Records a duration.
+    */
+   public void record(long duration, TimeUnit unit)
+   {
+      long millis = Math.max(0, unit.toMillis(duration));
+      int bucket = millis <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(millis - 1);
+      counts[Math.min(bucket, BUCKETS - 1)].increment();
+      total.increment();
+      sum.add(millis);
+      max.accumulate(millis);
+   }
+
+   public long getCount()
+   {
+      return total.sum();
+   }
+
+   public double getMean()
+   {
+      long count = total.sum();
+      return count == 0 ? 0 : (double) sum.sum() / count;
+   }
+
+   public long getMax()
+   {
+      return max.get();
+   }
+
+   /**
+    * Returns the estimated percentile, in milliseconds.
+    *
+    * @param percentile between 0 and 100
+    */
+   public long getPercentile(double percentile)
+   {
+      long count = total.sum();
+      if (count == 0)
+      {
+         return 0;
+      }
+      long rank = (long) Math.ceil(count * percentile / 100d);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS - 1; i++)
+      {
+         seen += counts[i].sum();
+         if (seen >= rank)
+         {
+            return Math.min(1L << i, getMax());
+         }
+      }
+      return getMax();
+   }
+
+   /**
+    * Returns the number of recorded durations per bucket, keyed by bucket upper bound.
+    */
+   public Map<String, Long> getBuckets()
+   {
+      Map<String, Long> buckets = new LinkedHashMap<>();
+      for (int i = 0; i < BUCKETS - 1; i++)
+      {
+         buckets.put("<=" + (1L << i) + "ms", counts[i].sum());
+      }
+      buckets.put(">" + (1L << (BUCKETS - 2)) + "ms", counts[BUCKETS - 1].sum());
+      return buckets;
+   }
+}
@@ -0,0 +1,105 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.gael.dhus.transformation.Configuration;
+
+/**
+ * Retry policy of the queries sent to Web Process Services.
+ * <p>
+ * Retries are delayed by an exponential backoff with full jitter: the delay before retry
+ * {@code n} is drawn uniformly between 0 and {@code min(max, base * 2^n)}, so that callers
+ * failing at the same time do not retry at the same time.
+ */
+public final class RetryPolicy
+{
+   private static final RetryPolicy INSTANCE = new RetryPolicy(Configuration.getInstance().getRetryAttempts(),
+         Configuration.getInstance().getRetryDelayBase(), Configuration.getInstance().getRetryDelayMax());
+
+   public static RetryPolicy getInstance()
+   {
+      return INSTANCE;
+   }
+
+   private final int maxAttempts;
+   private final long baseDelay;
+   private final long maxDelay;
+
+   private final LongAdder retries = new LongAdder();
+   private final LongAdder exhausted = new LongAdder();
+
+   RetryPolicy(int maxAttempts, long baseDelay, long maxDelay)
+   {
+      this.maxAttempts = Math.max(1, maxAttempts);
+      this.baseDelay = Math.max(0, baseDelay);
+      this.maxDelay = Math.max(this.baseDelay, maxDelay);
+   }
+
+   public int getMaxAttempts()
+   {
+      return maxAttempts;
+   }
+
+   /**
+    * Returns the delay to wait before the given retry.
+    *
+    * @param retry number of the retry, starting at 0
+    * @return delay in milliseconds
+    */
+   public long getDelay(int retry)
+   {
+      // cap the exponent to avoid overflows, the delay is capped anyway
+      long ceiling = Math.min(maxDelay, baseDelay << Math.min(retry, 30));
+      return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+   }
+
+   /**
+    * Records a retry and returns the delay to wait before it.
+    *
+    * @param retry number of the retry, starting at 0
+    * @return delay in milliseconds
+    */
+   public long retry(int retry)
+   {
+      retries.increment();
+      return getDelay(retry);
+   }
+
+   /**
+    * Records a query that failed after all its attempts.
+    */
+   public void exhausted()
+   {
+      exhausted.increment();
+   }
+
+   public long getRetryCount()
+   {
+      return retries.sum();
+   }
+
+   public long getExhaustedCount()
+   {
+      return exhausted.sum();
+   }
+}
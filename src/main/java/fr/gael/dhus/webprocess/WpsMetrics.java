@@ -0,0 +1,99 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the queries sent to Web Process Services.
+ */
+public final class WpsMetrics
+{
+   private static final WpsMetrics INSTANCE = new WpsMetrics();
+
+   public static WpsMetrics getInstance()
+   {
+      return INSTANCE;
+   }
+
+   public enum RequestType
+   {
+      GET_CAPABILITIES, EXECUTE, STATUS
+   }
+
+   private final Map<RequestType, LatencyHistogram> latencies = new EnumMap<>(RequestType.class);
+   private final LongAdder gatewayTimeouts = new LongAdder();
+   private final LongAdder timeouts = new LongAdder();
+   private final LongAdder errors = new LongAdder();
+
+   private WpsMetrics()
+   {
+      for (RequestType type: RequestType.values())
+      {
+         latencies.put(type, new LatencyHistogram());
+      }
+   }
+
+   public LatencyHistogram getLatency(RequestType type)
+   {
+      return latencies.get(type);
+   }
+
+   /**
+    * Records a 504 (Gateway Timeout) response.
+    */
+   public void gatewayTimeout()
+   {
+      gatewayTimeouts.increment();
+   }
+
+   /**
+    * Records a connection or socket timeout.
+    */
+   public void timeout()
+   {
+      timeouts.increment();
+   }
+
+   /**
+    * Records any other failed query.
+    */
+   public void error()
+   {
+      errors.increment();
+   }
+
+   public long getGatewayTimeoutCount()
+   {
+      return gatewayTimeouts.sum();
+   }
+
+   public long getTimeoutCount()
+   {
+      return timeouts.sum();
+   }
+
+   public long getErrorCount()
+   {
+      return errors.sum();
+   }
+}
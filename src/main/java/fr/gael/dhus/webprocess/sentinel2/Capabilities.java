@@ -0,0 +1,61 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess.sentinel2;
+
+import java.util.Set;
+
+/**
+ * Service identification and process offerings read from a GetCapabilities response.
+ */
+final class Capabilities
+{
+   private final String name;
+   private final String description;
+   private final String version;
+   private final Set<String> processNames;
+
+   Capabilities(String name, String description, String version, Set<String> processNames)
+   {
+      this.name = name;
+      this.description = description;
+      this.version = version;
+      this.processNames = processNames;
+   }
+
+   String getName()
+   {
+      return name;
+   }
+
+   String getDescription()
+   {
+      return description;
+   }
+
+   String getVersion()
+   {
+      return version;
+   }
+
+   Set<String> getProcessNames()
+   {
+      return processNames;
+   }
+}
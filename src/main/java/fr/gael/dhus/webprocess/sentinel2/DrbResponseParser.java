@@ -0,0 +1,134 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess.sentinel2;
+
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.transformation.Configuration;
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.ProcessStatus;
+import fr.gael.dhus.webprocess.WPSException;
+import fr.gael.drb.DrbNode;
+import fr.gael.drb.impl.xml.XmlNode;
+
+/**
+ * Reads WPS responses from a DRB XML node tree.
+ */
+class DrbResponseParser implements ResponseParser
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   @Override
+   public Capabilities parseCapabilities(InputStream response)
+   {
+      DrbNode xmlNode = new XmlNode(response, null);
+
+      DrbNode node = xmlNode.getNamedChild("ServiceIdentification", 1);
+      String name = node.getNamedChild("Title", 1).getValue().toString();
+      String description = node.getNamedChild("Abstract", 1).getValue().toString();
+      String version = node.getNamedChild("ServiceTypeVersion", 1).getValue().toString();
+
+      node = xmlNode.getNamedChild("ProcessOfferings", 1);
+      Set<String> processes = new HashSet<>();
+      for (int i = 0; i < node.getChildrenCount(); i++)
+      {
+         processes.add(node.getChildAt(i).getNamedChild("Title", 1).getValue().toString());
+      }
+      return new Capabilities(name, description, version, processes);
+   }
+
+   @Override
+   public ProcessExec parseExecuteResponse(InputStream response) throws WPSException
+   {
+      XmlNode xmlNode = new XmlNode(response, null);
+      DrbNode statusNode = xmlNode.getNamedChild("Status", 1);
+      if (statusNode != null && statusNode.getNamedChild("ProcessAccepted", 1) != null)
+      {
+         // process successfully submitted, reading status
+         try
+         {
+            ProcessStatus status = ProcessStatus.fromString(statusNode.getFirstChild().getName());
+            Date date = Configuration.parseDate(statusNode.getAttribute("creationTime").getValue().toString());
+            URL url = new URL(xmlNode.getAttribute("statusLocation").getValue().toString());
+            return new ProcessExec(status, date, url);
+         }
+         catch (ParseException | MalformedURLException e)
+         {
+            throw new WPSException(e);
+         }
+      }
+      else if (statusNode != null && statusNode.getNamedChild("ProcessFailed", 1) != null)
+      {
+         DrbNode exceptionNode = xmlNode.getNamedChild("ExceptionReport", 1);
+         if (exceptionNode != null)
+         {
+            exceptionNode = exceptionNode.getNamedChild("Exception", 1);
+            String exceptionCode = exceptionNode.getAttribute("exceptionCode").getValue().toString();
+            String exceptionMessage = exceptionNode.getNamedChild("ExceptionText", 1).getValue().toString();
+            throw new WPSException("Process failed: "+exceptionMessage + " (code: "+exceptionCode+")");
+         }
+      }
+
+      // no supported status, process considered failed
+      throw new WPSException("Process failed with unknown status: " + statusNode);
+   }
+
+   @Override
+   public ProcessExecStatus parseExecutionStatus(InputStream response) throws WPSException
+   {
+      XmlNode xmlNode = new XmlNode(response, null);
+      DrbNode node = xmlNode.getNamedChild("Status", 1).getFirstChild();
+      ProcessStatus status = ProcessStatus.fromString(node.getName());
+      switch (status)
+      {
+         case ACCEPTED:
+            return new ProcessExecStatus(status, 0, null);
+
+         case PAUSED:
+         case STARTED:
+            int progression =
+                  Integer.parseInt(node.getAttribute("percentCompleted").getValue().toString());
+            return new ProcessExecStatus(status, progression, null);
+
+         case SUCCEEDED:
+            String output = xmlNode.getNamedChild("ProcessOutputs", 1).getFirstChild()
+                  .getNamedChild("Data", 1)
+                  .getNamedChild("LiteralData", 1).getValue().toString();
+            return new ProcessExecStatus(status, 100, output);
+
+         case FAILED:
+            LOGGER.info("Web process service returned status '{}', message: {}", node.getName(), node.getValue());
+            return new ProcessExecStatus(status, -1, null);
+
+         default:
+            throw new WPSException("Unknown status: " + node.getName());
+      }
+   }
+}
@@ -0,0 +1,54 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess.sentinel2;
+
+import java.io.InputStream;
+
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.WPSException;
+
+/**
+ * Reads the responses of the Sentinel-2 Web Process Service.
+ */
+interface ResponseParser
+{
+   /**
+    * Returns the parser matching the given name ({@code drb} or {@code stax}).
+    */
+   static ResponseParser forName(String name)
+   {
+      switch (name.toLowerCase())
+      {
+         case "drb":
+            return new DrbResponseParser();
+         case "stax":
+            return new StaxResponseParser();
+         default:
+            throw new IllegalArgumentException("Unknown WPS response parser: " + name);
+      }
+   }
+
+   Capabilities parseCapabilities(InputStream response) throws WPSException;
+
+   ProcessExec parseExecuteResponse(InputStream response) throws WPSException;
+
+   ProcessExecStatus parseExecutionStatus(InputStream response) throws WPSException;
+}
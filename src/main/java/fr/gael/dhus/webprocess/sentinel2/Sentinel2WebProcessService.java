@@ -19,34 +19,54 @@
  */
 package fr.gael.dhus.webprocess.sentinel2;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
+import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.text.ParseException;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import fr.gael.dhus.transformation.Configuration;
+import fr.gael.dhus.webprocess.CircuitBreaker;
+import fr.gael.dhus.webprocess.HttpClientPool;
 import fr.gael.dhus.webprocess.NonCriticalWPSException;
 import fr.gael.dhus.webprocess.ProcessExec;
 import fr.gael.dhus.webprocess.ProcessExecStatus;
-import fr.gael.dhus.webprocess.ProcessStatus;
+import fr.gael.dhus.webprocess.RetryPolicy;
+import fr.gael.dhus.webprocess.UnreachedWPSException;
 import fr.gael.dhus.webprocess.WPSException;
-import fr.gael.drb.DrbNode;
-import fr.gael.drb.impl.xml.XmlNode;
+import fr.gael.dhus.webprocess.WpsMetrics;
+import fr.gael.dhus.webprocess.WpsMetrics.RequestType;
 
 public class Sentinel2WebProcessService
 {
@@ -74,6 +94,24 @@ public class Sentinel2WebProcessService
    // other values
    private static final String TRUE = "true";
 
+   // user priority of executions launched without an explicit priority
+   private static final int DEFAULT_USER_PRIORITY = 1;
+
+   // Accept-Encoding and Content-Encoding value, decoded by hand as the async client does not
+   private static final String GZIP = "gzip";
+
+   // schedules retries of queries after their backoff delay
+   private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+         runnable ->
+         {
+            Thread thread = new Thread(runnable, "wps-retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+         });
+
+   // response parser, DRB or StAX based
+   private static final ResponseParser PARSER = ResponseParser.forName(Configuration.getInstance().getWpsParser());
+
    private final URL url;
    private final String name;
    private final String description;
@@ -88,6 +126,11 @@ public class Sentinel2WebProcessService
       this.version = version;
    }
 
+   public URL getUrl()
+   {
+      return url;
+   }
+
    public String getLabel()
    {
       return name;
@@ -104,30 +147,28 @@ public class Sentinel2WebProcessService
    }
 
    public static Sentinel2WebProcessService loadWPS(URL url) throws WPSException
+   {
+      return join(loadWPSAsync(url));
+   }
+
+   /**
+    * Loads the capabilities of a web process service without blocking the calling thread.
+    */
+   public static CompletableFuture<Sentinel2WebProcessService> loadWPSAsync(URL url)
    {
       LOGGER.debug("Loading web process service at: {}", url);
       Map<String, String> parameters = new HashMap<>();
       parameters.put(PARAM_SERVICE, PARAM_WPS);
       parameters.put(PARAM_REQUEST, REQ_CAPABILITIES);
 
-      InputStream stream = performQueryRetry(url, parameters, 5);
-      DrbNode xmlNode = new XmlNode(stream, null);
-
-      DrbNode node = xmlNode.getNamedChild("ServiceIdentification", 1);
-      String name = node.getNamedChild("Title", 1).getValue().toString();
-      String description = node.getNamedChild("Abstract", 1).getValue().toString();
-      String version = node.getNamedChild("ServiceTypeVersion", 1).getValue().toString();
-
-      node = xmlNode.getNamedChild("ProcessOfferings", 1);
-      Set<String> processes = new HashSet<>();
-      for (int i = 0; i < node.getChildrenCount(); i++)
+      return thenParse(performQueryRetry(url, parameters, RequestType.GET_CAPABILITIES), stream ->
       {
-         processes.add(node.getChildAt(i).getNamedChild("Title", 1).getValue().toString());
-      }
-
-      Sentinel2WebProcessService service = new Sentinel2WebProcessService(url, name, description, version, processes);
-      LOGGER.debug("Web process service successfully loaded from: {}", url);
-      return service;
+         Capabilities capabilities = parse(() -> PARSER.parseCapabilities(stream));
+         Sentinel2WebProcessService service = new Sentinel2WebProcessService(url, capabilities.getName(),
+               capabilities.getDescription(), capabilities.getVersion(), capabilities.getProcessNames());
+         LOGGER.debug("Web process service successfully loaded from: {}", url);
+         return service;
+      });
    }
 
    /**
@@ -137,9 +178,53 @@ public class Sentinel2WebProcessService
     * @throws WPSException if the process can not be performed.
     */
    public ProcessExec queryProcessExecution(String processId, String tileId) throws WPSException
+   {
+      return queryProcessExecution(processId, tileId, DEFAULT_USER_PRIORITY);
+   }
+
+   /**
+    * Launches a process request with the given user priority and returns a link allowing to
+    * monitor the requested process.
+    *
+    * @return an URL allowing to monitor the process.
+    * @throws WPSException if the process can not be performed.
+    */
+   public ProcessExec queryProcessExecution(String processId, String tileId, int priority) throws WPSException
+   {
+      return join(queryProcessExecutionAsync(processId, tileId, priority));
+   }
+
+   /**
+    * Launches a process request without blocking the calling thread.
+    *
+    * @return a future completed with a link allowing to monitor the process, or exceptionally
+    *         with a {@link WPSException} if the process can not be performed
+    */
+   public CompletableFuture<ProcessExec> queryProcessExecutionAsync(String processId, String tileId)
+   {
+      return queryProcessExecutionAsync(processId, tileId, DEFAULT_USER_PRIORITY);
+   }
+
+   /**
+    * Launches a process request with the given user priority without blocking the calling thread.
+    *
+    * @return a future completed with a link allowing to monitor the process, or exceptionally
+    *         with a {@link WPSException} if the process can not be performed
+    */
+   public CompletableFuture<ProcessExec> queryProcessExecutionAsync(String processId, String tileId, int priority)
    {
       // prepare and format special process nested parameters
-      String dataInputParameters = formatDataInputParameters(processId, tileId);
+      String dataInputParameters;
+      try
+      {
+         dataInputParameters = formatDataInputParameters(processId, tileId, priority);
+      }
+      catch (WPSException e)
+      {
+         CompletableFuture<ProcessExec> failed = new CompletableFuture<>();
+         failed.completeExceptionally(e);
+         return failed;
+      }
 
       // prepare http parameters
       Map<String, String> queryParameters = new HashMap<>();
@@ -152,11 +237,9 @@ public class Sentinel2WebProcessService
       queryParameters.put(LINEAGE, TRUE);
       queryParameters.put(PARAM_DATA_INPUTS, dataInputParameters);
 
-      // execute processing request
-      InputStream response = performQueryRetry(url, queryParameters, 5);
-
-      // return parsed response
-      return toProcessExec(response);
+      // execute processing request and parse the response
+      return thenParse(performQueryRetry(url, queryParameters, RequestType.EXECUTE),
+            response -> parse(() -> toProcessExec(response)));
    }
 
    /**
@@ -168,34 +251,85 @@ public class Sentinel2WebProcessService
     */
    public ProcessExecStatus queryExecutionStatus(URL url) throws WPSException
    {
-      InputStream stream = performQueryRetry(url, Collections.emptyMap(), 5);
+      return join(queryExecutionStatusAsync(url));
+   }
 
-      XmlNode xmlNode = new XmlNode(stream, null);
-      DrbNode node = xmlNode.getNamedChild("Status", 1).getFirstChild();
-      ProcessStatus status = ProcessStatus.fromString(node.getName());
-      switch (status)
-      {
-         case ACCEPTED:
-            return new ProcessExecStatus(status, 0, null);
+   /**
+    * Returns status of a process execution without blocking the calling thread.
+    *
+    * @param url monitor url of process execution
+    * @return a future completed with the status of the execution, or exceptionally with a
+    *         {@link WPSException}
+    */
+   public CompletableFuture<ProcessExecStatus> queryExecutionStatusAsync(URL url)
+   {
+      return thenParse(performQueryRetry(url, Collections.emptyMap(), RequestType.STATUS),
+            stream -> parse(() -> PARSER.parseExecutionStatus(stream)));
+   }
 
-         case PAUSED:
-         case STARTED:
-            int progression =
-                  Integer.parseInt(node.getAttribute("percentCompleted").getValue().toString());
-            return new ProcessExecStatus(status, progression, null);
+   @FunctionalInterface
+   private interface Parsing<T>
+   {
+      T parse() throws WPSException;
+   }
 
-         case SUCCEEDED:
-            String output = xmlNode.getNamedChild("ProcessOutputs", 1).getFirstChild()
-                  .getNamedChild("Data", 1)
-                  .getNamedChild("LiteralData", 1).getValue().toString();
-            return new ProcessExecStatus(status, 100, output);
+   /**
+    * Runs a parsing step of an asynchronous query, wrapping its failure for the future. Parsing
+    * runs in the common pool, not on the I/O reactor threads.
+    */
+   private static <T> T parse(Parsing<T> parsing)
+   {
+      try
+      {
+         return parsing.parse();
+      }
+      catch (WPSException e)
+      {
+         throw new CompletionException(e);
+      }
+   }
 
-         case FAILED:
-            LOGGER.info("Web process service returned status '{}', message: {}", node.getName(), node.getValue());
-            return new ProcessExecStatus(status, -1, null);
+   /**
+    * Parses the response of a query in the common pool. Cancelling the returned future aborts the
+    * query, and its pending retries, as cancellation does not propagate to the source of a stage.
+    */
+   private static <T> CompletableFuture<T> thenParse(CompletableFuture<InputStream> query,
+         Function<InputStream, T> parsing)
+   {
+      CompletableFuture<T> parsed = query.thenApplyAsync(parsing);
+      parsed.whenComplete((value, error) ->
+      {
+         if (parsed.isCancelled())
+         {
+            query.cancel(false);
+         }
+      });
+      return parsed;
+   }
 
-         default:
-            throw new WPSException("Unknown status: " + node.getName());
+   /**
+    * Waits for an asynchronous query, unwrapping its failure.
+    */
+   private static <T> T join(CompletableFuture<T> future) throws WPSException
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (InterruptedException e)
+      {
+         future.cancel(true);
+         Thread.currentThread().interrupt();
+         throw new NonCriticalWPSException("Interrupted while waiting for WPS response", e);
+      }
+      catch (ExecutionException e)
+      {
+         Throwable cause = e.getCause();
+         if (cause instanceof WPSException)
+         {
+            throw (WPSException) cause;
+         }
+         throw new WPSException("Sentinel-2 WPS query failed: " + cause.getMessage(), cause);
       }
    }
 
@@ -204,13 +338,15 @@ public class Sentinel2WebProcessService
     *
     * @param serviceUrl the URL
     * @param parameters the HTTP GET parameters
-    * @return the response stream
-    * @throws WPSException
-    * @throws NonCriticalWPSException
+    * @param breaker    circuit breaker of the endpoint, notified of the outcome of the request
+    * @return a future completed with the response stream, or exceptionally with a
+    *         {@link WPSException} or {@link NonCriticalWPSException}
     */
-   private static InputStream performQuery(URL serviceUrl, Map<String, String> parameters)
-         throws WPSException
+   private static CompletableFuture<InputStream> performQuery(URL serviceUrl, Map<String, String> parameters,
+         CircuitBreaker breaker)
    {
+      CompletableFuture<InputStream> result = new CompletableFuture<>();
+      URI uri;
       try
       {
          // prepare url of the query
@@ -220,100 +356,239 @@ public class Sentinel2WebProcessService
          parameters.entrySet().forEach(entry -> builder.addParameter(entry.getKey(), entry.getValue()));
 
          // build
-         URI uri = builder.build();
+         uri = builder.build();
+      }
+      catch (URISyntaxException e)
+      {
+         // the endpoint was not reached, give back the permit of the breaker
+         breaker.release();
+         result.completeExceptionally(
+               new WPSException("Cannot reach service at : " + serviceUrl + ": " + e.getMessage(), e));
+         return result;
+      }
 
-         // perform http request
-         LOGGER.debug("try to perform request : {}", uri);
-         HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-         connection.setConnectTimeout(30000);
-         connection.setReadTimeout(3000);
+      // perform http request, the callback runs on an I/O reactor thread
+      LOGGER.debug("try to perform request : {}", uri);
+      HttpGet request = new HttpGet(uri);
+      request.setHeader(HttpHeaders.ACCEPT_ENCODING, GZIP);
+      FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>()
+      {
+         @Override
+         public void completed(HttpResponse response)
+         {
+            try
+            {
+               result.complete(handleResponse(response, breaker));
+            }
+            catch (WPSException e)
+            {
+               result.completeExceptionally(e);
+            }
+            catch (IOException e)
+            {
+               failed(e);
+            }
+         }
 
-         // success?
-         if (200 != connection.getResponseCode())
+         @Override
+         public void failed(Exception e)
          {
-            if(504 == connection.getResponseCode())
+            if (e instanceof TimeoutException)
+            {
+               // no connection of the local pool was leased in time, the endpoint was not reached
+               breaker.release();
+               result.completeExceptionally(
+                     new UnreachedWPSException("No HTTP connection available to reach " + serviceUrl, e));
+               return;
+            }
+            breaker.onFailure();
+            if (e instanceof ConnectTimeoutException)
+            {
+               // no connection established, the request was not sent
+               WpsMetrics.getInstance().timeout();
+               result.completeExceptionally(new UnreachedWPSException("Sentinel-2 WPS is not responding: ", e));
+            }
+            else if (e instanceof SocketTimeoutException)
+            {
+               WpsMetrics.getInstance().timeout();
+               result.completeExceptionally(new NonCriticalWPSException("Sentinel-2 WPS is not responding: ", e));
+            }
+            else if (e instanceof ConnectException)
             {
-               // error considered "normal"
-               throw new NonCriticalWPSException("Sentinel-2 WPS raised non-critical unexpected status ("
-                     + connection.getResponseCode() + "): " + connection.getResponseMessage());
+               // connection refused, the request was not sent
+               WpsMetrics.getInstance().error();
+               result.completeExceptionally(
+                     new UnreachedWPSException("Cannot reach service at : " + serviceUrl + ": " + e.getMessage(), e));
             }
             else
             {
-               throw new WPSException("Sentinel-2 WPS raised an unexpected status ("
-                     + connection.getResponseCode() + "): " + connection.getResponseMessage());
+               WpsMetrics.getInstance().error();
+               result.completeExceptionally(
+                     new WPSException("Cannot reach service at : " + serviceUrl + ": " + e.getMessage(), e));
             }
          }
 
-         return connection.getInputStream();
-      }
-      catch (SocketTimeoutException e)
+         @Override
+         public void cancelled()
+         {
+            // aborted before the endpoint answered, tells nothing about its health
+            breaker.release();
+            result.cancel(false);
+         }
+      };
+      Future<HttpResponse> execution;
+      try
       {
-         throw new NonCriticalWPSException("Sentinel-2 WPS is not responding: ", e);
+         execution = HttpClientPool.getInstance().getClient().execute(request, callback);
       }
-      catch (URISyntaxException | IOException e)
+      catch (RuntimeException e)
       {
-         throw new WPSException("Cannot reach service at : " + serviceUrl + ": " + e.getMessage(), e);
+         // request not sent (client shut down, rejected by the I/O reactor)
+         breaker.release();
+         result.completeExceptionally(
+               new WPSException("Cannot reach service at : " + serviceUrl + ": " + e.getMessage(), e));
+         return result;
       }
+
+      // abort the request if the caller is no longer interested
+      result.whenComplete((stream, error) ->
+      {
+         if (result.isCancelled())
+         {
+            execution.cancel(true);
+         }
+      });
+      return result;
    }
 
-   private static InputStream performQueryRetry(URL serviceUrl, Map<String, String> parameters, int retries) throws WPSException
+   private static InputStream handleResponse(HttpResponse response, CircuitBreaker breaker)
+         throws WPSException, IOException
    {
-      for(int i = 0; i < retries; i++)
+      StatusLine statusLine = response.getStatusLine();
+
+      // success?
+      if (HttpStatus.SC_OK != statusLine.getStatusCode())
       {
-         try
+         // client errors do not tell anything about the health of the endpoint
+         if (statusLine.getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR)
          {
-            return performQuery(serviceUrl, parameters);
+            breaker.onFailure();
          }
-         catch (NonCriticalWPSException e)
+         else
          {
-            LOGGER.debug("Non-critical exception while performing query: {}, retrying", e.getMessage());
+            breaker.onSuccess();
          }
+
+         if (HttpStatus.SC_GATEWAY_TIMEOUT == statusLine.getStatusCode())
+         {
+            WpsMetrics.getInstance().gatewayTimeout();
+            // error considered "normal"
+            throw new NonCriticalWPSException("Sentinel-2 WPS raised non-critical unexpected status ("
+                  + statusLine.getStatusCode() + "): " + statusLine.getReasonPhrase());
+         }
+         else
+         {
+            WpsMetrics.getInstance().error();
+            throw new WPSException("Sentinel-2 WPS raised an unexpected status ("
+                  + statusLine.getStatusCode() + "): " + statusLine.getReasonPhrase());
+         }
+      }
+
+      // responses are small XML documents, buffered in memory by the async client
+      HttpEntity entity = response.getEntity();
+      InputStream stream = new ByteArrayInputStream(EntityUtils.toByteArray(entity));
+      Header encoding = entity.getContentEncoding();
+      if (encoding != null && GZIP.equalsIgnoreCase(encoding.getValue()))
+      {
+         stream = new GZIPInputStream(stream);
       }
-      // no successful attempt
-      throw new WPSException("Cannot reach service at : " + serviceUrl);
+      breaker.onSuccess();
+      return stream;
    }
 
-   private ProcessExec toProcessExec(InputStream response) throws WPSException
+   /**
+    * Performs a GET request, retrying after non-critical errors with the configured backoff.
+    * Retries are scheduled, no thread waits for them. The latency of each attempt is recorded
+    * under the given request type.
+    *
+    * @return a future completed exceptionally with a {@link NonCriticalWPSException} if the
+    *         circuit of the endpoint is open, or a {@link WPSException} if the request failed or
+    *         no attempt succeeded, an {@link UnreachedWPSException} if no attempt reached the
+    *         endpoint
+    */
+   private static CompletableFuture<InputStream> performQueryRetry(URL serviceUrl, Map<String, String> parameters,
+         RequestType type)
    {
-      XmlNode xmlNode = new XmlNode(response, null);
-      DrbNode statusNode = xmlNode.getNamedChild("Status", 1);
-      if (statusNode != null && statusNode.getNamedChild("ProcessAccepted", 1) != null)
+      CompletableFuture<InputStream> result = new CompletableFuture<>();
+      attempt(serviceUrl, parameters, type, 0, false, result);
+      return result;
+   }
+
+   /**
+    * @param reached true if a previous attempt may have reached the endpoint
+    */
+   private static void attempt(URL serviceUrl, Map<String, String> parameters, RequestType type, int attempt,
+         boolean reached, CompletableFuture<InputStream> result)
+   {
+      if (result.isDone())
+      {
+         // cancelled by the caller
+         return;
+      }
+
+      // fail fast while the endpoint is unhealthy
+      CircuitBreaker breaker = CircuitBreaker.forEndpoint(serviceUrl);
+      if (!breaker.tryAcquire())
       {
-         // process successfully submitted, reading status
-         try
+         String message = "Sentinel-2 WPS at " + breaker.getEndpoint() + " is unavailable, circuit open";
+         result.completeExceptionally(reached ? new NonCriticalWPSException(message) : new UnreachedWPSException(message));
+         return;
+      }
+
+      long start = System.nanoTime();
+      CompletableFuture<InputStream> query = performQuery(serviceUrl, parameters, breaker);
+      result.whenComplete((stream, error) -> query.cancel(false));
+      query.whenComplete((stream, error) ->
+      {
+         WpsMetrics.getInstance().getLatency(type).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+         RetryPolicy policy = RetryPolicy.getInstance();
+         boolean sent = reached || !(error instanceof UnreachedWPSException);
+         if (error == null)
          {
-            ProcessStatus status = ProcessStatus.fromString(statusNode.getFirstChild().getName());
-            Date date = Configuration.DATE_FORMATTER.parse(statusNode.getAttribute("creationTime").getValue().toString());
-            URL url = new URL(xmlNode.getAttribute("statusLocation").getValue().toString());
-            return new ProcessExec(status, date, url);
+            result.complete(stream);
          }
-         catch (ParseException | MalformedURLException e)
+         else if (!(error instanceof NonCriticalWPSException))
          {
-            throw new WPSException(e);
+            result.completeExceptionally(error);
          }
-      }
-      else if (statusNode != null && statusNode.getNamedChild("ProcessFailed", 1) != null)
-      {
-         DrbNode exceptionNode = xmlNode.getNamedChild("ExceptionReport", 1);
-         if (exceptionNode != null)
+         else if (attempt + 1 < policy.getMaxAttempts())
          {
-            exceptionNode = exceptionNode.getNamedChild("Exception", 1);
-            String exceptionCode = exceptionNode.getAttribute("exceptionCode").getValue().toString();
-            String exceptionMessage = exceptionNode.getNamedChild("ExceptionText", 1).getValue().toString();
-            throw new WPSException("Process failed: "+exceptionMessage + " (code: "+exceptionCode+")");
+            LOGGER.debug("Non-critical exception while performing query: {}, retrying", error.getMessage());
+            RETRY_SCHEDULER.schedule(() -> attempt(serviceUrl, parameters, type, attempt + 1, sent, result),
+                  policy.retry(attempt), TimeUnit.MILLISECONDS);
          }
-      }
+         else
+         {
+            // no successful attempt
+            policy.exhausted();
+            String message = "Cannot reach service at : " + serviceUrl;
+            result.completeExceptionally(sent ? new WPSException(message) : new UnreachedWPSException(message, error));
+         }
+      });
+   }
+
 
-      // no supported status, process considered failed
-      throw new WPSException("Process failed with unknown status: " + statusNode);
+   private ProcessExec toProcessExec(InputStream response) throws WPSException
+   {
+      return PARSER.parseExecuteResponse(response);
    }
 
-   private String formatDataInputParameters(String processId, String tileId) throws WPSException
+   private String formatDataInputParameters(String processId, String tileId, int priority) throws WPSException
    {
       switch(processId)
       {
          case "l2a":
-            return formatL2AProcessParameters(tileId);
+            return formatL2AProcessParameters(tileId, priority);
          case "TCI":
             throw new WPSException("Process '" + processId + "' not implemented");
          default:
@@ -321,7 +596,7 @@ public class Sentinel2WebProcessService
       }
    }
 
-   private String formatL2AProcessParameters(String tileId)
+   private String formatL2AProcessParameters(String tileId, int priority)
    {
       Configuration conf = Configuration.getInstance();
 
@@ -338,7 +613,7 @@ public class Sentinel2WebProcessService
       StringBuilder sb = new StringBuilder();
       sb.append("versionNumber=").append(processVersion).append(';');
       sb.append("userId=").append(userId).append(';');
-      sb.append("userPriority=1;");
+      sb.append("userPriority=").append(priority).append(';');
       sb.append("resolution=").append(resolution).append(';');
       sb.append("InputProducts=s2pdi://PDI=").append(tileId)
             .append("|DW_ID=").append(System.currentTimeMillis())
@@ -0,0 +1,343 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess.sentinel2;
+
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.transformation.Configuration;
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.ProcessStatus;
+import fr.gael.dhus.webprocess.WPSException;
+
+/**
+ * Reads WPS responses with a StAX stream reader, stops reading as soon as the required elements
+ * have been found.
+ */
+class StaxResponseParser implements ResponseParser
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+   static
+   {
+      FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+      FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+      FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+   }
+
+   @Override
+   public Capabilities parseCapabilities(InputStream response) throws WPSException
+   {
+      XMLStreamReader reader = open(response);
+      try
+      {
+         String name = null;
+         String description = null;
+         String version = null;
+         Set<String> processes = new HashSet<>();
+
+         boolean inIdentification = false;
+         boolean inOfferings = false;
+         while (reader.hasNext())
+         {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT)
+            {
+               if ("ServiceIdentification".equals(reader.getLocalName()))
+               {
+                  inIdentification = false;
+               }
+               else if ("ProcessOfferings".equals(reader.getLocalName()))
+               {
+                  // everything has been read
+                  break;
+               }
+            }
+            else if (event == XMLStreamConstants.START_ELEMENT)
+            {
+               String element = reader.getLocalName();
+               if ("ServiceIdentification".equals(element))
+               {
+                  inIdentification = true;
+               }
+               else if ("ProcessOfferings".equals(element))
+               {
+                  inOfferings = true;
+               }
+               else if (inIdentification && "Title".equals(element))
+               {
+                  name = reader.getElementText().trim();
+               }
+               else if (inIdentification && "Abstract".equals(element))
+               {
+                  description = reader.getElementText().trim();
+               }
+               else if (inIdentification && "ServiceTypeVersion".equals(element))
+               {
+                  version = reader.getElementText().trim();
+               }
+               else if (inOfferings && "Title".equals(element))
+               {
+                  processes.add(reader.getElementText().trim());
+               }
+            }
+         }
+
+         if (name == null || version == null)
+         {
+            throw new WPSException("Invalid GetCapabilities response: missing service identification");
+         }
+         return new Capabilities(name, description, version, processes);
+      }
+      catch (XMLStreamException e)
+      {
+         throw new WPSException("Cannot parse GetCapabilities response", e);
+      }
+      finally
+      {
+         close(reader);
+      }
+   }
+
+   @Override
+   public ProcessExec parseExecuteResponse(InputStream response) throws WPSException
+   {
+      XMLStreamReader reader = open(response);
+      try
+      {
+         String statusLocation = null;
+         String creationTime = null;
+         String statusName = null;
+         while (reader.hasNext())
+         {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT)
+            {
+               continue;
+            }
+
+            String element = reader.getLocalName();
+            if ("ExecuteResponse".equals(element))
+            {
+               statusLocation = reader.getAttributeValue(null, "statusLocation");
+            }
+            else if ("Status".equals(element))
+            {
+               creationTime = reader.getAttributeValue(null, "creationTime");
+               reader.nextTag();
+               statusName = reader.getLocalName();
+               if (ProcessStatus.ACCEPTED.getValue().equals(statusName))
+               {
+                  // process successfully submitted
+                  break;
+               }
+               if (!ProcessStatus.FAILED.getValue().equals(statusName))
+               {
+                  throw new WPSException("Process failed with unknown status: " + statusName);
+               }
+            }
+            else if (statusName != null && "Exception".equals(element))
+            {
+               String exceptionCode = reader.getAttributeValue(null, "exceptionCode");
+               String exceptionMessage = readExceptionText(reader);
+               throw new WPSException("Process failed: " + exceptionMessage + " (code: " + exceptionCode + ")");
+            }
+         }
+
+         if (!ProcessStatus.ACCEPTED.getValue().equals(statusName))
+         {
+            // no supported status, process considered failed
+            throw new WPSException("Process failed with unknown status: " + statusName);
+         }
+         if (creationTime == null || statusLocation == null)
+         {
+            throw new WPSException("Invalid Execute response: missing creation time or status location");
+         }
+         try
+         {
+            Date date = Configuration.parseDate(creationTime);
+            return new ProcessExec(ProcessStatus.ACCEPTED, date, new URL(statusLocation));
+         }
+         catch (ParseException | MalformedURLException e)
+         {
+            throw new WPSException(e);
+         }
+      }
+      catch (XMLStreamException e)
+      {
+         throw new WPSException("Cannot parse Execute response", e);
+      }
+      finally
+      {
+         close(reader);
+      }
+   }
+
+   @Override
+   public ProcessExecStatus parseExecutionStatus(InputStream response) throws WPSException
+   {
+      XMLStreamReader reader = open(response);
+      try
+      {
+         boolean succeeded = false;
+         boolean inOutputs = false;
+         while (reader.hasNext())
+         {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT)
+            {
+               continue;
+            }
+
+            String element = reader.getLocalName();
+            if (!succeeded && "Status".equals(element))
+            {
+               reader.nextTag();
+               String statusName = reader.getLocalName();
+               ProcessStatus status = ProcessStatus.fromString(statusName);
+               switch (status)
+               {
+                  case ACCEPTED:
+                     return new ProcessExecStatus(status, 0, null);
+
+                  case PAUSED:
+                  case STARTED:
+                     int progression = Integer.parseInt(reader.getAttributeValue(null, "percentCompleted"));
+                     return new ProcessExecStatus(status, progression, null);
+
+                  case SUCCEEDED:
+                     // output is located in the ProcessOutputs element
+                     succeeded = true;
+                     break;
+
+                  case FAILED:
+                     LOGGER.info("Web process service returned status '{}', message: {}", statusName, readText(reader));
+                     return new ProcessExecStatus(status, -1, null);
+
+                  default:
+                     throw new WPSException("Unknown status: " + statusName);
+               }
+            }
+            else if (succeeded && "ProcessOutputs".equals(element))
+            {
+               inOutputs = true;
+            }
+            else if (inOutputs && "LiteralData".equals(element))
+            {
+               return new ProcessExecStatus(ProcessStatus.SUCCEEDED, 100, reader.getElementText().trim());
+            }
+         }
+         throw new WPSException(succeeded ? "No output in execution status" : "No status in execution status");
+      }
+      catch (XMLStreamException | NumberFormatException e)
+      {
+         throw new WPSException("Cannot parse execution status", e);
+      }
+      finally
+      {
+         close(reader);
+      }
+   }
+
+   private static XMLStreamReader open(InputStream response) throws WPSException
+   {
+      try
+      {
+         return FACTORY.createXMLStreamReader(response);
+      }
+      catch (XMLStreamException e)
+      {
+         throw new WPSException("Cannot read WPS response", e);
+      }
+   }
+
+   private static void close(XMLStreamReader reader)
+   {
+      try
+      {
+         reader.close();
+      }
+      catch (XMLStreamException e)
+      {
+         LOGGER.debug("Cannot close XML stream reader", e);
+      }
+   }
+
+   /**
+    * Reads the text content of the current element and its descendants, the reader is left on
+    * the matching end element.
+    */
+   private static String readText(XMLStreamReader reader) throws XMLStreamException
+   {
+      StringBuilder text = new StringBuilder();
+      int depth = 1;
+      while (depth > 0 && reader.hasNext())
+      {
+         int event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT)
+         {
+            depth++;
+         }
+         else if (event == XMLStreamConstants.END_ELEMENT)
+         {
+            depth--;
+         }
+         else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)
+         {
+            text.append(reader.getText());
+         }
+      }
+      return text.toString().trim();
+   }
+
+   /**
+    * Reads the ExceptionText child of the current Exception element.
+    */
+   private static String readExceptionText(XMLStreamReader reader) throws XMLStreamException
+   {
+      while (reader.hasNext())
+      {
+         int event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT && "ExceptionText".equals(reader.getLocalName()))
+         {
+            return readText(reader);
+         }
+         if (event == XMLStreamConstants.END_ELEMENT && "Exception".equals(reader.getLocalName()))
+         {
+            break;
+         }
+      }
+      return null;
+   }
+}
@@ -0,0 +1,66 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the executors running blocking tasks, such as downloads and WPS requests.
+ * <p>
+ * Java 21 version of the multi-release jar: tasks may run on virtual threads, which do not hold a
+ * platform thread while blocked, so that the number of concurrent tasks is not bounded by the
+ * number of threads affordable.
+ */
+final class ExecutorFactory
+{
+   private ExecutorFactory() {}
+
+   /**
+    * Returns whether virtual threads are supported by the running JVM.
+    */
+   static boolean isVirtualSupported()
+   {
+      return true;
+   }
+
+   /**
+    * Creates an executor starting a thread per task.
+    *
+    * @param name           name of the threads
+    * @param virtual        whether to start virtual threads, platform threads are reused otherwise
+    * @param maxConcurrency maximum number of tasks running at once, unbounded if not positive
+    */
+   static ExecutorService newExecutor(String name, boolean virtual, int maxConcurrency)
+   {
+      ExecutorService executor;
+      if (virtual)
+      {
+         ThreadFactory factory = Thread.ofVirtual().name(name).factory();
+         executor = Executors.newThreadPerTaskExecutor(factory);
+      }
+      else
+      {
+         executor = Executors.newCachedThreadPool(Thread.ofPlatform().name(name).daemon().factory());
+      }
+      return LimitedExecutor.wrap(executor, maxConcurrency);
+   }
+}
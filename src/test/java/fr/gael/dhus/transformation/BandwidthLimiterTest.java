@@ -0,0 +1,122 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BandwidthLimiterTest
+{
+   private static final LocalTime DAY_START = LocalTime.of(8, 0);
+   private static final LocalTime DAY_END = LocalTime.of(20, 0);
+
+   private static Clock at(String time)
+   {
+      return Clock.fixed(Instant.parse("2020-06-01T" + time + ":00Z"), ZoneOffset.UTC);
+   }
+
+   /**
+    * Reads a stream to its end and returns the elapsed milliseconds.
+    */
+   private static long drain(InputStream input) throws IOException
+   {
+      long start = System.nanoTime();
+      try (InputStream stream = input)
+      {
+         byte[] buffer = new byte[8192];
+         while (stream.read(buffer) != -1);
+      }
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+   }
+
+   @Test
+   public void testDayAndNight()
+   {
+      BandwidthLimiter limiter = new BandwidthLimiter(1000, 5000, DAY_START, DAY_END, false, at("12:00"));
+      Assert.assertEquals(limiter.getLimit(), 1000);
+      Assert.assertEquals(new BandwidthLimiter(1000, 5000, DAY_START, DAY_END, false, at("22:00")).getLimit(), 5000);
+
+      // day spanning midnight
+      Assert.assertEquals(new BandwidthLimiter(1000, 5000, DAY_END, DAY_START, false, at("23:00")).getLimit(), 1000);
+      Assert.assertEquals(new BandwidthLimiter(1000, 5000, DAY_END, DAY_START, false, at("12:00")).getLimit(), 5000);
+
+      limiter.setDayLimit(0);
+      Assert.assertEquals(limiter.getLimit(), 0);
+   }
+
+   @Test
+   public void testLimit() throws IOException
+   {
+      BandwidthLimiter limiter = new BandwidthLimiter(1_000_000, 1_000_000, DAY_START, DAY_END, false, at("12:00"));
+
+      // 100 KB of burst, then 1 MB/s
+      long elapsed = drain(limiter.limit(new ByteArrayInputStream(new byte[400_000])));
+      Assert.assertTrue(elapsed >= 250, "read in " + elapsed + " ms");
+      Assert.assertEquals(limiter.getShareCount(), 0);
+
+      // changed at runtime
+      limiter.setDayLimit(0);
+      elapsed = drain(limiter.limit(new ByteArrayInputStream(new byte[400_000])));
+      Assert.assertTrue(elapsed < 250, "read in " + elapsed + " ms");
+   }
+
+   @Test
+   public void testFair() throws IOException
+   {
+      BandwidthLimiter limiter = new BandwidthLimiter(1_000_000, 1_000_000, DAY_START, DAY_END, true, at("12:00"));
+
+      // an idle stream still takes its share
+      InputStream idle = limiter.limit(new ByteArrayInputStream(new byte[0]));
+      long elapsed = drain(limiter.limit(new ByteArrayInputStream(new byte[200_000])));
+      Assert.assertTrue(elapsed >= 250, "read in " + elapsed + " ms");
+      idle.close();
+   }
+
+   @Test
+   public void testFairPerDownload() throws IOException
+   {
+      BandwidthLimiter limiter = new BandwidthLimiter(1_000_000, 1_000_000, DAY_START, DAY_END, true, at("12:00"));
+
+      // the segments of a download read from a single share
+      try (BandwidthLimiter.Share idle = limiter.open(); BandwidthLimiter.Share segmented = limiter.open())
+      {
+         InputStream first = limiter.limit(new ByteArrayInputStream(new byte[0]), segmented);
+         InputStream second = limiter.limit(new ByteArrayInputStream(new byte[0]), segmented);
+         Assert.assertEquals(limiter.getShareCount(), 2);
+         first.close();
+         second.close();
+         Assert.assertEquals(limiter.getShareCount(), 2);
+
+         // half of the limit, 50 KB of burst
+         long elapsed = drain(limiter.limit(new ByteArrayInputStream(new byte[200_000]), segmented));
+         Assert.assertTrue(elapsed >= 250, "read in " + elapsed + " ms");
+      }
+      Assert.assertEquals(limiter.getShareCount(), 0);
+   }
+}
@@ -34,5 +34,10 @@ public class ConfigurationTest
       Assert.assertEquals(conf.getL2aProcessorVersion(), "0.0.7");
       Assert.assertEquals(conf.getL2aResolution(), "60");
       Assert.assertEquals(conf.getTmpDirectory().toString(), "tmp");
+      Assert.assertEquals(conf.getDataDirectory().toString(), "data");
+      Assert.assertEquals(conf.getDataMaxSize(), 200L * 1024 * 1024 * 1024);
+      Assert.assertEquals(conf.getHttpPoolMaxTotal(), 50);
+      Assert.assertEquals(conf.getHttpPoolMaxPerRoute(), 20);
+      Assert.assertEquals(conf.getHttpSocketTimeout(), 3000);
    }
 }
@@ -0,0 +1,201 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class DownloadSchedulerTest
+{
+   private static DownloadScheduler scheduler(int threads, int minThreads, int maxThreads, int queueSize)
+         throws IOException
+   {
+      Properties properties = new Properties();
+      try (InputStream input = DownloadSchedulerTest.class.getResourceAsStream("/l2aOnDemand.properties"))
+      {
+         properties.load(input);
+      }
+      properties.setProperty("wps.download.threads", String.valueOf(threads));
+      properties.setProperty("wps.download.threads.min", String.valueOf(minThreads));
+      properties.setProperty("wps.download.threads.max", String.valueOf(maxThreads));
+      properties.setProperty("wps.download.queue.size", String.valueOf(queueSize));
+      // adjusted by the tests only
+      properties.setProperty("wps.download.adjust.period", "3600000");
+      return new DownloadScheduler(new Configuration(properties));
+   }
+
+   private static void await(BooleanSupplier condition) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!condition.getAsBoolean())
+      {
+         Assert.assertTrue(System.nanoTime() < deadline, "condition not met in time");
+         Thread.sleep(10);
+      }
+   }
+
+   @Test
+   public void testQueueBound() throws Exception
+   {
+      DownloadScheduler scheduler = scheduler(1, 1, 1, 2);
+      CountDownLatch release = new CountDownLatch(1);
+      List<Future<Boolean>> downloads = new ArrayList<>();
+
+      // one download running, the next ones stay in queue until a slot is free
+      downloads.add(scheduler.submit(() -> release.await(10, TimeUnit.SECONDS), 0));
+      await(() -> scheduler.getActiveCount() == 1);
+      downloads.add(scheduler.submit(() -> release.await(10, TimeUnit.SECONDS), 0));
+      downloads.add(scheduler.submit(() -> release.await(10, TimeUnit.SECONDS), 0));
+      Thread.sleep(200);
+      Assert.assertEquals(scheduler.getActiveCount(), 1);
+      Assert.assertEquals(scheduler.getQueueDepth(), 2);
+      try
+      {
+         scheduler.submit(() -> true, 0);
+         Assert.fail("Rejection expected");
+      }
+      catch (RejectedExecutionException e)
+      {
+         Assert.assertEquals(e.getMessage(), "Download queue is full (2 downloads)");
+      }
+
+      release.countDown();
+      for (Future<Boolean> download: downloads)
+      {
+         Assert.assertTrue(download.get(10, TimeUnit.SECONDS));
+      }
+   }
+
+   @Test
+   public void testPriorityWhileSaturated() throws Exception
+   {
+      DownloadScheduler scheduler = scheduler(1, 1, 1, 10);
+      CountDownLatch release = new CountDownLatch(1);
+      List<Integer> started = Collections.synchronizedList(new ArrayList<>());
+
+      Future<Boolean> running = scheduler.submit(() -> release.await(10, TimeUnit.SECONDS), 0);
+      await(() -> scheduler.getActiveCount() == 1);
+      Future<Boolean> low = scheduler.submit(() -> started.add(1), 1);
+      Thread.sleep(200);
+
+      // queued after the low priority download, but started first
+      Future<Boolean> high = scheduler.submit(() -> started.add(5), 5);
+      release.countDown();
+      Assert.assertTrue(running.get(10, TimeUnit.SECONDS));
+      Assert.assertTrue(low.get(10, TimeUnit.SECONDS));
+      Assert.assertTrue(high.get(10, TimeUnit.SECONDS));
+      Assert.assertEquals(started, Arrays.asList(5, 1));
+   }
+
+   @Test
+   public void testConcurrencyLimit() throws Exception
+   {
+      DownloadScheduler scheduler = scheduler(2, 1, 4, 100);
+      CountDownLatch release = new CountDownLatch(1);
+      AtomicInteger running = new AtomicInteger();
+      AtomicInteger peak = new AtomicInteger();
+      List<Future<Boolean>> downloads = new ArrayList<>();
+      for (int i = 0; i < 6; i++)
+      {
+         downloads.add(scheduler.submit(() ->
+         {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try
+            {
+               return release.await(10, TimeUnit.SECONDS);
+            }
+            finally
+            {
+               running.decrementAndGet();
+            }
+         }, 0));
+      }
+
+      await(() -> running.get() == 2);
+      Thread.sleep(200);
+      Assert.assertEquals(scheduler.getActiveCount(), 2);
+      Assert.assertEquals(peak.get(), 2);
+
+      release.countDown();
+      for (Future<Boolean> download: downloads)
+      {
+         Assert.assertTrue(download.get(10, TimeUnit.SECONDS));
+      }
+      Assert.assertEquals(peak.get(), 2);
+   }
+
+   @Test
+   public void testAdjust() throws Exception
+   {
+      DownloadScheduler scheduler = scheduler(2, 1, 3, 100);
+      CountDownLatch release = new CountDownLatch(1);
+      List<Future<Boolean>> downloads = new ArrayList<>();
+      for (int i = 0; i < 5; i++)
+      {
+         downloads.add(scheduler.submit(() -> release.await(10, TimeUnit.SECONDS), 0));
+      }
+      await(() -> scheduler.getActiveCount() == 2);
+
+      // first measure, exploring upwards
+      scheduler.adjust(100);
+      Assert.assertEquals(scheduler.getConcurrency(), 3);
+      await(() -> scheduler.getActiveCount() == 3);
+
+      // improved but the maximum is reached, the next move goes downwards
+      scheduler.adjust(200);
+      Assert.assertEquals(scheduler.getConcurrency(), 3);
+
+      // plateau
+      scheduler.adjust(205);
+      Assert.assertEquals(scheduler.getConcurrency(), 3);
+
+      scheduler.adjust(300);
+      Assert.assertEquals(scheduler.getConcurrency(), 2);
+
+      // degraded, going back
+      scheduler.adjust(100);
+      Assert.assertEquals(scheduler.getConcurrency(), 3);
+
+      // not adjusted while the demand is below the limit
+      release.countDown();
+      for (Future<Boolean> download: downloads)
+      {
+         Assert.assertTrue(download.get(10, TimeUnit.SECONDS));
+      }
+      await(() -> scheduler.getActiveCount() == 0);
+      scheduler.adjust(1000);
+      Assert.assertEquals(scheduler.getConcurrency(), 3);
+      Assert.assertEquals(scheduler.getThroughput(), 1000d);
+   }
+}
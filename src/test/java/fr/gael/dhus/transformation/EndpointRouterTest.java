@@ -0,0 +1,184 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.UnreachedWPSException;
+import fr.gael.dhus.webprocess.WPSException;
+
+public class EndpointRouterTest
+{
+   private static final int PORT_A = 1235;
+   private static final int PORT_B = 1236;
+   private static final int PORT_C = 1237;
+   private static final String REQUEST_PATH = "/cgi-bin/pywps.cgi";
+   private static final String TILE_ID = "S2B_OPER_MSI_L2A_TL_MPS__20180222T110232_A005038_T35TNK_N02.06";
+
+   private ClientAndServer serverA;
+   private ClientAndServer serverB;
+   private EndpointRouter router;
+
+   private static ClientAndServer startServer(int port) throws IOException, URISyntaxException
+   {
+      ClientAndServer server = ClientAndServer.startClientAndServer(port);
+      server.when(HttpRequest.request().withPath(REQUEST_PATH).withQueryStringParameter("REQUEST", "GetCapabilities"))
+            .respond(HttpResponse.response().withBody(resource("get_capabilities.xml", port)));
+      server.when(HttpRequest.request().withPath(REQUEST_PATH).withQueryStringParameter("REQUEST", "Execute"))
+            .respond(HttpResponse.response().withBody(resource("l2a_execute_ok.xml", port)));
+      return server;
+   }
+
+   // monitoring URLs of the execute response point to the server which issued them
+   private static String resource(String name, int port) throws IOException, URISyntaxException
+   {
+      byte[] content = Files.readAllBytes(Paths.get(ClassLoader.getSystemResource(name).toURI()));
+      return new String(content, StandardCharsets.UTF_8).replace("localhost:1234", "localhost:" + port);
+   }
+
+   private static String url(int port)
+   {
+      return "http://localhost:" + port + REQUEST_PATH;
+   }
+
+   @BeforeClass
+   public void setUp() throws IOException, URISyntaxException
+   {
+      serverA = startServer(PORT_A);
+      serverB = startServer(PORT_B);
+
+      Map<String, Integer> endpoints = new LinkedHashMap<>();
+      endpoints.put(url(PORT_A), 1);
+      endpoints.put(url(PORT_B), 1);
+      router = new EndpointRouter(endpoints);
+      router.load().join();
+   }
+
+   @AfterClass
+   public void tearDown()
+   {
+      serverA.stop();
+      serverB.stop();
+   }
+
+   @Test
+   public void testSpread() throws WPSException
+   {
+      Map<Integer, Integer> executions = new HashMap<>();
+      for (int i = 0; i < 20; i++)
+      {
+         URL monitoringUrl = router.execute("l2a", TILE_ID, 1).getMonitoringUrl();
+         executions.merge(monitoringUrl.getPort(), 1, Integer::sum);
+
+         // status queries stick to the endpoint which issued the execution
+         Assert.assertEquals(router.forMonitoringUrl(monitoringUrl).getUrl().getPort(), monitoringUrl.getPort());
+      }
+      Assert.assertTrue(executions.containsKey(PORT_A));
+      Assert.assertTrue(executions.containsKey(PORT_B));
+   }
+
+   @Test(dependsOnMethods = "testSpread")
+   public void testFailover() throws WPSException
+   {
+      serverB.stop();
+      for (int i = 0; i < 10; i++)
+      {
+         ProcessExec execution = router.execute("l2a", TILE_ID, 1);
+         Assert.assertEquals(execution.getMonitoringUrl().getPort(), PORT_A);
+      }
+   }
+
+   @Test
+   public void testNoFailoverOnServerError() throws IOException, URISyntaxException
+   {
+      // the execution may have been launched by an endpoint answering with an error
+      ClientAndServer failing = ClientAndServer.startClientAndServer(PORT_C);
+      try
+      {
+         failing.when(HttpRequest.request().withPath(REQUEST_PATH).withQueryStringParameter("REQUEST", "GetCapabilities"))
+               .respond(HttpResponse.response().withBody(resource("get_capabilities.xml", PORT_C)));
+         failing.when(HttpRequest.request().withPath(REQUEST_PATH).withQueryStringParameter("REQUEST", "Execute"))
+               .respond(HttpResponse.response().withStatusCode(500));
+
+         Map<String, Integer> endpoints = new LinkedHashMap<>();
+         endpoints.put(url(PORT_C), 1);
+         endpoints.put(url(PORT_A), 1);
+         EndpointRouter routing = new EndpointRouter(endpoints);
+         routing.load().join();
+
+         int failures = 0;
+         for (int i = 0; i < 20; i++)
+         {
+            try
+            {
+               Assert.assertEquals(routing.execute("l2a", TILE_ID, 1).getMonitoringUrl().getPort(), PORT_A);
+            }
+            catch (WPSException e)
+            {
+               Assert.assertFalse(e instanceof UnreachedWPSException);
+               failures++;
+            }
+         }
+         Assert.assertTrue(failures > 0);
+      }
+      finally
+      {
+         failing.stop();
+      }
+   }
+
+   @Test
+   public void testTracking() throws MalformedURLException
+   {
+      Map<String, Integer> endpoints = new LinkedHashMap<>();
+      endpoints.put("http://wps-a:8080" + REQUEST_PATH, 1);
+      endpoints.put("http://wps-b:8080" + REQUEST_PATH, 1);
+      EndpointRouter tracking = new EndpointRouter(endpoints);
+
+      // executions restored after a restart are tracked on the endpoint which issued them
+      URL monitoringUrl = new URL("http://wps-b:8080/cgi-bin/pywpsmon.cgi?Id=restored");
+      tracking.track(monitoringUrl);
+      tracking.track(monitoringUrl);
+      Assert.assertTrue(tracking.describe().get("http://wps-b:8080" + REQUEST_PATH).contains("outstanding=1,"));
+      Assert.assertTrue(tracking.describe().get("http://wps-a:8080" + REQUEST_PATH).contains("outstanding=0,"));
+
+      tracking.completed(monitoringUrl);
+      tracking.completed(monitoringUrl);
+      Assert.assertTrue(tracking.describe().get("http://wps-b:8080" + REQUEST_PATH).contains("outstanding=0,"));
+   }
+}
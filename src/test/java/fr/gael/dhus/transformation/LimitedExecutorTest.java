@@ -0,0 +1,76 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LimitedExecutorTest
+{
+   @Test
+   public void testLimit() throws InterruptedException
+   {
+      ExecutorService executor = ExecutorFactory.newExecutor("test-limited", false, 3);
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(20);
+      AtomicInteger running = new AtomicInteger();
+      AtomicInteger maxRunning = new AtomicInteger();
+      for (int i = 0; i < 20; i++)
+      {
+         executor.execute(() ->
+         {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try
+            {
+               release.await();
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            done.countDown();
+         });
+      }
+
+      // tasks in excess wait without a thread
+      Thread.sleep(100);
+      Assert.assertEquals(((LimitedExecutor) executor).getRunningCount(), 3);
+      Assert.assertEquals(((LimitedExecutor) executor).getWaitingCount(), 17);
+
+      release.countDown();
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(maxRunning.get(), 3);
+      executor.shutdown();
+   }
+
+   @Test
+   public void testUnbounded()
+   {
+      ExecutorService executor = ExecutorFactory.newExecutor("test-unbounded", false, 0);
+      Assert.assertFalse(executor instanceof LimitedExecutor);
+      executor.shutdown();
+   }
+}
@@ -0,0 +1,132 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class OutputStorageTest
+{
+   private Path directory;
+
+   @BeforeMethod
+   public void setUp() throws IOException
+   {
+      directory = Files.createTempDirectory("outputs");
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void tearDown()
+   {
+      TestFixtures.delete(directory);
+   }
+
+   @Test
+   public void testRelease() throws IOException
+   {
+      OutputStorage outputs = new OutputStorage(directory, directory, 0, 0);
+
+      // transformations of the same execution share their product
+      Path product = TestFixtures.product(directory, "product.zip", 100);
+      outputs.add("a", product);
+      outputs.add("b", product);
+      Assert.assertEquals(outputs.getSize(), 100);
+
+      outputs.release("a");
+      Assert.assertTrue(Files.exists(product));
+      outputs.release("b");
+      Assert.assertFalse(Files.exists(product));
+      Assert.assertEquals(outputs.getSize(), 0);
+      Assert.assertEquals(outputs.getProductCount(), 0);
+   }
+
+   @Test
+   public void testQuota() throws IOException
+   {
+      OutputStorage outputs = new OutputStorage(directory, directory, 250, 0);
+      List<String> evicted = new ArrayList<>();
+      outputs.setEvictionListener(evicted::add);
+
+      Path first = TestFixtures.product(directory, "first.zip", 100);
+      Path second = TestFixtures.product(directory, "second.zip", 100);
+      Path third = TestFixtures.product(directory, "third.zip", 100);
+      outputs.add("first", first);
+      outputs.add("second", second);
+
+      // first product used again, second one is now the least recently used
+      outputs.add("first", first);
+      Assert.assertTrue(outputs.admit());
+      outputs.add("third", third);
+
+      Assert.assertEquals(evicted, Collections.singletonList("second"));
+      Assert.assertFalse(Files.exists(second));
+      Assert.assertTrue(Files.exists(first));
+      Assert.assertTrue(Files.exists(third));
+      Assert.assertEquals(outputs.getSize(), 200);
+      Assert.assertEquals(outputs.getEvictedCount(), 1);
+
+      // released transformations do not own their evicted product anymore
+      outputs.release("second");
+      Assert.assertEquals(outputs.getProductCount(), 2);
+   }
+
+   @Test
+   public void testGrace() throws IOException
+   {
+      AtomicLong clock = new AtomicLong();
+      OutputStorage outputs = new OutputStorage(directory, directory, 100, 0, 1000, clock::get);
+
+      // handed out product possibly still ingested by the DHuS
+      Path product = TestFixtures.product(directory, "a.zip", 100);
+      outputs.add("a", product);
+      clock.set(999);
+      Assert.assertFalse(outputs.admit());
+      Assert.assertTrue(Files.exists(product));
+
+      clock.set(1000);
+      Assert.assertTrue(outputs.admit());
+      Assert.assertFalse(Files.exists(product));
+   }
+
+   @Test
+   public void testAdmit() throws IOException
+   {
+      OutputStorage outputs = new OutputStorage(directory, directory, 100, 0);
+
+      outputs.add("a", TestFixtures.product(directory, "a.zip", 100));
+      // quota reached, room made for the next download
+      Assert.assertTrue(outputs.admit());
+      Assert.assertEquals(outputs.getSize(), 0);
+
+      // free space cannot be made on a file store by evicting nothing
+      OutputStorage full = new OutputStorage(directory, directory, 0, Long.MAX_VALUE);
+      Assert.assertFalse(full.admit());
+   }
+}
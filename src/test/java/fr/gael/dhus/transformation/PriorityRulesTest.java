@@ -0,0 +1,82 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PriorityRulesTest
+{
+   private static final long AGING = 60000;
+
+   private static PriorityRules rules()
+   {
+      Map<String, String> rules = new LinkedHashMap<>();
+      rules.put("emergency", "10|Level-1C PDI Identifier|.*_T(31TCJ|32TLQ)_.*");
+      rules.put("europe", "5 | Level-1C PDI Identifier | .*_T3[0-9][STU].*");
+      return new PriorityRules(1, AGING, rules);
+   }
+
+   private static Map<String, String> tile(String tile)
+   {
+      Map<String, String> metadata = new HashMap<>();
+      metadata.put("Level-1C PDI Identifier", "S2B_OPER_MSI_L1C_TL_MPS__20180222T110232_A005038_T" + tile + "_N02.06");
+      return metadata;
+   }
+
+   @Test
+   public void testPriority()
+   {
+      PriorityRules rules = rules();
+
+      // highest priority of the matching rules
+      Assert.assertEquals(rules.getPriority(tile("31TCJ")), 10);
+      Assert.assertEquals(rules.getPriority(tile("35TNK")), 5);
+      Assert.assertEquals(rules.getPriority(tile("10SEG")), 1);
+      Assert.assertEquals(rules.getPriority(new HashMap<>()), 1);
+   }
+
+   @Test
+   public void testAging()
+   {
+      PriorityRules rules = rules();
+
+      // higher priorities first, whatever the enqueue time within the aging period
+      Assert.assertTrue(rules.rank(5, 1000 + AGING - 1) < rules.rank(4, 1000));
+
+      // one priority level gained per aging period spent waiting
+      Assert.assertTrue(rules.rank(4, 1000) < rules.rank(5, 1000 + AGING + 1));
+
+      // FIFO order within a priority
+      Assert.assertTrue(rules.rank(1, 1000) < rules.rank(1, 1001));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testMalformed()
+   {
+      Map<String, String> rules = new HashMap<>();
+      rules.put("broken", "10|Level-1C PDI Identifier");
+      new PriorityRules(1, AGING, rules);
+   }
+}
@@ -0,0 +1,113 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ProductVerifierTest
+{
+   private static final String MANIFEST =
+         "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+         + "<xfdu:XFDU xmlns:xfdu=\"urn:ccsds:schema:xfdu:1\">\n"
+         + "  <dataObjectSection>\n"
+         + "    <dataObject ID=\"IMG\">\n"
+         + "      <byteStream mimeType=\"application/octet-stream\" size=\"1000\">\n"
+         + "        <fileLocation locatorType=\"URL\" href=\"./GRANULE/IMG_DATA/B01.jp2\"/>\n"
+         + "        <checksum checksumName=\"MD5\">%s</checksum>\n"
+         + "      </byteStream>\n"
+         + "    </dataObject>\n"
+         + "  </dataObjectSection>\n"
+         + "</xfdu:XFDU>\n";
+
+   // MD5 of 1000 zero bytes
+   private static final String CHECKSUM = "ede3d3b685b4e137ba4cb2521329a75e";
+
+   private static byte[] product(String checksum) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ZipOutputStream zip = new ZipOutputStream(bytes))
+      {
+         zip.putNextEntry(new ZipEntry("S2A_MSIL2A.SAFE/manifest.safe"));
+         zip.write(String.format(MANIFEST, checksum).getBytes(StandardCharsets.UTF_8));
+         zip.putNextEntry(new ZipEntry("S2A_MSIL2A.SAFE/GRANULE/IMG_DATA/B01.jp2"));
+         zip.write(new byte[1000]);
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Reads a product through a verifier, then verifies it.
+    */
+   private static void verify(byte[] product, long expectedSize) throws IOException
+   {
+      try (ProductVerifier verifier = new ProductVerifier("S2A_MSIL2A.zip", expectedSize))
+      {
+         ReadableByteChannel channel = verifier.wrap(Channels.newChannel(new ByteArrayInputStream(product)));
+         ByteBuffer buffer = ByteBuffer.allocate(100);
+         while (channel.read(buffer) != -1)
+         {
+            buffer.clear();
+         }
+         verifier.verify();
+      }
+   }
+
+   @Test
+   public void testValid() throws IOException
+   {
+      byte[] product = product(CHECKSUM);
+      verify(product, product.length);
+      verify(product, -1);
+   }
+
+   @Test(expectedExceptions = CorruptProductException.class)
+   public void testChecksumMismatch() throws IOException
+   {
+      byte[] product = product("00000000000000000000000000000000");
+      verify(product, product.length);
+   }
+
+   @Test(expectedExceptions = CorruptProductException.class)
+   public void testTruncated() throws IOException
+   {
+      byte[] product = product(CHECKSUM);
+      verify(Arrays.copyOf(product, product.length / 2), product.length);
+   }
+
+   @Test
+   public void testParseManifest() throws IOException
+   {
+      Assert.assertEquals(ProductVerifier.parseManifest(String.format(MANIFEST, CHECKSUM).getBytes(StandardCharsets.UTF_8)),
+            Collections.singletonMap("GRANULE/IMG_DATA/B01.jp2", CHECKSUM));
+   }
+}
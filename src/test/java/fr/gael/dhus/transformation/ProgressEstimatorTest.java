@@ -0,0 +1,130 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.ProcessStatus;
+
+public class ProgressEstimatorTest
+{
+   private static final long INTERVAL = 30_000;
+   private static final long MIN_INTERVAL = 5_000;
+   private static final long MAX_INTERVAL = 600_000;
+
+   // execution progressing linearly over 30 minutes
+   private static final long DURATION = 1_800_000;
+
+   private static ProcessExecStatus started(int percent)
+   {
+      return new ProcessExecStatus(ProcessStatus.STARTED, percent, null);
+   }
+
+   @Test
+   public void testUnknown()
+   {
+      ProgressEstimator estimator = new ProgressEstimator(INTERVAL, MIN_INTERVAL, MAX_INTERVAL, true);
+      ProgressEstimator.Progress progress = estimator.start(0);
+      Assert.assertEquals(estimator.update(progress, started(40), 0), INTERVAL);
+      Assert.assertEquals(progress.getEstimatedCompletion(), -1);
+
+      ProgressEstimator fixed = new ProgressEstimator(INTERVAL, MIN_INTERVAL, MAX_INTERVAL, false);
+      progress = fixed.start(0);
+      fixed.update(progress, started(0), 0);
+      Assert.assertEquals(fixed.update(progress, started(50), 1000), INTERVAL);
+   }
+
+   @Test
+   public void testProgressRate()
+   {
+      ProgressEstimator estimator = new ProgressEstimator(INTERVAL, MIN_INTERVAL, MAX_INTERVAL, true);
+      ProgressEstimator.Progress progress = estimator.start(0);
+      estimator.update(progress, new ProcessExecStatus(ProcessStatus.ACCEPTED, 0, null), 0);
+
+      // rate measured once started
+      Assert.assertEquals(estimator.update(progress, started(10), 60_000), INTERVAL);
+
+      // 10% per minute, 8 minutes remaining, polled again halfway but after twice the observed time
+      Assert.assertEquals(estimator.update(progress, started(20), 120_000), 120_000);
+      Assert.assertEquals(progress.getEstimatedCompletion(), 600_000);
+      Assert.assertEquals(estimator.update(progress, started(40), 240_000), 180_000);
+
+      // close to completion
+      Assert.assertEquals(estimator.update(progress, started(99), 594_000), MIN_INTERVAL);
+   }
+
+   @Test
+   public void testFewerPolls()
+   {
+      ProgressEstimator estimator = new ProgressEstimator(INTERVAL, MIN_INTERVAL, MAX_INTERVAL, true);
+      ProgressEstimator.Progress progress = estimator.start(0);
+      long now = 0;
+      int polls = 0;
+      while (now < DURATION)
+      {
+         polls++;
+         now += estimator.update(progress, started((int) (now * 100 / DURATION)), now);
+      }
+
+      // an order of magnitude less than the 60 polls at a fixed interval, completion detected sooner
+      Assert.assertTrue(polls <= DURATION / INTERVAL / 5, polls + " polls");
+      Assert.assertTrue(now - DURATION <= MIN_INTERVAL, "detected after " + (now - DURATION) + " ms");
+   }
+
+   @Test
+   public void testTypicalDuration()
+   {
+      ProgressEstimator estimator = new ProgressEstimator(INTERVAL, MIN_INTERVAL, MAX_INTERVAL, true);
+      ProgressEstimator.Progress first = estimator.start(0);
+      estimator.update(first, started(0), 0);
+      estimator.completed(first, DURATION);
+      Assert.assertEquals(estimator.getTypicalDuration(), DURATION);
+
+      // no progression reported, estimated from the typical duration but not polled less often
+      ProgressEstimator.Progress second = estimator.start(0);
+      Assert.assertEquals(estimator.update(second, started(0), 600_000), INTERVAL);
+      Assert.assertEquals(second.getEstimatedCompletion(), DURATION);
+      Assert.assertEquals(estimator.update(second, started(0), 1_790_000), MIN_INTERVAL);
+
+      // overdue
+      Assert.assertEquals(estimator.update(second, started(0), 2_000_000), INTERVAL);
+   }
+
+   @Test
+   public void testEarlyCompletion()
+   {
+      ProgressEstimator estimator = new ProgressEstimator(INTERVAL, MIN_INTERVAL, MAX_INTERVAL, true);
+      ProgressEstimator.Progress first = estimator.start(0);
+      estimator.update(first, started(0), 0);
+      estimator.completed(first, DURATION);
+
+      // accepted execution finishing well before the typical duration, without progression
+      long completion = 120_000;
+      ProgressEstimator.Progress progress = estimator.start(0);
+      long now = 0;
+      while (now < completion)
+      {
+         now += estimator.update(progress, new ProcessExecStatus(ProcessStatus.ACCEPTED, 0, null), now);
+      }
+      Assert.assertTrue(now - completion <= INTERVAL, "detected after " + (now - completion) + " ms");
+   }
+}
@@ -0,0 +1,112 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ResultCacheTest
+{
+   private static final ProcessingKey KEY_A = new ProcessingKey("T35TNK", "0.0.7", "60");
+   private static final ProcessingKey KEY_B = new ProcessingKey("T31UDQ", "0.0.7", "60");
+   private static final ProcessingKey KEY_A_20 = new ProcessingKey("T35TNK", "0.0.7", "20");
+
+   private Path root;
+
+   @BeforeMethod
+   public void setUp() throws IOException
+   {
+      root = Files.createTempDirectory("result-cache");
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void tearDown()
+   {
+      TestFixtures.delete(root);
+   }
+
+   @Test
+   public void testPutRestoreAndReload() throws IOException
+   {
+      Path cacheDir = root.resolve("cache");
+      Path outputDir = Files.createDirectories(root.resolve("output"));
+
+      ResultCache cache = new ResultCache(cacheDir, 1000, 0);
+      cache.put(KEY_A, TestFixtures.product(root, "A.zip", 100));
+      Assert.assertTrue(cache.contains(KEY_A));
+      Assert.assertFalse(cache.contains(KEY_B));
+
+      // index survives a restart
+      ResultCache reloaded = new ResultCache(cacheDir, 1000, 0);
+      Assert.assertTrue(reloaded.contains(KEY_A));
+      Assert.assertEquals(reloaded.getSize(), 100);
+
+      Path restored = reloaded.restore(KEY_A, outputDir);
+      Assert.assertEquals(restored, outputDir.resolve("A.zip"));
+      Assert.assertEquals(Files.size(restored), 100);
+      Assert.assertNull(reloaded.restore(KEY_B, outputDir));
+   }
+
+   @Test
+   public void testSizeEviction() throws IOException
+   {
+      ResultCache cache = new ResultCache(root.resolve("cache"), 150, 0);
+
+      cache.put(KEY_A, TestFixtures.product(root, "A.zip", 100));
+      cache.put(KEY_B, TestFixtures.product(root, "B.zip", 100));
+
+      // least recently used entry evicted
+      Assert.assertFalse(cache.contains(KEY_A));
+      Assert.assertTrue(cache.contains(KEY_B));
+      Assert.assertEquals(cache.getSize(), 100);
+      Assert.assertEquals(cache.getEntryCount(), 1);
+   }
+
+   @Test
+   public void testSameProductName() throws IOException
+   {
+      ResultCache cache = new ResultCache(root.resolve("cache"), 1000, 0);
+      Path outputDir = Files.createDirectories(root.resolve("output"));
+
+      // the same tile at two resolutions gives products of the same name
+      cache.put(KEY_A, TestFixtures.product(Files.createDirectories(root.resolve("60")), "A.zip", 100));
+      cache.put(KEY_A_20, TestFixtures.product(Files.createDirectories(root.resolve("20")), "A.zip", 200));
+      Assert.assertTrue(cache.contains(KEY_A));
+      Assert.assertTrue(cache.contains(KEY_A_20));
+
+      Assert.assertEquals(Files.size(cache.restore(KEY_A, outputDir)), 100);
+      Assert.assertEquals(Files.size(cache.restore(KEY_A_20, outputDir)), 200);
+   }
+
+   @Test
+   public void testDisabled() throws IOException
+   {
+      ResultCache cache = new ResultCache();
+      Assert.assertFalse(cache.isEnabled());
+      Assert.assertFalse(cache.contains(KEY_A));
+      Assert.assertNull(cache.restore(KEY_A, root));
+   }
+}
@@ -0,0 +1,176 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ResumableDownloadTest
+{
+   private static final int SIZE = 1024 * 1024;
+   private static final int RECEIVED = 300_000;
+
+   private final byte[] content = new byte[SIZE];
+   private final List<String> ranges = new CopyOnWriteArrayList<>();
+   private volatile boolean rangeSupported = true;
+
+   private HttpServer server;
+   private URL url;
+   private DownloadScheduler scheduler;
+   private TransferPipeline pipeline;
+   private Path directory;
+
+   @BeforeClass
+   public void setUp() throws IOException
+   {
+      new Random(42).nextBytes(content);
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/result.tar", this::handle);
+      server.start();
+      url = new URL("http://localhost:" + server.getAddress().getPort() + "/result.tar");
+      scheduler = new DownloadScheduler(Configuration.getInstance());
+      pipeline = new TransferPipeline(Configuration.getInstance());
+   }
+
+   @AfterClass
+   public void tearDown()
+   {
+      server.stop(0);
+   }
+
+   @BeforeMethod
+   public void createDirectory() throws IOException
+   {
+      directory = Files.createTempDirectory("resumable");
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void deleteDirectory()
+   {
+      TestFixtures.delete(directory);
+   }
+
+   private void handle(HttpExchange exchange) throws IOException
+   {
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      ranges.add(String.valueOf(range));
+      int offset = 0;
+      int last = SIZE - 1;
+      if (rangeSupported && range != null)
+      {
+         String[] bounds = range.substring("bytes=".length()).split("-", -1);
+         offset = Integer.parseInt(bounds[0]);
+         if (!bounds[1].isEmpty())
+         {
+            last = Integer.parseInt(bounds[1]);
+         }
+         exchange.getResponseHeaders().add("Content-Range", "bytes " + offset + "-" + last + "/" + SIZE);
+         exchange.sendResponseHeaders(206, last - offset + 1);
+      }
+      else
+      {
+         exchange.sendResponseHeaders(200, SIZE);
+      }
+      try (OutputStream output = exchange.getResponseBody())
+      {
+         output.write(content, offset, last - offset + 1);
+      }
+   }
+
+   private Path preparePartialDownload() throws IOException
+   {
+      Path target = directory.resolve("result.tar");
+      Files.write(Paths.get(target + ".part"), Arrays.copyOf(content, RECEIVED));
+
+      Properties checkpoint = new Properties();
+      checkpoint.setProperty("url", url.toString());
+      checkpoint.setProperty("bytes", Integer.toString(RECEIVED));
+      try (OutputStream output = Files.newOutputStream(Paths.get(target + ".part.checkpoint")))
+      {
+         checkpoint.store(output, null);
+      }
+      return target;
+   }
+
+   @Test
+   public void testResume() throws IOException
+   {
+      rangeSupported = true;
+      ranges.clear();
+      Path target = preparePartialDownload();
+
+      Path result = new ResumableDownload(url, target, scheduler, pipeline, Configuration.getInstance()).run();
+
+      Assert.assertEquals(ranges, Arrays.asList("bytes=" + RECEIVED + "-"));
+      Assert.assertEquals(Files.readAllBytes(result), content);
+      Assert.assertFalse(Files.exists(Paths.get(target + ".part")));
+      Assert.assertFalse(Files.exists(Paths.get(target + ".part.checkpoint")));
+   }
+
+   @Test
+   public void testSegmented() throws IOException
+   {
+      rangeSupported = true;
+      ranges.clear();
+      Path target = directory.resolve("result.tar");
+
+      Path result = new ResumableDownload(url, target, scheduler, pipeline, Configuration.getInstance()).run();
+
+      // probe and 4 segments of 256 KiB
+      Assert.assertEquals(ranges.size(), 5);
+      Assert.assertTrue(ranges.contains("bytes=0-0"));
+      Assert.assertTrue(ranges.contains("bytes=0-262143"));
+      Assert.assertTrue(ranges.contains("bytes=786432-1048575"));
+      Assert.assertEquals(Files.readAllBytes(result), content);
+   }
+
+   @Test
+   public void testRangeIgnored() throws IOException
+   {
+      rangeSupported = false;
+      ranges.clear();
+      Path target = preparePartialDownload();
+
+      Path result = new ResumableDownload(url, target, scheduler, pipeline, Configuration.getInstance()).run();
+
+      Assert.assertEquals(ranges.size(), 1);
+      Assert.assertEquals(Files.readAllBytes(result), content);
+   }
+}
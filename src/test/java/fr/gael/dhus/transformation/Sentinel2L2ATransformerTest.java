@@ -0,0 +1,271 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.dhus.api.transformation.TransformationException;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class Sentinel2L2ATransformerTest
+{
+   // nothing listens on the discard port
+   private static final String UNREACHABLE_URL = "http://localhost:9/cgi-bin/pywps.cgi";
+
+   private static final String TILE_ID = "S2B_OPER_MSI_L1C_TL_MPS__20180222T110232_A005038_T35TNK_N02.06";
+
+   private Path directory;
+
+   @BeforeMethod
+   public void setUp() throws IOException
+   {
+      directory = Files.createTempDirectory("transformer");
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void tearDown()
+   {
+      TestFixtures.delete(directory);
+   }
+
+   private static Configuration configuration(Path directory, String url) throws IOException
+   {
+      return new Configuration(properties(directory, url));
+   }
+
+   private static Properties properties(Path directory, String url) throws IOException
+   {
+      Properties properties = TestFixtures.properties(directory);
+      properties.setProperty("wps.url", url);
+      properties.setProperty("wps.capabilities.ttl", "0");
+      return properties;
+   }
+
+   @Test
+   public void testTerminateWhileWpsUnreachable() throws IOException
+   {
+      Configuration conf = configuration(directory, UNREACHABLE_URL);
+
+      // product completed before a restart
+      Path product = Files.createDirectories(conf.getDataDirectory()).resolve("S2_l2a.zip");
+      Files.write(product, new byte[1024]);
+      new StateJournal(conf.getJournalFile(), 1000).completed("completed", product.toUri().toString());
+
+      Sentinel2L2ATransformer transformer = new Sentinel2L2ATransformer(conf, false);
+      transformer.terminateTransformation("completed");
+
+      Assert.assertFalse(Files.exists(product));
+      Assert.assertNull(new StateJournal(conf.getJournalFile(), 1000).get("completed"));
+   }
+
+   @Test
+   public void testResumeDownloadWhileWpsUnreachable() throws Exception
+   {
+      Properties properties = properties(directory, UNREACHABLE_URL);
+      properties.setProperty("wps.download.verify", "false");
+      Configuration conf = new Configuration(properties);
+
+      // result being downloaded before a restart, its output URL needs no WPS
+      Path archive = directory.resolve("result.tar");
+      try (TarArchiveOutputStream output = new TarArchiveOutputStream(Files.newOutputStream(archive)))
+      {
+         output.putArchiveEntry(new TarArchiveEntry("S2_l2a/"));
+         output.closeArchiveEntry();
+         TarArchiveEntry entry = new TarArchiveEntry("S2_l2a/S2_l2a.SAFE.zip");
+         entry.setSize(1024);
+         output.putArchiveEntry(entry);
+         output.write(new byte[1024]);
+         output.closeArchiveEntry();
+      }
+      new StateJournal(conf.getJournalFile(), 1000).downloading("downloading", archive.toUri().toString());
+
+      // the warm-up fails, the download is resumed regardless
+      Sentinel2L2ATransformer transformer = new Sentinel2L2ATransformer(conf, true);
+      Path product = conf.getDataDirectory().resolve("S2_l2a.zip");
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!Files.exists(product))
+      {
+         Assert.assertTrue(System.nanoTime() < deadline, "download not resumed in time");
+         Thread.sleep(10);
+      }
+      Assert.assertEquals(Files.size(product), 1024);
+      Assert.assertFalse(transformer.isReady());
+   }
+
+   @Test
+   public void testTerminateWhileDownloading() throws Exception
+   {
+      Properties properties = properties(directory, UNREACHABLE_URL);
+      properties.setProperty("wps.download.segments", "1");
+      properties.setProperty("wps.download.timeout", "2000");
+      Configuration conf = new Configuration(properties);
+
+      // sends the beginning of the result, then stalls
+      CountDownLatch stalled = new CountDownLatch(1);
+      HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      ExecutorService executor = Executors.newCachedThreadPool();
+      server.setExecutor(executor);
+      server.createContext("/result.tar", exchange ->
+      {
+         exchange.sendResponseHeaders(200, 1024 * 1024);
+         OutputStream output = exchange.getResponseBody();
+         output.write(new byte[64 * 1024]);
+         output.flush();
+         try
+         {
+            stalled.await();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         exchange.close();
+      });
+      server.start();
+      try
+      {
+         String url = "http://localhost:" + server.getAddress().getPort() + "/result.tar";
+         new StateJournal(conf.getJournalFile(), 1000).downloading("downloading", url);
+         Sentinel2L2ATransformer transformer = new Sentinel2L2ATransformer(conf, true);
+         awaitPartialDownload(conf.getTmpDirectory(), true);
+
+         // the cancelled download leaves no partial file behind
+         transformer.terminateTransformation("downloading");
+         awaitPartialDownload(conf.getTmpDirectory(), false);
+      }
+      finally
+      {
+         stalled.countDown();
+         server.stop(0);
+         executor.shutdownNow();
+      }
+   }
+
+   private static void awaitPartialDownload(Path tmpDir, boolean present) throws IOException, InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (hasPartialDownload(tmpDir) != present)
+      {
+         Assert.assertTrue(System.nanoTime() < deadline, "partial download " + (present ? "missing" : "left"));
+         Thread.sleep(10);
+      }
+   }
+
+   private static boolean hasPartialDownload(Path tmpDir) throws IOException
+   {
+      try (Stream<Path> files = Files.list(tmpDir))
+      {
+         return files.anyMatch(file -> file.getFileName().toString().startsWith("download-"));
+      }
+   }
+
+   @Test
+   public void testWarmupWait() throws Exception
+   {
+      // accepts connections but never answers, the warm-up does not end
+      try (ServerSocket silent = new ServerSocket(0))
+      {
+         Properties properties = properties(directory,
+               "http://localhost:" + silent.getLocalPort() + "/cgi-bin/pywps.cgi");
+         properties.setProperty("wps.warmup.wait", "100");
+         Sentinel2L2ATransformer transformer = new Sentinel2L2ATransformer(new Configuration(properties), true);
+
+         // the injected warm-up wait applies, not the one of the classpath
+         long start = System.nanoTime();
+         try
+         {
+            transformer.submit("uuid", Collections.emptyMap());
+            Assert.fail("Warming up expected");
+         }
+         catch (TransformationException e)
+         {
+            Assert.assertEquals(e.getMessage(), "Service is warming up, please retry later.");
+         }
+         long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+         Assert.assertTrue(elapsed < 2000, "waited " + elapsed + " ms");
+         Assert.assertFalse(transformer.isReady());
+      }
+   }
+
+   @Test
+   public void testWarmupRetry() throws Exception
+   {
+      int port;
+      try (ServerSocket socket = new ServerSocket(0))
+      {
+         port = socket.getLocalPort();
+      }
+      Properties properties = properties(directory,
+            "http://localhost:" + port + "/cgi-bin/pywps.cgi");
+      properties.setProperty("wps.warmup.wait", "30000");
+      Sentinel2L2ATransformer transformer = new Sentinel2L2ATransformer(new Configuration(properties), true);
+
+      // nothing listens yet, the warm-up fails
+      try
+      {
+         transformer.submit("uuid", Collections.emptyMap());
+         Assert.fail("Failure expected");
+      }
+      catch (TransformationException e)
+      {
+         Assert.assertTrue(e.getMessage().startsWith("Service not reachable"), e.getMessage());
+      }
+      Assert.assertFalse(transformer.isReady());
+
+      // the next request starts the warm-up again
+      byte[] capabilities = Files.readAllBytes(Paths.get(ClassLoader.getSystemResource("get_capabilities.xml").toURI()));
+      ClientAndServer server = ClientAndServer.startClientAndServer(port);
+      try
+      {
+         server.when(HttpRequest.request().withQueryStringParameter("REQUEST", "GetCapabilities"))
+               .respond(HttpResponse.response().withBody(new String(capabilities, StandardCharsets.UTF_8)));
+         transformer.submit("uuid", Collections.singletonMap("Level-1C PDI Identifier", TILE_ID));
+         Assert.assertTrue(transformer.isReady());
+      }
+      finally
+      {
+         server.stop();
+      }
+   }
+}
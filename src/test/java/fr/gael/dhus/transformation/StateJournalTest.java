@@ -0,0 +1,119 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class StateJournalTest
+{
+   private static final String MONITORING_URL = "https://domain.cgi/status/1";
+   private static final String OUTPUT_URL = "https://domain.cgi/output/1.tar";
+
+   private Path directory;
+
+   @BeforeMethod
+   public void setUp() throws IOException
+   {
+      directory = Files.createTempDirectory("journal");
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void tearDown()
+   {
+      TestFixtures.delete(directory);
+   }
+
+   @Test
+   public void testReplay() throws IOException
+   {
+      Path file = directory.resolve("state.journal");
+
+      StateJournal journal = new StateJournal(file, 1000);
+      journal.submitted("a", MONITORING_URL, "tile", 3);
+      journal.submitted("b", MONITORING_URL, "tile", 3);
+      journal.downloading("a", OUTPUT_URL);
+      journal.progress("a", 1024);
+      journal.removed("b");
+
+      // a record truncated by a crash is ignored
+      Files.write(file, "DOWNLOADING\tc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+      StateJournal replayed = new StateJournal(file, 1000);
+      Assert.assertEquals(replayed.getEntryCount(), 1);
+      Assert.assertNull(replayed.get("b"));
+
+      StateJournal.Entry entry = replayed.get("a");
+      Assert.assertEquals(entry.getState(), StateJournal.State.DOWNLOADING);
+      Assert.assertEquals(entry.getMonitoringUrl(), MONITORING_URL);
+      Assert.assertEquals(entry.getOutputUrl(), OUTPUT_URL);
+      Assert.assertEquals(entry.getBytes(), 1024);
+      Assert.assertEquals(entry.getTileId(), "tile");
+      Assert.assertEquals(entry.getPriority(), 3);
+
+      replayed.completed("a", "file:/tmp/A.zip");
+      entry = new StateJournal(file, 1000).get("a");
+      Assert.assertEquals(entry.getState(), StateJournal.State.COMPLETED);
+      Assert.assertEquals(entry.getOutputUrl(), "file:/tmp/A.zip");
+      Assert.assertEquals(entry.getTileId(), "tile");
+      Assert.assertEquals(entry.getPriority(), 3);
+   }
+
+   @Test
+   public void testQueued() throws IOException
+   {
+      Path file = directory.resolve("state.journal");
+
+      new StateJournal(file, 1000).queued("a", "tile", 7);
+
+      StateJournal replayed = new StateJournal(file, 1000);
+      StateJournal.Entry entry = replayed.get("a");
+      Assert.assertEquals(entry.getState(), StateJournal.State.QUEUED);
+      Assert.assertEquals(entry.getTileId(), "tile");
+      Assert.assertEquals(entry.getPriority(), 7);
+      Assert.assertNull(entry.getMonitoringUrl());
+   }
+
+   @Test
+   public void testCompaction() throws IOException
+   {
+      Path file = directory.resolve("state.journal");
+
+      StateJournal journal = new StateJournal(file, 10);
+      journal.submitted("a", MONITORING_URL, "tile", 3);
+      journal.downloading("a", OUTPUT_URL);
+      for (int i = 1; i <= 20; i++)
+      {
+         journal.progress("a", i);
+      }
+
+      // only the live record is kept once compacted
+      Assert.assertTrue(Files.readAllLines(file).size() < 10);
+      Assert.assertEquals(new StateJournal(file, 10).get("a").getBytes(), 20);
+   }
+}
@@ -0,0 +1,153 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.ProcessStatus;
+import fr.gael.dhus.webprocess.WpsSimulator;
+
+public class StatusPollerTest
+{
+   private static final String TILE_ID = "S2B_OPER_MSI_L2A_TL_MPS__20180222T110232_A005038_T35TNK_N02.06";
+
+   private static Configuration configuration(URL url, double rate, long interval) throws IOException
+   {
+      Properties properties = new Properties();
+      try (InputStream input = StatusPollerTest.class.getResourceAsStream("/l2aOnDemand.properties"))
+      {
+         properties.load(input);
+      }
+      properties.setProperty("wps.url", url.toString());
+      properties.setProperty("wps.poller.rate", String.valueOf(rate));
+      properties.setProperty("wps.poller.interval", String.valueOf(interval));
+      properties.setProperty("wps.poller.adaptive", "false");
+      return new Configuration(properties);
+   }
+
+   private static EndpointRouter router(URL url) throws IOException
+   {
+      EndpointRouter router = new EndpointRouter(Collections.singletonMap(url.toString(), 1));
+      router.load().join();
+      return router;
+   }
+
+   @Test
+   public void testCachedStatus() throws Exception
+   {
+      // executions still running at the end of the test
+      try (WpsSimulator simulator = new WpsSimulator().runDuration(WpsSimulator.constant(600_000)).start())
+      {
+         EndpointRouter router = router(simulator.getServiceUrl());
+         StatusPoller poller = new StatusPoller(configuration(simulator.getServiceUrl(), 100, 200), router);
+         URL monitoringUrl = router.execute("l2a", TILE_ID, 1).getMonitoringUrl();
+
+         // not polled yet, registered on first call
+         Assert.assertNull(poller.getStatus("first", monitoringUrl));
+         poller.register("second", monitoringUrl);
+         Assert.assertEquals(poller.getTrackedExecutions(), 1);
+
+         long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+         while (poller.getStatus("first", monitoringUrl) == null)
+         {
+            Assert.assertTrue(System.nanoTime() < deadline, "not polled in time");
+            Thread.sleep(10);
+         }
+
+         // status requests of the transformations are served from memory
+         int polls = simulator.getStatusCount();
+         for (int i = 0; i < 1000; i++)
+         {
+            ProcessExecStatus status = poller.getStatus(i % 2 == 0 ? "first" : "second", monitoringUrl);
+            Assert.assertEquals(status.getStatus(), ProcessStatus.STARTED);
+         }
+         Assert.assertTrue(simulator.getStatusCount() - polls <= 1, simulator.getStatusCount() - polls + " polls");
+
+         // shared execution polled once per interval
+         Thread.sleep(1000);
+         polls = simulator.getStatusCount();
+         Assert.assertTrue(polls <= 1000 / 200 + 2, polls + " polls");
+
+         // forgotten once no transformation references it
+         poller.unregister("first");
+         Assert.assertEquals(poller.getTrackedExecutions(), 1);
+         poller.unregister("second");
+         Assert.assertEquals(poller.getTrackedExecutions(), 0);
+      }
+   }
+
+   @Test
+   public void testTerminationListener() throws Exception
+   {
+      try (WpsSimulator simulator = new WpsSimulator().runDuration(WpsSimulator.constant(100)).start())
+      {
+         EndpointRouter router = router(simulator.getServiceUrl());
+         StatusPoller poller = new StatusPoller(configuration(simulator.getServiceUrl(), 100, 50), router);
+         Set<String> terminated = ConcurrentHashMap.newKeySet();
+         poller.setTerminationListener(terminated::add);
+
+         URL monitoringUrl = router.execute("l2a", TILE_ID, 1).getMonitoringUrl();
+         poller.register("first", monitoringUrl);
+         poller.register("second", monitoringUrl);
+
+         long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+         while (terminated.size() < 2)
+         {
+            Assert.assertTrue(System.nanoTime() < deadline, "not terminated in time");
+            Thread.sleep(10);
+         }
+         Assert.assertEquals(poller.getStatus("first", monitoringUrl).getStatus(), ProcessStatus.SUCCEEDED);
+      }
+   }
+
+   @Test
+   public void testRateCap() throws Exception
+   {
+      try (WpsSimulator simulator = new WpsSimulator().runDuration(WpsSimulator.constant(600_000)).start())
+      {
+         EndpointRouter router = router(simulator.getServiceUrl());
+
+         // polled every 10 ms each without cap, 2000 polls per second
+         StatusPoller poller = new StatusPoller(configuration(simulator.getServiceUrl(), 20, 10), router);
+         for (int i = 0; i < 20; i++)
+         {
+            poller.register("uuid-" + i, router.execute("l2a", TILE_ID, 1).getMonitoringUrl());
+         }
+
+         Thread.sleep(500);
+         int start = simulator.getStatusCount();
+         Thread.sleep(1000);
+         int polls = simulator.getStatusCount() - start;
+         Assert.assertTrue(polls > 0, "not polled");
+         Assert.assertTrue(polls <= 22, polls + " polls in a second");
+      }
+   }
+}
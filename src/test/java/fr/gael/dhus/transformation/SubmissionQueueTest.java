@@ -0,0 +1,181 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fr.gael.dhus.webprocess.NonCriticalWPSException;
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.WPSException;
+
+public class SubmissionQueueTest
+{
+   private static final PriorityRules PRIORITIES = new PriorityRules(1, 60000, Collections.emptyMap());
+
+   @Test
+   public void testTokenBucket()
+   {
+      AtomicLong clock = new AtomicLong();
+      TokenBucket bucket = new TokenBucket(2, 3, clock::get);
+
+      // burst up to the capacity
+      Assert.assertTrue(bucket.tryAcquire());
+      Assert.assertTrue(bucket.tryAcquire());
+      Assert.assertTrue(bucket.tryAcquire());
+      Assert.assertFalse(bucket.tryAcquire());
+
+      // two tokens per second
+      clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+      Assert.assertTrue(bucket.tryAcquire());
+      Assert.assertFalse(bucket.tryAcquire());
+
+      // refilled up to the capacity only
+      clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+      Assert.assertEquals(bucket.getTokens(), 3d);
+   }
+
+   @Test
+   public void testRateLimit() throws Exception
+   {
+      AtomicLong clock = new AtomicLong();
+      AtomicInteger counter = new AtomicInteger();
+      SubmissionQueue queue = new SubmissionQueue(new TokenBucket(1, 2, clock::get), 0, 100, PRIORITIES, () -> 0);
+
+      for (int i = 0; i < 5; i++)
+      {
+         Assert.assertTrue(queue.enqueue("uuid-" + i, 1, TestFixtures.submission(counter)));
+      }
+      queue.get("uuid-1").get(5, TimeUnit.SECONDS);
+      Thread.sleep(200);
+      Assert.assertEquals(counter.get(), 2);
+      Assert.assertEquals(queue.getQueuedCount(), 3);
+      Assert.assertFalse(queue.get("uuid-2").isDone());
+
+      // one more token
+      clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+      queue.get("uuid-2").get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(counter.get(), 3);
+
+      // cancelled while queued
+      queue.forget("uuid-4");
+      Assert.assertNull(queue.get("uuid-4"));
+      Assert.assertEquals(queue.getQueuedCount(), 1);
+   }
+
+   @Test
+   public void testMaxOutstanding() throws Exception
+   {
+      AtomicInteger counter = new AtomicInteger();
+      AtomicInteger outstanding = new AtomicInteger();
+      SubmissionQueue queue = new SubmissionQueue(new TokenBucket(0, 1), 2, 100, PRIORITIES, outstanding::get);
+
+      SubmissionRegistry.Submission submission = TestFixtures.submission(counter);
+      for (int i = 0; i < 4; i++)
+      {
+         Assert.assertTrue(queue.enqueue("uuid-" + i, 1, () ->
+         {
+            outstanding.incrementAndGet();
+            return submission.submit();
+         }));
+      }
+      CompletableFuture.allOf(queue.get("uuid-0"), queue.get("uuid-1")).get(5, TimeUnit.SECONDS);
+      Thread.sleep(200);
+      Assert.assertEquals(counter.get(), 2);
+
+      // an execution terminates
+      outstanding.decrementAndGet();
+      queue.get("uuid-2").get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(counter.get(), 3);
+      Assert.assertFalse(queue.get("uuid-3").isDone());
+   }
+
+   @Test
+   public void testRequeue() throws Exception
+   {
+      AtomicInteger attempts = new AtomicInteger();
+      AtomicInteger counter = new AtomicInteger();
+      SubmissionRegistry.Submission submission = TestFixtures.submission(counter);
+      SubmissionQueue queue = new SubmissionQueue(new TokenBucket(0, 1), 0, 1, PRIORITIES, () -> 0);
+
+      Assert.assertTrue(queue.enqueue("uuid-0", 1, () ->
+      {
+         if (attempts.incrementAndGet() < 3)
+         {
+            throw new NonCriticalWPSException("Quota exceeded");
+         }
+         return submission.submit();
+      }));
+      Assert.assertNotNull(queue.get("uuid-0").get(5, TimeUnit.SECONDS));
+      Assert.assertEquals(attempts.get(), 3);
+
+      // critical errors fail the submission
+      Assert.assertTrue(queue.enqueue("uuid-1", 1, () ->
+      {
+         throw new WPSException("Unknown process");
+      }));
+      CompletableFuture<ProcessExec> failed = queue.get("uuid-1");
+      Assert.assertTrue(failed.handle((execution, error) -> error).get(5, TimeUnit.SECONDS) instanceof WPSException);
+   }
+
+   @Test
+   public void testPriority() throws Exception
+   {
+      AtomicLong clock = new AtomicLong();
+      AtomicInteger counter = new AtomicInteger();
+      List<String> dispatched = new CopyOnWriteArrayList<>();
+      SubmissionQueue queue = new SubmissionQueue(new TokenBucket(1, 1, clock::get), 0, 100, PRIORITIES, () -> 0);
+
+      // the only token is taken by the first submission, the others wait
+      SubmissionRegistry.Submission submission = TestFixtures.submission(counter);
+      for (String uuid: new String[] {"bulk-1", "bulk-2", "urgent", "bulk-3"})
+      {
+         int priority = uuid.equals("urgent") ? 5 : 1;
+         Assert.assertTrue(queue.enqueue(uuid, priority, () ->
+         {
+            dispatched.add(uuid);
+            return submission.submit();
+         }));
+         if (uuid.equals("bulk-1"))
+         {
+            queue.get(uuid).get(5, TimeUnit.SECONDS);
+         }
+      }
+
+      for (int i = 0; i < 3; i++)
+      {
+         clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+         while (dispatched.size() < i + 2)
+         {
+            Thread.sleep(10);
+         }
+      }
+      Assert.assertEquals(dispatched.subList(1, 4), Arrays.asList("urgent", "bulk-2", "bulk-3"));
+   }
+}
@@ -0,0 +1,189 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.WPSException;
+
+public class SubmissionRegistryTest
+{
+   private static final ProcessingKey KEY = new ProcessingKey("T35TNK", "0.0.7", "60");
+
+   @Test
+   public void testCoalescing() throws WPSException
+   {
+      SubmissionRegistry registry = new SubmissionRegistry();
+      AtomicInteger counter = new AtomicInteger();
+
+      ProcessExec first = registry.submit("uuid-1", KEY, TestFixtures.submission(counter));
+      ProcessExec second = registry.submit("uuid-2", KEY, TestFixtures.submission(counter));
+      Assert.assertEquals(counter.get(), 1);
+      Assert.assertSame(second, first);
+      Assert.assertEquals(registry.getKey("uuid-2"), KEY);
+
+      // execution kept as long as a transformation references it
+      registry.release("uuid-1");
+      Assert.assertEquals(registry.getInFlightCount(), 1);
+      registry.release("uuid-2");
+      Assert.assertEquals(registry.getInFlightCount(), 0);
+
+      registry.submit("uuid-3", KEY, TestFixtures.submission(counter));
+      Assert.assertEquals(counter.get(), 2);
+   }
+
+   @Test
+   public void testAttach() throws WPSException
+   {
+      SubmissionRegistry registry = new SubmissionRegistry();
+      AtomicInteger counter = new AtomicInteger();
+
+      // nothing in flight, the submission is left to the caller
+      Assert.assertNull(registry.attach("uuid-1", KEY));
+      Assert.assertNull(registry.getKey("uuid-1"));
+      Assert.assertEquals(registry.getInFlightCount(), 0);
+
+      ProcessExec execution = registry.submit("uuid-2", KEY, TestFixtures.submission(counter));
+      Assert.assertSame(registry.attach("uuid-3", KEY).join(), execution);
+      Assert.assertEquals(registry.getKey("uuid-3"), KEY);
+
+      // the execution is released once both transformations are
+      registry.release("uuid-2");
+      Assert.assertTrue(registry.isInFlight(KEY));
+      registry.release("uuid-3");
+      Assert.assertNull(registry.attach("uuid-4", KEY));
+      Assert.assertEquals(counter.get(), 1);
+   }
+
+   @Test
+   public void testFinished() throws WPSException
+   {
+      SubmissionRegistry registry = new SubmissionRegistry();
+      AtomicInteger counter = new AtomicInteger();
+
+      registry.submit("uuid-1", KEY, TestFixtures.submission(counter));
+      registry.submit("uuid-2", KEY, TestFixtures.submission(counter));
+
+      // ended remotely, new transformations start a new execution
+      registry.finished("uuid-1");
+      Assert.assertFalse(registry.isInFlight(KEY));
+      Assert.assertEquals(registry.getKey("uuid-1"), KEY);
+      Assert.assertEquals(registry.getKey("uuid-2"), KEY);
+      ProcessExec newer = registry.submit("uuid-3", KEY, TestFixtures.submission(counter));
+      Assert.assertEquals(counter.get(), 2);
+
+      // releasing the transformations of the ended execution keeps the newer one
+      registry.release("uuid-1");
+      registry.release("uuid-2");
+      Assert.assertSame(registry.attach("uuid-4", KEY).join(), newer);
+   }
+
+   @Test
+   public void testAttachPending() throws Exception
+   {
+      SubmissionRegistry registry = new SubmissionRegistry();
+      CountDownLatch submitting = new CountDownLatch(1);
+      CountDownLatch rejected = new CountDownLatch(1);
+      CompletableFuture<Void> submitted = CompletableFuture.runAsync(() ->
+      {
+         try
+         {
+            registry.submit("uuid-1", KEY, () ->
+            {
+               submitting.countDown();
+               try
+               {
+                  rejected.await();
+               }
+               catch (InterruptedException e)
+               {
+                  Thread.currentThread().interrupt();
+               }
+               throw new WPSException("rejected");
+            });
+         }
+         catch (WPSException e)
+         {
+            // expected
+         }
+      });
+      Assert.assertTrue(submitting.await(5, TimeUnit.SECONDS));
+
+      // the submission is not waited for
+      CompletableFuture<ProcessExec> attached = registry.attach("uuid-2", KEY);
+      Assert.assertFalse(attached.isDone());
+
+      rejected.countDown();
+      submitted.get(5, TimeUnit.SECONDS);
+      Assert.assertTrue(attached.isCompletedExceptionally());
+      Assert.assertFalse(registry.isInFlight(KEY));
+   }
+
+   @Test
+   public void testEvictionAndFailure() throws WPSException
+   {
+      SubmissionRegistry registry = new SubmissionRegistry();
+      AtomicInteger counter = new AtomicInteger();
+
+      registry.submit("uuid-1", KEY, TestFixtures.submission(counter));
+      registry.evict("uuid-1");
+      registry.submit("uuid-2", KEY, TestFixtures.submission(counter));
+      Assert.assertEquals(counter.get(), 2);
+      registry.release("uuid-2");
+
+      try
+      {
+         registry.submit("uuid-3", KEY, () -> { throw new WPSException("rejected"); });
+         Assert.fail("Submission failure expected");
+      }
+      catch (WPSException e)
+      {
+         Assert.assertEquals(e.getMessage(), "rejected");
+      }
+      Assert.assertEquals(registry.getInFlightCount(), 0);
+      Assert.assertNull(registry.getKey("uuid-3"));
+   }
+
+   @Test
+   public void testEvictionKeepsNewerExecution() throws WPSException
+   {
+      SubmissionRegistry registry = new SubmissionRegistry();
+      AtomicInteger counter = new AtomicInteger();
+
+      // uuid-1 and uuid-2 share a failed execution, uuid-3 starts a new one once evicted
+      registry.submit("uuid-1", KEY, TestFixtures.submission(counter));
+      registry.submit("uuid-2", KEY, TestFixtures.submission(counter));
+      registry.evict("uuid-1");
+      ProcessExec newer = registry.submit("uuid-3", KEY, TestFixtures.submission(counter));
+
+      // the failure seen later by uuid-2 does not evict the newer execution
+      registry.evict("uuid-2");
+      Assert.assertTrue(registry.isInFlight(KEY));
+      Assert.assertSame(registry.submit("uuid-4", KEY, TestFixtures.submission(counter)), newer);
+      Assert.assertEquals(counter.get(), 2);
+   }
+}
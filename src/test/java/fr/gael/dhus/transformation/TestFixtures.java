@@ -0,0 +1,106 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.ProcessStatus;
+import fr.gael.dhus.webprocess.WPSException;
+
+/**
+ * Fixtures shared by the tests of the transformer.
+ */
+final class TestFixtures
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private TestFixtures() {}
+
+   /**
+    * Deletes a temporary directory and its content.
+    */
+   static void delete(Path directory)
+   {
+      try (Stream<Path> files = Files.walk(directory))
+      {
+         files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+      catch (IOException e)
+      {
+         LOGGER.warn("Could not delete {}", directory, e);
+      }
+   }
+
+   /**
+    * Returns the test properties, with the scratch and data directories in the given directory.
+    */
+   static Properties properties(Path directory) throws IOException
+   {
+      Properties properties = new Properties();
+      try (InputStream input = TestFixtures.class.getResourceAsStream("/l2aOnDemand.properties"))
+      {
+         properties.load(input);
+      }
+      properties.setProperty("wps.tmp.dir", directory.resolve("scratch").toString());
+      properties.setProperty("wps.data.dir", directory.resolve("data").toString());
+      return properties;
+   }
+
+   /**
+    * Writes a product of the given size.
+    */
+   static Path product(Path directory, String name, int size) throws IOException
+   {
+      return Files.write(directory.resolve(name), new byte[size]);
+   }
+
+   /**
+    * Returns a submission of a new execution, counting the submissions.
+    */
+   static SubmissionRegistry.Submission submission(AtomicInteger counter)
+   {
+      return () ->
+      {
+         try
+         {
+            return new ProcessExec(ProcessStatus.ACCEPTED, new Date(),
+                  new URL("http://localhost/status?Id=" + counter.incrementAndGet()));
+         }
+         catch (MalformedURLException e)
+         {
+            throw new WPSException(e);
+         }
+      };
+   }
+}
@@ -0,0 +1,103 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TieredStorageTest
+{
+   private Path root;
+
+   @BeforeMethod
+   public void setUp() throws IOException
+   {
+      root = Files.createTempDirectory("tiered");
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void tearDown()
+   {
+      TestFixtures.delete(root);
+   }
+
+   @Test
+   public void testPromote() throws Exception
+   {
+      TieredStorage storage = new TieredStorage(root.resolve("scratch"), root.resolve("data"), 0);
+
+      Path product = Files.write(storage.getScratchDirectory().resolve("product.zip"), new byte[1000]);
+      storage.allocate(1000);
+      Assert.assertEquals(storage.getScratchUsed(), 1000);
+
+      Path promoted = storage.promote(product).get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(promoted, root.resolve("data").resolve("product.zip"));
+      Assert.assertEquals(Files.size(promoted), 1000);
+      Assert.assertFalse(Files.exists(product));
+      Assert.assertEquals(storage.getScratchUsed(), 0);
+   }
+
+   @Test
+   public void testSingleTier() throws Exception
+   {
+      TieredStorage storage = new TieredStorage(root, root, 0);
+
+      Path product = Files.write(root.resolve("product.zip"), new byte[10]);
+      storage.allocate(10);
+      Assert.assertEquals(storage.promote(product).get(), product);
+      Assert.assertEquals(storage.getScratchUsed(), 0);
+   }
+
+   @Test
+   public void testScratchBound() throws IOException, InterruptedException
+   {
+      TieredStorage storage = new TieredStorage(root.resolve("scratch"), root.resolve("data"), 100);
+
+      // an empty scratch directory always admits a download
+      storage.awaitScratchSpace();
+
+      storage.allocate(150);
+      CompletableFuture<Void> waiting = CompletableFuture.runAsync(() ->
+      {
+         try
+         {
+            storage.awaitScratchSpace();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+      });
+      Thread.sleep(100);
+      Assert.assertFalse(waiting.isDone());
+
+      storage.free(100);
+      waiting.join();
+      Assert.assertEquals(storage.getScratchUsed(), 50);
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TransferPipelineTest
+{
+   private static final byte[] CONTENT = new byte[100_000];
+
+   static
+   {
+      new Random(42).nextBytes(CONTENT);
+   }
+
+   private Path target;
+
+   @BeforeMethod
+   public void setUp() throws IOException
+   {
+      target = Files.createTempFile("pipeline", ".bin");
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void tearDown() throws IOException
+   {
+      Files.deleteIfExists(target);
+   }
+
+   @DataProvider
+   public Object[][] pipelines()
+   {
+      return new Object[][]
+      {
+         { new TransferPipeline(false, 4096, 4, 2) },
+         { new TransferPipeline(true, 4096, 4, 2) }
+      };
+   }
+
+   @Test(dataProvider = "pipelines")
+   public void testCopy(TransferPipeline pipeline) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE))
+      {
+         long size = pipeline.copy(Channels.newChannel(new ByteArrayInputStream(CONTENT)), channel, 0, -1,
+               written -> {});
+         Assert.assertEquals(size, CONTENT.length);
+      }
+      Assert.assertEquals(Files.readAllBytes(target), CONTENT);
+   }
+
+   @Test(dataProvider = "pipelines")
+   public void testCopyRange(TransferPipeline pipeline) throws IOException
+   {
+      long[] progress = new long[1];
+      try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE))
+      {
+         long size = pipeline.copy(Channels.newChannel(new ByteArrayInputStream(CONTENT)), channel, 10, 50_000,
+               written -> progress[0] = written);
+         Assert.assertEquals(size, 50_000);
+      }
+      Assert.assertEquals(progress[0], 50_000);
+
+      byte[] result = Files.readAllBytes(target);
+      Assert.assertEquals(result.length, 50_010);
+      for (int i = 0; i < 50_000; i++)
+      {
+         Assert.assertEquals(result[i + 10], CONTENT[i]);
+      }
+   }
+}
@@ -0,0 +1,259 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dhus.api.JobStatus;
+import org.dhus.api.transformation.TransformationException;
+import org.dhus.api.transformation.TransformationStatus;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fr.gael.dhus.webprocess.WpsSimulator;
+
+/**
+ * Drives concurrent transformations through the transformer against the WPS simulator, and
+ * reports the throughput and latency percentiles.
+ * <p>
+ * The load test itself is excluded from the default build, run it with
+ * {@code mvn test -Pload-test [-Dload.transformations=5000]}.
+ */
+public class TransformerLoadTest
+{
+   private static final Logger LOGGER = LogManager.getLogger();
+
+   private static final String ATTRIBUTE_TILE_ID = "Level-1C PDI Identifier";
+
+   // DHuS polls the status of each transformation periodically
+   private static final long STATUS_PERIOD = 100;
+
+   @Test
+   public void testSmoke() throws Exception
+   {
+      WpsSimulator simulator = new WpsSimulator()
+            .acceptDelay(WpsSimulator.uniform(50, 200))
+            .runDuration(WpsSimulator.uniform(100, 500))
+            .failureRate(0.1)
+            .gatewayTimeoutRate(0.02)
+            .resultSize(4096);
+      run(simulator, 50, 60);
+   }
+
+   @Test(groups = "load")
+   public void testLoad() throws Exception
+   {
+      WpsSimulator simulator = new WpsSimulator()
+            .acceptDelay(WpsSimulator.exponential(1000))
+            .runDuration(WpsSimulator.exponential(5000))
+            .failureRate(0.02)
+            .gatewayTimeoutRate(0.01)
+            .timeoutRate(0.001, 5000)
+            .resultSize(Long.getLong("load.result.size", 64 * 1024));
+      run(simulator, Integer.getInteger("load.transformations", 2000), Integer.getInteger("load.timeout", 600));
+   }
+
+   private static void run(WpsSimulator wps, int count, int timeout) throws Exception
+   {
+      Path tmpDir = Files.createTempDirectory("load-test");
+      try (WpsSimulator simulator = wps.start())
+      {
+         long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+         Sentinel2L2ATransformer transformer = start(simulator, tmpDir, deadline);
+
+         // submit all transformations concurrently
+         long start = System.nanoTime();
+         Map<String, String> data = new ConcurrentHashMap<>();
+         Map<String, Long> submitted = new ConcurrentHashMap<>();
+         List<Long> submitLatencies = Collections.synchronizedList(new ArrayList<>());
+         ExecutorService submitters = Executors.newFixedThreadPool(32);
+         List<Future<?>> submissions = new ArrayList<>();
+         for (int i = 0; i < count; i++)
+         {
+            String uuid = "load-" + i;
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put(ATTRIBUTE_TILE_ID, "S2B_OPER_MSI_L1C_TL_SIM__20200222T110232_A005038_T" + i + "_N02.06");
+            submissions.add(submitters.submit(() ->
+            {
+               long submitStart = System.nanoTime();
+               TransformationStatus status = transformer.submit(uuid, metadata);
+               submitLatencies.add(System.nanoTime() - submitStart);
+               submitted.put(uuid, submitStart);
+               data.put(uuid, status.getData());
+               return null;
+            }));
+         }
+         for (Future<?> submission: submissions)
+         {
+            submission.get();
+         }
+         submitters.shutdown();
+
+         // poll the status of all transformations, like DHuS does, until they end
+         List<Long> latencies = new ArrayList<>();
+         int failed = 0;
+         int errors = 0;
+         while (!data.isEmpty())
+         {
+            Assert.assertTrue(System.currentTimeMillis() < deadline,
+                  data.size() + " transformations still running after " + timeout + "s");
+            for (Map.Entry<String, String> entry: data.entrySet())
+            {
+               String uuid = entry.getKey();
+               try
+               {
+                  TransformationStatus status = transformer.getTransformationStatus(uuid, entry.getValue());
+                  if (status.getStatus() == JobStatus.COMPLETED)
+                  {
+                     latencies.add(System.nanoTime() - submitted.get(uuid));
+                     Files.deleteIfExists(Paths.get(status.getResult().toURI()));
+                  }
+                  else if (status.getStatus() == JobStatus.FAILED)
+                  {
+                     failed++;
+                  }
+                  else
+                  {
+                     entry.setValue(status.getData());
+                     continue;
+                  }
+               }
+               catch (TransformationException e)
+               {
+                  LOGGER.warn("Transformation '{}' in error", uuid, e);
+                  errors++;
+               }
+               transformer.terminateTransformation(uuid);
+               data.remove(uuid);
+            }
+            Thread.sleep(STATUS_PERIOD);
+         }
+         double elapsed = (System.nanoTime() - start) / 1e9;
+
+         LOGGER.info("{} transformations in {} s: {} completed ({} /s), {} failed, {} errors", count,
+               String.format("%.1f", elapsed), latencies.size(), String.format("%.1f", latencies.size() / elapsed),
+               failed, errors);
+         LOGGER.info("Submission latency: {}", percentiles(submitLatencies));
+         LOGGER.info("Transformation latency: {}", percentiles(latencies));
+         LOGGER.info("WPS requests: {} executions, {} status queries, {} downloads, {} 504s and {} timeouts injected",
+               simulator.getExecuteCount(), simulator.getStatusCount(), simulator.getDownloadCount(),
+               simulator.getGatewayTimeoutCount(), simulator.getTimeoutCount());
+
+         Assert.assertEquals(errors, 0);
+         Assert.assertEquals(latencies.size() + failed, count);
+         // faults are injected before executions are launched, none is launched twice
+         Assert.assertEquals(simulator.getExecuteCount(), count);
+      }
+      finally
+      {
+         TestFixtures.delete(tmpDir);
+      }
+   }
+
+   @Test
+   public void testRestoreQueued() throws Exception
+   {
+      Path tmpDir = Files.createTempDirectory("load-test");
+      try (WpsSimulator simulator = new WpsSimulator().runDuration(WpsSimulator.constant(100)).start())
+      {
+         // submission queued before a restart
+         new StateJournal(tmpDir.resolve("scratch").resolve("state.journal"), 1000)
+               .queued("restored", "S2B_OPER_MSI_L1C_TL_SIM__20200222T110232_A005038_T1_N02.06", 5);
+
+         long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+         Sentinel2L2ATransformer transformer = start(simulator, tmpDir, deadline);
+         String data = "queued:restored";
+         TransformationStatus status;
+         do
+         {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "Transformation still running");
+            Thread.sleep(STATUS_PERIOD);
+            status = transformer.getTransformationStatus("restored", data);
+            data = status.getData();
+         }
+         while (status.getStatus() == JobStatus.RUNNING);
+
+         Assert.assertEquals(status.getStatus(), JobStatus.COMPLETED);
+         Assert.assertEquals(simulator.getExecuteCount(), 1);
+         transformer.terminateTransformation("restored");
+      }
+      finally
+      {
+         TestFixtures.delete(tmpDir);
+      }
+   }
+
+   /**
+    * Starts a transformer against the simulator, working in the given directory, and waits for
+    * its warm-up.
+    */
+   private static Sentinel2L2ATransformer start(WpsSimulator simulator, Path tmpDir, long deadline)
+         throws Exception
+   {
+      Properties properties = TestFixtures.properties(tmpDir);
+      properties.setProperty("wps.url", simulator.getServiceUrl().toString());
+      properties.setProperty("wps.capabilities.ttl", "0");
+      properties.setProperty("wps.poller.interval", "200");
+      properties.setProperty("wps.poller.rate", "5000");
+      properties.setProperty("wps.submit.rate", "0");
+      properties.setProperty("wps.submit.max.outstanding", "0");
+
+      Sentinel2L2ATransformer transformer = new Sentinel2L2ATransformer(new Configuration(properties), true);
+      while (!transformer.isReady())
+      {
+         Assert.assertTrue(System.currentTimeMillis() < deadline, "Transformer not ready");
+         Thread.sleep(50);
+      }
+      return transformer;
+   }
+
+   private static String percentiles(List<Long> durations)
+   {
+      List<Long> sorted = new ArrayList<>(durations);
+      Collections.sort(sorted);
+      if (sorted.isEmpty())
+      {
+         return "none";
+      }
+      return String.format("p50 %d ms, p95 %d ms, p99 %d ms, max %d ms", percentile(sorted, 50),
+            percentile(sorted, 95), percentile(sorted, 99), percentile(sorted, 100));
+   }
+
+   private static long percentile(List<Long> sorted, int percentile)
+   {
+      int index = Math.max(0, (int) Math.ceil(percentile / 100d * sorted.size()) - 1);
+      return TimeUnit.NANOSECONDS.toMillis(sorted.get(index));
+   }
+}
@@ -0,0 +1,100 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.transformation;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fr.gael.dhus.webprocess.LatencyHistogram;
+import fr.gael.dhus.webprocess.WpsMetrics;
+
+public class TransformerMetricsTest
+{
+   private Path directory;
+
+   @BeforeMethod
+   public void setUp() throws IOException
+   {
+      directory = Files.createTempDirectory("metrics");
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void tearDown()
+   {
+      TestFixtures.delete(directory);
+   }
+
+   @Test
+   public void testHistogram()
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      for (int i = 1; i <= 100; i++)
+      {
+         histogram.record(i, TimeUnit.MILLISECONDS);
+      }
+      Assert.assertEquals(histogram.getCount(), 100);
+      Assert.assertEquals(histogram.getMean(), 50.5, 0.001);
+      Assert.assertEquals(histogram.getMax(), 100);
+      Assert.assertEquals(histogram.getPercentile(50), 64);
+      Assert.assertEquals(histogram.getPercentile(100), 100);
+      Assert.assertEquals(histogram.getBuckets().get("<=64ms").longValue(), 32);
+   }
+
+   @Test
+   public void testRegister() throws IOException, JMException
+   {
+      // the scratch and data directories of the test properties are relative to the working directory
+      Configuration conf = new Configuration(TestFixtures.properties(directory));
+      StateJournal journal = new StateJournal(directory.resolve("state.journal"), 1000);
+      DownloadManager downloadManager = new DownloadManager(conf, journal);
+      StatusPoller poller = new StatusPoller(conf, null);
+
+      new TransformerMetrics(new Sentinel2L2ATransformer(conf, false), downloadManager, poller).register();
+      LatencyHistogram latency = WpsMetrics.getInstance().getLatency(WpsMetrics.RequestType.STATUS);
+      latency.record(10, TimeUnit.MILLISECONDS);
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(TransformerMetrics.OBJECT_NAME);
+      TabularData counts = (TabularData) server.getAttribute(name, "WpsRequestCount");
+      Assert.assertEquals(counts.get(new Object[] { "STATUS" }).get("value"), latency.getCount());
+      Assert.assertEquals(server.getAttribute(name, "DownloadQueueDepth"), 0);
+      Assert.assertEquals(server.getAttribute(name, "Ready"), false);
+
+      server.setAttribute(name, new Attribute("DownloadBandwidthNight", 1000L));
+      Assert.assertEquals(downloadManager.getBandwidthLimiter().getNightLimit(), 1000);
+
+      TabularData tracked = (TabularData) server.getAttribute(name, "TrackedTransformations");
+      Assert.assertEquals(tracked.get(new Object[] { "DOWNLOADING" }).get("value"), 0);
+   }
+}
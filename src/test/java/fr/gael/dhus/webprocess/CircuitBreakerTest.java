@@ -0,0 +1,101 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CircuitBreakerTest
+{
+   @Test
+   public void testOpenAndRecover()
+   {
+      AtomicLong clock = new AtomicLong();
+      CircuitBreaker breaker = new CircuitBreaker("http://localhost", 3, 1000, clock::get);
+
+      for (int i = 0; i < 3; i++)
+      {
+         Assert.assertTrue(breaker.tryAcquire());
+         breaker.onFailure();
+      }
+      Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+      Assert.assertFalse(breaker.tryAcquire());
+      Assert.assertEquals(breaker.getRejectedCount(), 1);
+
+      // a single probe once the open duration has elapsed, failing
+      clock.set(1000);
+      Assert.assertTrue(breaker.tryAcquire());
+      Assert.assertFalse(breaker.tryAcquire());
+      breaker.onFailure();
+      Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+      Assert.assertEquals(breaker.getOpenedCount(), 2);
+
+      // succeeding probe closes the circuit
+      clock.set(2000);
+      Assert.assertTrue(breaker.tryAcquire());
+      Assert.assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+      breaker.onSuccess();
+      Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+      Assert.assertTrue(breaker.tryAcquire());
+   }
+
+   @Test
+   public void testReleasedProbe()
+   {
+      AtomicLong clock = new AtomicLong();
+      CircuitBreaker breaker = new CircuitBreaker("http://localhost", 1, 1000, clock::get);
+      Assert.assertTrue(breaker.tryAcquire());
+      breaker.onFailure();
+
+      // a probe that never reached the endpoint lets another one through
+      clock.set(1000);
+      Assert.assertTrue(breaker.tryAcquire());
+      Assert.assertFalse(breaker.tryAcquire());
+      breaker.release();
+      Assert.assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+      Assert.assertTrue(breaker.tryAcquire());
+      breaker.onSuccess();
+      Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+   }
+
+   @Test
+   public void testSuccessResetsFailures()
+   {
+      CircuitBreaker breaker = new CircuitBreaker("http://localhost", 2, 1000, () -> 0);
+      breaker.onFailure();
+      breaker.onSuccess();
+      breaker.onFailure();
+      Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+      Assert.assertEquals(breaker.getFailureCount(), 2);
+   }
+
+   @Test
+   public void testBackoffDelay()
+   {
+      RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+      for (int retry = 0; retry < 10; retry++)
+      {
+         long delay = policy.getDelay(retry);
+         Assert.assertTrue(delay >= 0 && delay <= Math.min(1000, 100L << retry), "retry " + retry + ": " + delay);
+      }
+   }
+}
@@ -0,0 +1,477 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * In-process Sentinel-2 WPS simulator, to test the transformer at scale.
+ * <p>
+ * Accepted executions stay ACCEPTED, then STARTED with an increasing percentCompleted, and end
+ * SUCCEEDED or FAILED, on configurable timing distributions. Succeeded executions serve a
+ * synthetic result TAR of configurable size, with support of range requests. Gateway timeouts
+ * (504) and timeouts (responses delayed beyond the client socket timeout) are injected on WPS
+ * requests at configurable rates.
+ */
+public class WpsSimulator implements AutoCloseable
+{
+   private static final String SERVICE_PATH = "/cgi-bin/pywps.cgi";
+   private static final String STATUS_PATH = "/cgi-bin/pywpsmon.cgi";
+   private static final String RESULT_PATH = "/restsrv/rest/";
+
+   private static final String EXECUTE_RESPONSE =
+         "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+         + "<wps:ExecuteResponse xmlns:wps=\"http://www.opengis.net/wps/1.0.0\" "
+         + "xmlns:ows=\"http://www.opengis.net/ows/1.1\" service=\"WPS\" version=\"1.0.0\" statusLocation=\"%s\">\n"
+         + "   <wps:Process wps:processVersion=\"1\"><ows:Identifier>l2a</ows:Identifier></wps:Process>\n"
+         + "   <wps:Status creationTime=\"%s\">%s</wps:Status>\n"
+         + "%s"
+         + "</wps:ExecuteResponse>\n";
+
+   private static final String OUTPUTS =
+         "   <wps:ProcessOutputs><wps:Output><ows:Identifier>resultUrl</ows:Identifier>"
+         + "<wps:Data><wps:LiteralData dataType=\"string\">%s</wps:LiteralData></wps:Data>"
+         + "</wps:Output></wps:ProcessOutputs>\n";
+
+   private LongSupplier acceptDelay = constant(0);
+   private LongSupplier runDuration = constant(0);
+   private double failureRate = 0;
+   private double gatewayTimeoutRate = 0;
+   private double timeoutRate = 0;
+   private long timeoutDelay = 5000;
+   private long resultSize = 1024;
+
+   private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+   private final AtomicLong ids = new AtomicLong();
+
+   private final AtomicInteger executeCount = new AtomicInteger();
+   private final AtomicInteger statusCount = new AtomicInteger();
+   private final AtomicInteger downloadCount = new AtomicInteger();
+   private final AtomicInteger gatewayTimeoutCount = new AtomicInteger();
+   private final AtomicInteger timeoutCount = new AtomicInteger();
+
+   private HttpServer server;
+   private ExecutorService executor;
+   private byte[] capabilities;
+
+   /**
+    * Returns a constant duration in milliseconds.
+    */
+   public static LongSupplier constant(long millis)
+   {
+      return () -> millis;
+   }
+
+   /**
+    * Returns durations uniformly distributed between the given bounds, in milliseconds.
+    */
+   public static LongSupplier uniform(long min, long max)
+   {
+      return () -> ThreadLocalRandom.current().nextLong(min, max + 1);
+   }
+
+   /**
+    * Returns exponentially distributed durations of the given mean, in milliseconds.
+    */
+   public static LongSupplier exponential(long mean)
+   {
+      return () -> (long) (-mean * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+   }
+
+   /**
+    * Sets the time executions stay ACCEPTED.
+    */
+   public WpsSimulator acceptDelay(LongSupplier acceptDelay)
+   {
+      this.acceptDelay = acceptDelay;
+      return this;
+   }
+
+   /**
+    * Sets the time executions stay STARTED.
+    */
+   public WpsSimulator runDuration(LongSupplier runDuration)
+   {
+      this.runDuration = runDuration;
+      return this;
+   }
+
+   /**
+    * Sets the ratio of executions ending FAILED.
+    */
+   public WpsSimulator failureRate(double failureRate)
+   {
+      this.failureRate = failureRate;
+      return this;
+   }
+
+   /**
+    * Sets the ratio of WPS requests answered with a 504 Gateway Timeout.
+    */
+   public WpsSimulator gatewayTimeoutRate(double gatewayTimeoutRate)
+   {
+      this.gatewayTimeoutRate = gatewayTimeoutRate;
+      return this;
+   }
+
+   /**
+    * Sets the ratio of WPS requests answered after the given delay, in milliseconds.
+    */
+   public WpsSimulator timeoutRate(double timeoutRate, long timeoutDelay)
+   {
+      this.timeoutRate = timeoutRate;
+      this.timeoutDelay = timeoutDelay;
+      return this;
+   }
+
+   /**
+    * Sets the size of the product in result TARs, in bytes.
+    */
+   public WpsSimulator resultSize(long resultSize)
+   {
+      this.resultSize = resultSize;
+      return this;
+   }
+
+   public WpsSimulator start() throws IOException
+   {
+      try (InputStream input = ClassLoader.getSystemResourceAsStream("get_capabilities.xml"))
+      {
+         capabilities = readAll(input);
+      }
+      executor = Executors.newCachedThreadPool(runnable ->
+      {
+         Thread thread = new Thread(runnable, "wps-simulator");
+         thread.setDaemon(true);
+         return thread;
+      });
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+      server.setExecutor(executor);
+      server.createContext(SERVICE_PATH, exchange -> handle(exchange, this::service));
+      server.createContext(STATUS_PATH, exchange -> handle(exchange, this::status));
+      server.createContext(RESULT_PATH, exchange -> handle(exchange, this::result));
+      server.start();
+      return this;
+   }
+
+   @Override
+   public void close()
+   {
+      server.stop(0);
+      executor.shutdownNow();
+   }
+
+   public URL getServiceUrl() throws IOException
+   {
+      return new URL(getBaseUrl() + SERVICE_PATH);
+   }
+
+   private String getBaseUrl()
+   {
+      return "http://localhost:" + server.getAddress().getPort();
+   }
+
+   public int getExecuteCount()
+   {
+      return executeCount.get();
+   }
+
+   public int getStatusCount()
+   {
+      return statusCount.get();
+   }
+
+   public int getDownloadCount()
+   {
+      return downloadCount.get();
+   }
+
+   public int getGatewayTimeoutCount()
+   {
+      return gatewayTimeoutCount.get();
+   }
+
+   public int getTimeoutCount()
+   {
+      return timeoutCount.get();
+   }
+
+   @FunctionalInterface
+   private interface Handler
+   {
+      void handle(HttpExchange exchange, Map<String, String> parameters) throws IOException;
+   }
+
+   private void handle(HttpExchange exchange, Handler handler) throws IOException
+   {
+      try
+      {
+         handler.handle(exchange, parseQuery(exchange.getRequestURI()));
+      }
+      catch (IOException | RuntimeException e)
+      {
+         send(exchange, 500, e.toString().getBytes(StandardCharsets.UTF_8));
+      }
+      finally
+      {
+         exchange.close();
+      }
+   }
+
+   /**
+    * Injects faults on WPS requests.
+    *
+    * @return true if the request was answered with a fault
+    */
+   private boolean injectFault(HttpExchange exchange) throws IOException
+   {
+      double draw = ThreadLocalRandom.current().nextDouble();
+      if (draw < gatewayTimeoutRate)
+      {
+         gatewayTimeoutCount.incrementAndGet();
+         send(exchange, 504, "Gateway Timeout".getBytes(StandardCharsets.UTF_8));
+         return true;
+      }
+      if (draw < gatewayTimeoutRate + timeoutRate)
+      {
+         timeoutCount.incrementAndGet();
+         try
+         {
+            Thread.sleep(timeoutDelay);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         send(exchange, 504, "Gateway Timeout".getBytes(StandardCharsets.UTF_8));
+         return true;
+      }
+      return false;
+   }
+
+   private void service(HttpExchange exchange, Map<String, String> parameters) throws IOException
+   {
+      if (injectFault(exchange))
+      {
+         return;
+      }
+      String request = parameters.get("REQUEST");
+      if ("GetCapabilities".equals(request))
+      {
+         send(exchange, 200, capabilities);
+      }
+      else if ("Execute".equals(request))
+      {
+         executeCount.incrementAndGet();
+         long id = ids.incrementAndGet();
+         long accept = Math.max(0, acceptDelay.getAsLong());
+         Job job = new Job(id, System.currentTimeMillis(), accept, Math.max(1, runDuration.getAsLong()),
+               ThreadLocalRandom.current().nextDouble() < failureRate);
+         jobs.put(id, job);
+         send(exchange, 200, format(job, "<wps:ProcessAccepted>Process l2a accepted</wps:ProcessAccepted>", ""));
+      }
+      else
+      {
+         send(exchange, 400, ("Unknown request: " + request).getBytes(StandardCharsets.UTF_8));
+      }
+   }
+
+   private void status(HttpExchange exchange, Map<String, String> parameters) throws IOException
+   {
+      if (injectFault(exchange))
+      {
+         return;
+      }
+      statusCount.incrementAndGet();
+      Job job = jobs.get(Long.valueOf(parameters.getOrDefault("ID", "-1")));
+      if (job == null)
+      {
+         send(exchange, 404, "Unknown execution".getBytes(StandardCharsets.UTF_8));
+         return;
+      }
+
+      long elapsed = System.currentTimeMillis() - job.created;
+      String status;
+      String outputs = "";
+      if (elapsed < job.acceptDelay)
+      {
+         status = "<wps:ProcessAccepted>Process l2a accepted</wps:ProcessAccepted>";
+      }
+      else if (elapsed < job.acceptDelay + job.runDuration)
+      {
+         long percent = (elapsed - job.acceptDelay) * 100 / job.runDuration;
+         status = "<wps:ProcessStarted percentCompleted=\"" + percent + "\">Processing</wps:ProcessStarted>";
+      }
+      else if (job.fails)
+      {
+         status = "<wps:ProcessFailed>Simulated failure</wps:ProcessFailed>";
+      }
+      else
+      {
+         status = "<wps:ProcessSucceeded>Process l2a successfully calculated</wps:ProcessSucceeded>";
+         outputs = String.format(OUTPUTS, getBaseUrl() + RESULT_PATH + job.id + ".tar");
+      }
+      send(exchange, 200, format(job, status, outputs));
+   }
+
+   private byte[] format(Job job, String status, String outputs)
+   {
+      SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+      formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+      String statusLocation = getBaseUrl() + STATUS_PATH + "?Id=" + job.id;
+      return String.format(EXECUTE_RESPONSE, statusLocation, formatter.format(new Date(job.created)), status, outputs)
+            .getBytes(StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Serves a result TAR holding a product directory and a zipped SAFE product of the configured
+    * size, like the ones of the PDGS. Results are built in memory.
+    */
+   private void result(HttpExchange exchange, Map<String, String> parameters) throws IOException
+   {
+      String path = exchange.getRequestURI().getPath();
+      String id = path.substring(RESULT_PATH.length(), path.length() - ".tar".length());
+      String product = "S2_SIM_l2a_" + id;
+
+      ByteArrayOutputStream archive = new ByteArrayOutputStream();
+      try (TarArchiveOutputStream output = new TarArchiveOutputStream(archive))
+      {
+         output.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+         output.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+         output.putArchiveEntry(new TarArchiveEntry(product + "/"));
+         output.closeArchiveEntry();
+         TarArchiveEntry entry = new TarArchiveEntry(product + "/" + product + ".SAFE.zip");
+         entry.setSize(resultSize);
+         output.putArchiveEntry(entry);
+         byte[] buffer = new byte[64 * 1024];
+         for (long written = 0; written < resultSize; written += buffer.length)
+         {
+            output.write(buffer, 0, (int) Math.min(buffer.length, resultSize - written));
+         }
+         output.closeArchiveEntry();
+      }
+      downloadCount.incrementAndGet();
+
+      byte[] content = archive.toByteArray();
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      if (range == null)
+      {
+         send(exchange, 200, content);
+         return;
+      }
+      String[] bounds = range.substring("bytes=".length()).split("-", -1);
+      int offset = Integer.parseInt(bounds[0]);
+      int last = bounds[1].isEmpty() ? content.length - 1 : Math.min(content.length - 1, Integer.parseInt(bounds[1]));
+      if (offset >= content.length)
+      {
+         send(exchange, 416, new byte[0]);
+         return;
+      }
+      exchange.getResponseHeaders().add("Content-Range", "bytes " + offset + "-" + last + "/" + content.length);
+      exchange.sendResponseHeaders(206, last - offset + 1);
+      try (OutputStream body = exchange.getResponseBody())
+      {
+         body.write(content, offset, last - offset + 1);
+      }
+   }
+
+   private static void send(HttpExchange exchange, int code, byte[] body) throws IOException
+   {
+      exchange.getResponseHeaders().add("Content-Type", code == 200 ? "text/xml" : "text/plain");
+      exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+      try (OutputStream output = exchange.getResponseBody())
+      {
+         output.write(body);
+      }
+   }
+
+   private static Map<String, String> parseQuery(URI uri)
+   {
+      Map<String, String> parameters = new HashMap<>();
+      String query = uri.getRawQuery();
+      if (query != null)
+      {
+         for (String parameter: query.split("&"))
+         {
+            int equals = parameter.indexOf('=');
+            if (equals > 0)
+            {
+               parameters.put(parameter.substring(0, equals).toUpperCase(), parameter.substring(equals + 1));
+            }
+         }
+      }
+      return parameters;
+   }
+
+   private static byte[] readAll(InputStream input) throws IOException
+   {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) != -1)
+      {
+         output.write(buffer, 0, read);
+      }
+      return output.toByteArray();
+   }
+
+   private static final class Job
+   {
+      private final long id;
+      private final long created;
+      private final long acceptDelay;
+      private final long runDuration;
+      private final boolean fails;
+
+      private Job(long id, long created, long acceptDelay, long runDuration, boolean fails)
+      {
+         this.id = id;
+         this.created = created;
+         this.acceptDelay = acceptDelay;
+         this.runDuration = runDuration;
+         this.fails = fails;
+      }
+   }
+}
@@ -0,0 +1,119 @@
+/*
+ * Data Hub Service (DHuS) - For Space data distribution.
+ * Copyright (C) 2020 GAEL Systems
+ *
+ * This file is part of DHuS software sources.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.gael.dhus.webprocess.sentinel2;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import fr.gael.dhus.webprocess.ProcessExec;
+import fr.gael.dhus.webprocess.ProcessExecStatus;
+import fr.gael.dhus.webprocess.ProcessStatus;
+import fr.gael.dhus.webprocess.WPSException;
+
+public class ResponseParserTest
+{
+   @DataProvider(name = "parsers")
+   public Object[][] parsers()
+   {
+      return new Object[][]
+      {
+         { ResponseParser.forName("drb") },
+         { ResponseParser.forName("stax") }
+      };
+   }
+
+   private static InputStream resource(String name)
+   {
+      return ClassLoader.getSystemResourceAsStream(name);
+   }
+
+   @Test(dataProvider = "parsers")
+   public void testCapabilities(ResponseParser parser) throws WPSException
+   {
+      Capabilities capabilities = parser.parseCapabilities(resource("get_capabilities.xml"));
+      Assert.assertEquals(capabilities.getName(), "DAG-B WPS Server");
+      Assert.assertEquals(capabilities.getDescription(),
+            "See http://pywps.wald.intevation.org and http://www.opengeospatial.org/standards/wps");
+      Assert.assertEquals(capabilities.getVersion(), "1.0.0");
+      Assert.assertTrue(capabilities.getProcessNames().contains("l2a"));
+      Assert.assertTrue(capabilities.getProcessNames().contains("TCI"));
+   }
+
+   @Test(dataProvider = "parsers")
+   public void testExecuteResponse(ResponseParser parser) throws WPSException
+   {
+      ProcessExec execution = parser.parseExecuteResponse(resource("l2a_execute_ok.xml"));
+      Assert.assertEquals(execution.getStatus(), ProcessStatus.ACCEPTED);
+      Assert.assertEquals(execution.getCreationTime().getTime(), 1000);
+      Assert.assertEquals(execution.getMonitoringUrl().toString(),
+            "http://localhost:1234/cgi-bin/pywpsmon.cgi?Id=789c558e4d4bc4301445ff4d76493d");
+   }
+
+   @Test
+   public void testConcurrentExecuteResponses() throws Exception
+   {
+      // responses are parsed concurrently by the poller and the submission workers
+      ResponseParser parser = ResponseParser.forName("stax");
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try
+      {
+         List<Future<ProcessExec>> executions = new ArrayList<>();
+         for (int i = 0; i < 1000; i++)
+         {
+            executions.add(executor.submit(() -> parser.parseExecuteResponse(resource("l2a_execute_ok.xml"))));
+         }
+         for (Future<ProcessExec> execution: executions)
+         {
+            Assert.assertEquals(execution.get().getCreationTime().getTime(), 1000);
+         }
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+   }
+
+   @Test(dataProvider = "parsers")
+   public void testStatusProcessing(ResponseParser parser) throws WPSException
+   {
+      ProcessExecStatus status = parser.parseExecutionStatus(resource("l2a_status_processing.xml"));
+      Assert.assertEquals(status.getStatus(), ProcessStatus.STARTED);
+      Assert.assertEquals(status.getProgression(), 6);
+      Assert.assertNull(status.getOutput());
+   }
+
+   @Test(dataProvider = "parsers")
+   public void testStatusCompleted(ResponseParser parser) throws WPSException
+   {
+      ProcessExecStatus status = parser.parseExecutionStatus(resource("l2a_status_completed.xml"));
+      Assert.assertEquals(status.getStatus(), ProcessStatus.SUCCEEDED);
+      Assert.assertEquals(status.getProgression(), 100);
+      Assert.assertEquals(status.getOutput(), "https://pac1dag.sentinel2.eo.esa.int/restsrv/" +
+            "rest/ngEO?PdiID=S2_EPA__l2a_20180305_3.tar&userPriority=1&user=test_user_2");
+   }
+}
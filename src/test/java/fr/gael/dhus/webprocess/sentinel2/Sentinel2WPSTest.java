@@ -24,7 +24,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import io.netty.handler.codec.http.HttpMethod;
 import org.mockserver.client.MockServerClient;
@@ -42,7 +44,9 @@ import org.testng.annotations.Test;
 import fr.gael.dhus.webprocess.ProcessExec;
 import fr.gael.dhus.webprocess.ProcessExecStatus;
 import fr.gael.dhus.webprocess.ProcessStatus;
+import fr.gael.dhus.webprocess.RetryPolicy;
 import fr.gael.dhus.webprocess.WPSException;
+import fr.gael.dhus.webprocess.WpsSimulator;
 
 public class Sentinel2WPSTest
 {
@@ -157,6 +161,47 @@ public class Sentinel2WPSTest
             "rest/ngEO?PdiID=S2_EPA__l2a_20180305_3.tar&userPriority=1&user=test_user_2");
    }
 
+   @Test(dependsOnMethods = {"testExecuteOk"})
+   public void testStatusAsync() throws MalformedURLException
+   {
+      URL url = new URL(MONITORING_URL + "?Id=" + STATUS_ID_MONITORING_COMPLETED);
+      List<CompletableFuture<ProcessExecStatus>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; i++)
+      {
+         futures.add(wps.queryExecutionStatusAsync(url));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+      for (CompletableFuture<ProcessExecStatus> future: futures)
+      {
+         Assert.assertEquals(future.join().getStatus(), ProcessStatus.SUCCEEDED);
+      }
+   }
+
+   @Test
+   public void testCancelAbortsRetries() throws Exception
+   {
+      try (WpsSimulator simulator = new WpsSimulator().start())
+      {
+         Sentinel2WebProcessService service = Sentinel2WebProcessService.loadWPS(simulator.getServiceUrl());
+         URL url = service.queryProcessExecution("l2a", "tile").getMonitoringUrl();
+
+         // status queries answered with a 504 long after the cancellation, retried unless cancelled
+         simulator.timeoutRate(1, 30000);
+         long retries = RetryPolicy.getInstance().getRetryCount();
+         CompletableFuture<ProcessExecStatus> future = service.queryExecutionStatusAsync(url);
+         while (simulator.getTimeoutCount() == 0)
+         {
+            Thread.sleep(10);
+         }
+
+         // the pending attempt is aborted by the cancellation, its answer never schedules a retry
+         Assert.assertTrue(future.cancel(true));
+         Assert.assertTrue(future.isCancelled());
+         Assert.assertEquals(RetryPolicy.getInstance().getRetryCount(), retries);
+         Assert.assertEquals(simulator.getTimeoutCount(), 1);
+      }
+   }
+
    private static class Sentinel2PDGSPWSCallback implements ExpectationResponseCallback
    {
       @Override